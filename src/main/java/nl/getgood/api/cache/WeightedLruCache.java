@@ -0,0 +1,203 @@
+package nl.getgood.api.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * A least-recently-used cache that is bounded by the total weight of its values,
+ * rather than by the amount of entries it contains.
+ * This is used to cache byte data, where the weight of an entry is its size in bytes.
+ * All operations are synchronized, which keeps the implementation simple; the
+ * critical sections are a single map operation.
+ * <br /> <br />
+ * Created by agent.
+ */
+public class WeightedLruCache<K, V>
+{
+
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>( 16, 0.75f, true );
+    private final ToLongFunction<V> weigher;
+    private final long maximumWeight;
+
+    private long weight = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maximumWeight The maximum total weight of all entries in the cache.
+     * @param weigher       The function that determines the weight of a value.
+     */
+    public WeightedLruCache( long maximumWeight, ToLongFunction<V> weigher )
+    {
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+    }
+
+    /**
+     * Returns the value associated with the key, or null if no such value is cached.
+     *
+     * @param key The key to look up.
+     * @return The cached value, or null.
+     */
+    public synchronized V get( K key )
+    {
+        V value = this.entries.get( key );
+        if ( value == null )
+            this.misses++;
+        else
+            this.hits++;
+        return value;
+    }
+
+    /**
+     * Adds a value to the cache, evicting the least recently used entries until
+     * the total weight is within bounds again.
+     * Values that are heavier than the maximum weight are not cached at all.
+     *
+     * @param key   The key of the value.
+     * @param value The value to cache.
+     */
+    public synchronized void put( K key, V value )
+    {
+        long valueWeight = this.weigher.applyAsLong( value );
+        if ( valueWeight > this.maximumWeight )
+            return;
+
+        V previous = this.entries.put( key, value );
+        if ( previous != null )
+            this.weight -= this.weigher.applyAsLong( previous );
+        this.weight += valueWeight;
+
+        Iterator<Map.Entry<K, V>> iterator = this.entries.entrySet().iterator();
+        while ( this.weight > this.maximumWeight && iterator.hasNext() )
+        {
+            Map.Entry<K, V> eldest = iterator.next();
+            this.weight -= this.weigher.applyAsLong( eldest.getValue() );
+            iterator.remove();
+            this.evictions++;
+        }
+    }
+
+    /**
+     * Removes the value associated with the key.
+     *
+     * @param key The key to invalidate.
+     */
+    public synchronized void invalidate( K key )
+    {
+        V previous = this.entries.remove( key );
+        if ( previous != null )
+            this.weight -= this.weigher.applyAsLong( previous );
+    }
+
+    /**
+     * Removes all entries whose key matches the provided predicate.
+     *
+     * @param predicate The predicate to test the keys with.
+     */
+    public synchronized void invalidateIf( Predicate<K> predicate )
+    {
+        Iterator<Map.Entry<K, V>> iterator = this.entries.entrySet().iterator();
+        while ( iterator.hasNext() )
+        {
+            Map.Entry<K, V> entry = iterator.next();
+            if ( predicate.test( entry.getKey() ) )
+            {
+                this.weight -= this.weigher.applyAsLong( entry.getValue() );
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all entries whose key and value match the provided predicate.
+     *
+     * @param predicate The predicate to test the keys and values with.
+     */
+    public synchronized void invalidateIf( BiPredicate<K, V> predicate )
+    {
+        Iterator<Map.Entry<K, V>> iterator = this.entries.entrySet().iterator();
+        while ( iterator.hasNext() )
+        {
+            Map.Entry<K, V> entry = iterator.next();
+            if ( predicate.test( entry.getKey(), entry.getValue() ) )
+            {
+                this.weight -= this.weigher.applyAsLong( entry.getValue() );
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public synchronized void clear()
+    {
+        this.entries.clear();
+        this.weight = 0;
+    }
+
+    /**
+     * Returns the amount of entries in the cache.
+     */
+    public synchronized int size()
+    {
+        return this.entries.size();
+    }
+
+    /**
+     * Returns the total weight of all entries in the cache.
+     */
+    public synchronized long weight()
+    {
+        return this.weight;
+    }
+
+    /**
+     * Returns the maximum weight of the cache.
+     */
+    public long maximumWeight()
+    {
+        return this.maximumWeight;
+    }
+
+    /**
+     * Returns the amount of lookups that found a value.
+     */
+    public synchronized long hits()
+    {
+        return this.hits;
+    }
+
+    /**
+     * Returns the amount of lookups that did not find a value.
+     */
+    public synchronized long misses()
+    {
+        return this.misses;
+    }
+
+    /**
+     * Returns the amount of entries that were evicted to stay within the weight bound.
+     */
+    public synchronized long evictions()
+    {
+        return this.evictions;
+    }
+
+    /**
+     * Returns the ratio of lookups that found a value, between 0 and 1.
+     */
+    public synchronized double hitRatio()
+    {
+        long lookups = this.hits + this.misses;
+        return lookups == 0 ? 0 : ( double ) this.hits / lookups;
+    }
+}
@@ -0,0 +1,130 @@
+package nl.getgood.api.http;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A range of bytes of a resource, as requested with the `Range` header.
+ * Both the first and the last position are inclusive.
+ * <br /> <br />
+ * Created by agent.
+ *
+ * @param first The position of the first byte of the range.
+ * @param last  The position of the last byte of the range.
+ */
+public record ByteRange( long first, long last )
+{
+
+    /**
+     * The maximum amount of ranges that are served for a single request.
+     * Requests for more ranges are answered with the full resource, which prevents
+     * clients from making the server do a lot of work for many tiny ranges.
+     */
+    public static final int MAXIMUM_RANGES = 16;
+
+    /**
+     * Parses the value of a `Range` header for a resource of the provided size.
+     * Ranges that lie beyond the end of the resource are left out, and ranges
+     * that extend beyond it are cut off at the end. Ranges that overlap or are adjacent
+     * are coalesced into a single range, so no byte is sent more than once.
+     *
+     * @param header The value of the `Range` header.
+     * @param size   The size of the resource in bytes.
+     * @return The satisfiable ranges, which is empty if none of the ranges can be satisfied,
+     * or null if the header is invalid or requests too many ranges, in which case it should be ignored.
+     */
+    public static List<ByteRange> parse( String header, long size )
+    {
+        if ( header == null || ! header.startsWith( "bytes=" ) )
+            return null;
+
+        String[] specs = header.substring( 6 ).split( "," );
+        if ( specs.length > MAXIMUM_RANGES )
+            return null;
+
+        List<ByteRange> ranges = new ArrayList<>( specs.length );
+        try
+        {
+            for ( String spec : specs )
+            {
+                spec = spec.trim();
+                int dash = spec.indexOf( '-' );
+                if ( dash < 0 )
+                    return null;
+
+                String start = spec.substring( 0, dash ).trim();
+                String end = spec.substring( dash + 1 ).trim();
+
+                if ( start.isEmpty() )
+                {
+                    // A suffix range, requesting the last N bytes.
+                    long suffixLength = Long.parseLong( end );
+                    if ( suffixLength < 0 )
+                        return null;
+                    if ( suffixLength > 0 && size > 0 )
+                        ranges.add( new ByteRange( Math.max( 0, size - suffixLength ), size - 1 ) );
+                    continue;
+                }
+
+                long first = Long.parseLong( start );
+                long last = end.isEmpty() ? Long.MAX_VALUE : Long.parseLong( end );
+                if ( first < 0 || last < first )
+                    return null;
+
+                if ( first < size )
+                    ranges.add( new ByteRange( first, Math.min( last, size - 1 ) ) );
+            }
+        }
+        catch ( NumberFormatException e )
+        {
+            return null;
+        }
+        return ranges.size() > 1 ? coalesce( ranges ) : ranges;
+    }
+
+    /**
+     * Coalesces ranges that overlap or are adjacent, and orders the result by position.
+     *
+     * @param ranges The ranges, in any order.
+     * @return The coalesced ranges.
+     */
+    private static List<ByteRange> coalesce( List<ByteRange> ranges )
+    {
+        ranges.sort( Comparator.comparingLong( ByteRange::first ) );
+
+        List<ByteRange> coalesced = new ArrayList<>( ranges.size() );
+        ByteRange current = ranges.get( 0 );
+        for ( int i = 1; i < ranges.size(); i++ )
+        {
+            ByteRange next = ranges.get( i );
+            if ( next.first() <= current.last() + 1 )
+            {
+                current = new ByteRange( current.first(), Math.max( current.last(), next.last() ) );
+                continue;
+            }
+            coalesced.add( current );
+            current = next;
+        }
+        coalesced.add( current );
+        return coalesced;
+    }
+
+    /**
+     * Returns the amount of bytes in this range.
+     */
+    public long length()
+    {
+        return this.last - this.first + 1;
+    }
+
+    /**
+     * Returns the value of the `Content-Range` header for this range.
+     *
+     * @param size The size of the complete resource in bytes.
+     */
+    public String contentRange( long size )
+    {
+        return "bytes " + this.first + '-' + this.last + '/' + size;
+    }
+}
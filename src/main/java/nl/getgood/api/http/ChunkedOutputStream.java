@@ -0,0 +1,65 @@
+package nl.getgood.api.http;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An output stream that encodes the data written to it with the chunked transfer coding.
+ * Every write is sent as a single chunk, so this stream should be wrapped in a buffered stream.
+ * Closing the stream writes the terminating chunk, but does not close the underlying stream.
+ * <br /> <br />
+ * Created by agent.
+ */
+public class ChunkedOutputStream extends FilterOutputStream
+{
+
+    private static final byte[] CRLF = { '\r', '\n' };
+    private static final byte[] LAST_CHUNK = { '0', '\r', '\n', '\r', '\n' };
+
+    private boolean finished = false;
+
+    /**
+     * Creates a new chunked output stream.
+     *
+     * @param output The stream to write the chunks to.
+     */
+    public ChunkedOutputStream( OutputStream output )
+    {
+        super( output );
+    }
+
+    @Override
+    public void write( int b ) throws IOException
+    {
+        write( new byte[] { ( byte ) b }, 0, 1 );
+    }
+
+    @Override
+    public void write( byte[] data, int offset, int length ) throws IOException
+    {
+        if ( this.finished )
+            throw new IOException( "Attempted to write to a finished chunked stream." );
+
+        // An empty chunk would terminate the body.
+        if ( length == 0 )
+            return;
+
+        this.out.write( Integer.toHexString( length ).getBytes( StandardCharsets.ISO_8859_1 ) );
+        this.out.write( CRLF );
+        this.out.write( data, offset, length );
+        this.out.write( CRLF );
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if ( this.finished )
+            return;
+
+        this.finished = true;
+        this.out.write( LAST_CHUNK );
+        this.out.flush();
+    }
+}
@@ -0,0 +1,134 @@
+package nl.getgood.api.http;
+
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Utility class for generating validators (entity tags) and evaluating
+ * the conditional request headers `If-None-Match` and `If-Modified-Since`.
+ * Entity tags are weak, since the same resource may be sent with different
+ * content encodings.
+ * <br /> <br />
+ * Created by agent.
+ */
+public final class ConditionalRequest
+{
+
+    private ConditionalRequest() {}
+
+    /**
+     * Generates an entity tag from the size and modification time of a file.
+     * This does not require the file to be read.
+     *
+     * @param size         The size of the file in bytes.
+     * @param lastModified The modification time of the file, in milliseconds since the epoch.
+     * @return The entity tag.
+     */
+    public static String etag( long size, long lastModified )
+    {
+        return "W/\"" + Long.toHexString( size ) + '-' + Long.toHexString( lastModified ) + '"';
+    }
+
+    /**
+     * Generates an entity tag from the content of a response body.
+     * This uses a CRC32C checksum, which is hardware accelerated on most platforms,
+     * combined with the length of the content.
+     *
+     * @param content The content to generate the entity tag for.
+     * @return The entity tag.
+     */
+    public static String etag( byte[] content )
+    {
+        CRC32C checksum = new CRC32C();
+        checksum.update( content );
+        return "W/\"" + Integer.toHexString( content.length ) + '-' + Long.toHexString( checksum.getValue() ) + '"';
+    }
+
+    /**
+     * Checks whether the client already has the current representation of a resource,
+     * in which case a 304 Not Modified response can be sent instead.
+     * If the request has an `If-None-Match` header, `If-Modified-Since` is ignored.
+     *
+     * @param requestMethod The method of the request, only GET and HEAD requests can be answered with a 304.
+     * @param headers       The headers of the request, with lowercase keys.
+     * @param etag          The entity tag of the current representation, or null if there is none.
+     * @param lastModified  The modification time of the resource in milliseconds, or -1 if unknown.
+     * @return True if the resource was not modified, false otherwise.
+     */
+    public static boolean isNotModified( RequestMethod requestMethod, Map<String, String> headers,
+                                         String etag, long lastModified )
+    {
+        if ( requestMethod != RequestMethod.GET && requestMethod != RequestMethod.HEAD )
+            return false;
+
+        String ifNoneMatch = headers.get( "if-none-match" );
+        if ( ifNoneMatch != null )
+            return etag != null && matches( ifNoneMatch, etag );
+
+        String ifModifiedSince = headers.get( "if-modified-since" );
+        if ( ifModifiedSince != null && lastModified >= 0 )
+        {
+            long since = HttpDate.parse( ifModifiedSince );
+            // HTTP dates have a resolution of one second.
+            return since >= 0 && lastModified / 1000 <= since / 1000;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a `Range` header may be applied, by evaluating the `If-Range` header.
+     * If the client's copy is outdated, the ranges must be ignored and the full resource sent.
+     * <br /> <br />
+     * Our entity tags for files are derived from the size and modification time, so they identify
+     * the exact bytes of the file, while ranges are always served without content encoding.
+     * Therefore the weakness indicator is ignored here, unlike the strict comparison HTTP prescribes.
+     *
+     * @param headers      The headers of the request, with lowercase keys.
+     * @param etag         The entity tag of the current representation, or null if there is none.
+     * @param lastModified The modification time of the resource in milliseconds, or -1 if unknown.
+     * @return True if the ranges may be applied, false if the full resource should be sent.
+     */
+    public static boolean isRangeApplicable( Map<String, String> headers, String etag, long lastModified )
+    {
+        String ifRange = headers.get( "if-range" );
+        if ( ifRange == null )
+            return true;
+
+        ifRange = ifRange.trim();
+        if ( ifRange.startsWith( "\"" ) || ifRange.startsWith( "W/" ) )
+            return etag != null && opaque( ifRange ).equals( opaque( etag ) );
+
+        // A date only validates the range if it exactly matches the modification time.
+        long date = HttpDate.parse( ifRange );
+        return date >= 0 && lastModified >= 0 && date / 1000 == lastModified / 1000;
+    }
+
+    /**
+     * Checks whether the entity tag is in the list of an `If-None-Match` header, using weak comparison.
+     *
+     * @param ifNoneMatch The value of the `If-None-Match` header.
+     * @param etag        The entity tag to look for.
+     * @return True if the entity tag matches, false otherwise.
+     */
+    public static boolean matches( String ifNoneMatch, String etag )
+    {
+        if ( ifNoneMatch.trim().equals( "*" ) )
+            return true;
+
+        String opaqueTag = opaque( etag );
+        for ( String candidate : ifNoneMatch.split( "," ) )
+        {
+            if ( opaque( candidate.trim() ).equals( opaqueTag ) )
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Strips the weakness indicator from an entity tag.
+     */
+    private static String opaque( String etag )
+    {
+        return etag.startsWith( "W/" ) ? etag.substring( 2 ) : etag;
+    }
+}
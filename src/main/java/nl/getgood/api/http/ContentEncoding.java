@@ -0,0 +1,95 @@
+package nl.getgood.api.http;
+
+/**
+ * The content codings that the server is able to apply to a response body.
+ * Created by agent.
+ */
+public enum ContentEncoding
+{
+    GZIP( "gzip" ),
+    DEFLATE( "deflate" ),
+    IDENTITY( "identity" );
+
+    private final String encoding;
+
+    ContentEncoding( String encoding )
+    {
+        this.encoding = encoding;
+    }
+
+    /**
+     * Negotiates the content encoding to use from the value of an
+     * `Accept-Encoding` request header.
+     * The coding with the highest quality value is chosen. When two codings
+     * share the same quality, gzip is preferred over deflate.
+     * If the header is absent, or no supported coding is acceptable,
+     * IDENTITY will be returned.
+     *
+     * @param acceptEncoding The value of the `Accept-Encoding` header, may be null.
+     * @return The negotiated content encoding.
+     */
+    public static ContentEncoding negotiate( String acceptEncoding )
+    {
+        if ( acceptEncoding == null || acceptEncoding.isEmpty() )
+            return IDENTITY;
+
+        ContentEncoding selected = IDENTITY;
+        double selectedQuality = 0;
+        double wildcardQuality = - 1;
+        double gzipQuality = - 1, deflateQuality = - 1;
+
+        for ( String coding : acceptEncoding.split( "," ) )
+        {
+            String[] parts = coding.trim().split( ";" );
+            String name = parts[0].trim();
+            double quality = 1;
+
+            for ( int i = 1; i < parts.length; i++ )
+            {
+                String parameter = parts[i].trim();
+                if ( parameter.startsWith( "q=" ) )
+                {
+                    try
+                    {
+                        quality = Double.parseDouble( parameter.substring( 2 ) );
+                    }
+                    catch ( NumberFormatException e )
+                    {
+                        quality = 0;
+                    }
+                }
+            }
+
+            if ( name.equalsIgnoreCase( GZIP.encoding ) || name.equalsIgnoreCase( "x-gzip" ) )
+                gzipQuality = quality;
+            else if ( name.equalsIgnoreCase( DEFLATE.encoding ) )
+                deflateQuality = quality;
+            else if ( name.equals( "*" ) )
+                wildcardQuality = quality;
+        }
+
+        // Codings that are not mentioned explicitly inherit the wildcard quality.
+        if ( gzipQuality < 0 )
+            gzipQuality = wildcardQuality;
+        if ( deflateQuality < 0 )
+            deflateQuality = wildcardQuality;
+
+        if ( gzipQuality > selectedQuality )
+        {
+            selected = GZIP;
+            selectedQuality = gzipQuality;
+        }
+        if ( deflateQuality > selectedQuality )
+            selected = DEFLATE;
+
+        return selected;
+    }
+
+    /**
+     * Returns the token of this encoding, as used in the `Content-Encoding` header.
+     */
+    public String getEncoding()
+    {
+        return encoding;
+    }
+}
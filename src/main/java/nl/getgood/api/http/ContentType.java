@@ -2,7 +2,12 @@ package nl.getgood.api.http;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created on 03/08/2024 at 17:54
@@ -11,14 +16,89 @@ import java.nio.file.Files;
 public final class ContentType
 {
 
-    public static final ContentType JSON = new ContentType( "application/json" );
-    public static final ContentType TEXT_PLAIN = new ContentType( "text/plain" );
-    public static final ContentType HTML = new ContentType( "text/html" );
-    public static final ContentType APPLICATION_XML = new ContentType( "application/xml" );
-    public static final ContentType FORM = new ContentType( "application/x-www-form-urlencoded" );
-    public static final ContentType MULTIPART = new ContentType( "multipart/form-data" );
-    public static final ContentType BINARY = new ContentType( "application/octet-stream" );
-    public static final ContentType WEBSOCKET_EVENT = new ContentType( "application/websocket-events" );
+    /**
+     * The maximum amount of probed extensions that are remembered.
+     * Extensions are taken from file names, so they are bounded to keep them from growing without limit.
+     */
+    private static final int MAXIMUM_PROBED = 1024;
+
+    /**
+     * All registered content types, by their type.
+     */
+    private static final Map<String, ContentType> INTERNED = new ConcurrentHashMap<>();
+
+    /**
+     * The content types of probed extensions that are not in the registry.
+     */
+    private static final Map<String, ContentType> PROBED = new ConcurrentHashMap<>();
+
+    public static final ContentType JSON = intern( "application/json" );
+    public static final ContentType TEXT_PLAIN = intern( "text/plain" );
+    public static final ContentType HTML = intern( "text/html" );
+    public static final ContentType APPLICATION_XML = intern( "application/xml" );
+    public static final ContentType CSS = intern( "text/css" );
+    public static final ContentType JAVASCRIPT = intern( "text/javascript" );
+    public static final ContentType SVG = intern( "image/svg+xml" );
+    public static final ContentType FORM = intern( "application/x-www-form-urlencoded" );
+    public static final ContentType MULTIPART = intern( "multipart/form-data" );
+    public static final ContentType BINARY = intern( "application/octet-stream" );
+    public static final ContentType WEBSOCKET_EVENT = intern( "application/websocket-events" );
+
+    /**
+     * The registry of content types by file extension.
+     * The map is never modified; registering a mapping replaces it with a modified copy,
+     * so lookups never need to lock.
+     */
+    private static volatile Map<String, ContentType> extensions = Map.ofEntries(
+            Map.entry( "html", HTML ),
+            Map.entry( "htm", HTML ),
+            Map.entry( "css", CSS ),
+            Map.entry( "js", JAVASCRIPT ),
+            Map.entry( "mjs", JAVASCRIPT ),
+            Map.entry( "json", JSON ),
+            Map.entry( "map", JSON ),
+            Map.entry( "webmanifest", intern( "application/manifest+json" ) ),
+            Map.entry( "xml", APPLICATION_XML ),
+            Map.entry( "txt", TEXT_PLAIN ),
+            Map.entry( "md", intern( "text/markdown" ) ),
+            Map.entry( "csv", intern( "text/csv" ) ),
+            Map.entry( "svg", SVG ),
+            Map.entry( "png", intern( "image/png" ) ),
+            Map.entry( "jpg", intern( "image/jpeg" ) ),
+            Map.entry( "jpeg", intern( "image/jpeg" ) ),
+            Map.entry( "gif", intern( "image/gif" ) ),
+            Map.entry( "webp", intern( "image/webp" ) ),
+            Map.entry( "avif", intern( "image/avif" ) ),
+            Map.entry( "ico", intern( "image/x-icon" ) ),
+            Map.entry( "woff", intern( "font/woff" ) ),
+            Map.entry( "woff2", intern( "font/woff2" ) ),
+            Map.entry( "ttf", intern( "font/ttf" ) ),
+            Map.entry( "otf", intern( "font/otf" ) ),
+            Map.entry( "pdf", intern( "application/pdf" ) ),
+            Map.entry( "zip", intern( "application/zip" ) ),
+            Map.entry( "gz", intern( "application/gzip" ) ),
+            Map.entry( "wasm", intern( "application/wasm" ) ),
+            Map.entry( "mp4", intern( "video/mp4" ) ),
+            Map.entry( "webm", intern( "video/webm" ) ),
+            Map.entry( "mp3", intern( "audio/mpeg" ) ),
+            Map.entry( "ogg", intern( "audio/ogg" ) ),
+            Map.entry( "wav", intern( "audio/wav" ) ),
+            Map.entry( "bin", BINARY )
+    );
+
+    /**
+     * Registers the content type of files with the provided extension.
+     * This overrides any existing mapping for the extension.
+     *
+     * @param extension The file extension, without the leading dot. For example: "webp".
+     * @param type      The content type of files with the extension. For example: "image/webp".
+     */
+    public static synchronized void register( String extension, String type )
+    {
+        Map<String, ContentType> registry = new HashMap<>( extensions );
+        registry.put( extension.toLowerCase(), intern( type ) );
+        extensions = Map.copyOf( registry );
+    }
 
     /**
      * Gets the content type of file.
@@ -28,16 +108,49 @@ public final class ContentType
      */
     public static ContentType fromFile( File file )
     {
-        ContentType type = ContentType.TEXT_PLAIN;
+        return fromPath( file.toPath() );
+    }
+
+    /**
+     * Gets the content type of file.
+     * The content type is looked up by the extension of the file. Only if the extension
+     * is not registered, the file system is probed, and the result is remembered
+     * for all files with the same extension.
+     *
+     * @param path The path of the file to get the content type of.
+     * @return The content type of the file.
+     */
+    public static ContentType fromPath( Path path )
+    {
+        String name = path.getFileName() == null ? "" : path.getFileName().toString();
+        int dot = name.lastIndexOf( '.' );
+        String extension = dot < 0 ? "" : name.substring( dot + 1 ).toLowerCase();
+
+        ContentType type = extensions.get( extension );
+        if ( type != null )
+            return type;
+
+        type = PROBED.get( extension );
+        if ( type != null )
+            return type;
+
+        type = ContentType.TEXT_PLAIN;
         try {
-            type = new ContentType( Files.probeContentType( file.toPath() ));
+            String probed = Files.probeContentType( path );
+            if ( probed != null )
+                type = intern( probed );
         }
         catch ( IOException e ) {}
+
+        if ( PROBED.size() < MAXIMUM_PROBED )
+            PROBED.put( extension, type );
         return type;
     }
 
     /**
      * Creates a new content type instance.
+     * Registered content types return a shared instance, which already has its header encoded.
+     * Other types are not registered, since they are often sent by clients or contain parameters.
      *
      * @param type The type of the content type.
      *             For example: "application/json" or "text/plain".
@@ -45,14 +158,28 @@ public final class ContentType
      */
     public static ContentType of( String type )
     {
+        ContentType contentType = INTERNED.get( type );
+        if ( contentType != null )
+            return contentType;
+
         return new ContentType( type );
     }
 
+    /**
+     * Returns the shared instance of the provided content type, registering it if it does not exist.
+     */
+    private static ContentType intern( String type )
+    {
+        return INTERNED.computeIfAbsent( type, ContentType::new );
+    }
+
     private final String type;
+    private final byte[] headerBytes;
 
     private ContentType( String type )
     {
         this.type = type;
+        this.headerBytes = ( "Content-Type: " + type + "\r\n" ).getBytes( StandardCharsets.ISO_8859_1 );
     }
 
     public String getType()
@@ -60,6 +187,27 @@ public final class ContentType
         return type;
     }
 
+    /**
+     * Returns the encoded `Content-Type` header line of this type, including the trailing CRLF.
+     * The returned array is shared and must not be modified.
+     */
+    public byte[] getHeaderBytes()
+    {
+        return headerBytes;
+    }
+
+    @Override
+    public boolean equals( Object other )
+    {
+        return other instanceof ContentType contentType && this.type.equals( contentType.type );
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return type.hashCode();
+    }
+
     @Override
     public String toString()
     {
@@ -0,0 +1,112 @@
+package nl.getgood.api.http;
+
+import java.util.Map;
+
+/**
+ * A response that has been encoded into the bytes that are written to the client, so that it can be sent
+ * again without building its head or compressing its body. This is what the response cache stores.
+ * <br /> <br />
+ * The status line and the `Date` header are not part of the encoded bytes, since they depend on
+ * the protocol of the request and the time the response is sent. The bytes hold the remaining headers,
+ * the empty line that ends the head, and the body.
+ * <br /> <br />
+ * Created by agent.
+ */
+public final class EncodedResponse
+{
+
+    private final StatusCode statusCode;
+    private final byte[] bytes;
+    private final int headLength;
+    private final ContentType contentType;
+    private final long contentLength;
+    private final String etag;
+    private final long lastModified;
+    private final Map<String, String> headers;
+
+    EncodedResponse( StatusCode statusCode, byte[] bytes, int headLength, ContentType contentType, long contentLength,
+                     String etag, long lastModified, Map<String, String> headers )
+    {
+        this.statusCode = statusCode;
+        this.bytes = bytes;
+        this.headLength = headLength;
+        this.contentType = contentType;
+        this.contentLength = contentLength;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.headers = headers;
+    }
+
+    /**
+     * Returns the status code of the response.
+     */
+    public StatusCode getStatusCode()
+    {
+        return this.statusCode;
+    }
+
+    /**
+     * Returns the encoded headers and body. The array must not be modified.
+     */
+    byte[] getBytes()
+    {
+        return this.bytes;
+    }
+
+    /**
+     * Returns the length of the encoded headers, including the empty line that ends the head.
+     * This is all that is sent in response to a HEAD request.
+     */
+    int getHeadLength()
+    {
+        return this.headLength;
+    }
+
+    /**
+     * Returns the headers that are part of the encoded bytes, apart from `Content-Type` and `Content-Length`.
+     */
+    Map<String, String> getHeaders()
+    {
+        return this.headers;
+    }
+
+    /**
+     * Returns the content type of the body.
+     */
+    ContentType getContentType()
+    {
+        return this.contentType;
+    }
+
+    /**
+     * Returns the value of the `Content-Length` header, which is 0 if the response has no body.
+     */
+    long getContentLength()
+    {
+        return this.contentLength;
+    }
+
+    /**
+     * Returns the entity tag of the response, or null if it has none.
+     */
+    public String getEtag()
+    {
+        return this.etag;
+    }
+
+    /**
+     * Returns the modification time of the response, or -1 if it has none.
+     */
+    public long getLastModified()
+    {
+        return this.lastModified;
+    }
+
+    /**
+     * Returns the amount of bytes the encoded response holds.
+     */
+    public int size()
+    {
+        return this.bytes.length;
+    }
+}
@@ -0,0 +1,87 @@
+package nl.getgood.api.http;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * Utility class for formatting and parsing dates in the format used by HTTP headers,
+ * such as `Last-Modified` and `If-Modified-Since`.
+ * For example: "Tue, 15 Nov 1994 08:12:31 GMT".
+ * <br /> <br />
+ * Created by agent.
+ */
+public final class HttpDate
+{
+
+    // The RFC 1123 formatter of the JDK does not zero-pad the day of the month, which HTTP requires.
+    private static final DateTimeFormatter FORMATTER =
+            DateTimeFormatter.ofPattern( "EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.ENGLISH ).withZone( ZoneOffset.UTC );
+
+    /**
+     * The encoded `Date` header of the current second.
+     * Formatting a date is relatively expensive, and all responses sent within the same
+     * second share the same header, so it is only formatted once every second.
+     */
+    private static volatile CachedDate cachedDate = new CachedDate( 0, new byte[ 0 ] );
+
+    private HttpDate() {}
+
+    /**
+     * Returns the encoded `Date` header line for the current time, including the trailing CRLF.
+     * The returned array is shared and must not be modified.
+     *
+     * @return The encoded date header line.
+     */
+    public static byte[] currentDateHeader()
+    {
+        long second = System.currentTimeMillis() / 1000;
+        CachedDate date = cachedDate;
+
+        if ( date.second != second )
+        {
+            // Concurrent threads may both format the date, which is harmless.
+            date = new CachedDate( second, ( "Date: " + format( second * 1000 ) + "\r\n" )
+                    .getBytes( StandardCharsets.ISO_8859_1 ) );
+            cachedDate = date;
+        }
+        return date.header;
+    }
+
+    /**
+     * Formats the provided epoch milliseconds as an HTTP date.
+     *
+     * @param epochMillis The time to format, in milliseconds since the epoch.
+     * @return The formatted date.
+     */
+    public static String format( long epochMillis )
+    {
+        return FORMATTER.format( Instant.ofEpochMilli( epochMillis ) );
+    }
+
+    /**
+     * Parses an HTTP date.
+     *
+     * @param date The date to parse.
+     * @return The parsed time in milliseconds since the epoch, or -1 if the date is invalid.
+     */
+    public static long parse( String date )
+    {
+        if ( date == null )
+            return - 1;
+        try
+        {
+            return ZonedDateTime.parse( date.trim(), DateTimeFormatter.RFC_1123_DATE_TIME ).toInstant().toEpochMilli();
+        }
+        catch ( DateTimeParseException e )
+        {
+            return - 1;
+        }
+    }
+
+    private record CachedDate( long second, byte[] header ) {}
+}
@@ -0,0 +1,25 @@
+package nl.getgood.api.http;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A request handler that completes its response asynchronously.
+ * The thread that handles the connection is released as soon as the handler returns,
+ * and the response is sent once the returned stage completes.
+ * <br /> <br />
+ * Created by agent.
+ */
+public interface IAsyncRequestHandler
+{
+    /**
+     * Handles a request.
+     * The handler fills in the response before the returned stage completes.
+     * If the stage completes exceptionally, a `500 Internal Server Error` is sent instead,
+     * and if it does not complete in time, a `504 Gateway Timeout`.
+     *
+     * @param request  The request that was received by the server.
+     * @param response The response that will be sent to the client once the stage completes.
+     * @return A stage that completes when the response is ready, or null if it is ready right away.
+     */
+    CompletionStage<?> handleRequest( Request request, Response response );
+}
@@ -0,0 +1,21 @@
+package nl.getgood.api.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Created by agent.
+ */
+public interface IBodyWriter
+{
+    /**
+     * Writes the body of a response.
+     * This method is called when a streaming response is sent, after the head has been written.
+     * The data is sent to the client while it is written, so the body never has to be
+     * held in memory as a whole.
+     *
+     * @param output The stream to write the body to. The stream must not be closed.
+     * @throws IOException If the body could not be written.
+     */
+    void writeTo( OutputStream output ) throws IOException;
+}
@@ -21,12 +21,15 @@ public class Request
     public final String body;
     public final Map<String, String> headers;
     public final Map<String, String> urlParameters;
+    public final Map<String, String> pathParameters = new HashMap<>( 4 );
     public final Map<String, String> cookies;
     public final Server server;
     public final Socket clientSocket;
     public final ContentType contentType;
     public final Protocol protocol;
 
+    private String route;
+
     /**
      * Creates a new request instance.
      *
@@ -72,12 +75,47 @@ public class Request
                 ", body='" + body + '\'' +
                 ", headers=" + headers +
                 ", urlParameters=" + urlParameters +
+                ", pathParameters=" + pathParameters +
                 ", server=" + server +
                 ", clientSocket=" + clientSocket +
                 ", contentType=" + contentType +
                 '}';
     }
 
+    /**
+     * Gets the value of a path parameter of the route that matched the request.
+     * For example, the route "/users/:id" matched by "/users/42" has the parameter "id" with value "42".
+     *
+     * @param name The name of the parameter, without the leading ':' or '*'.
+     * @return The value of the parameter, or null if the route has no such parameter.
+     */
+    public String pathParameter( String name )
+    {
+        return this.pathParameters.get( name );
+    }
+
+    /**
+     * Gets the pattern of the API route that matched the request, for example "/users/:id".
+     * This is null for static files, requests without a route, and in middleware that runs before the route is looked up,
+     * which is middleware that was added without a scope.
+     *
+     * @return The pattern of the route, or null if no route matched the request yet.
+     */
+    public String route()
+    {
+        return this.route;
+    }
+
+    /**
+     * Sets the pattern of the API route that matched the request. This is done by the server.
+     *
+     * @param route The pattern of the route.
+     */
+    public void setRoute( String route )
+    {
+        this.route = route;
+    }
+
     /**
      * Gets the body of the request as a JSON object.
      *
@@ -1,14 +1,34 @@
 package nl.getgood.api.http;
 
-import com.google.gson.JsonArray;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import nl.getgood.api.Logger;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
-import java.io.PrintStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.DeflaterOutputStream;
 
 /**
  * Created on 03/08/2024 at 16:55
@@ -17,20 +37,62 @@ import java.util.Map;
 public class Response
 {
 
+    /**
+     * The encoded status lines of all protocol and status code combinations,
+     * indexed by `protocol.ordinal() * STATUS_CODE_COUNT + statusCode.ordinal()`.
+     */
+    private static final byte[][] STATUS_LINES;
+    private static final int STATUS_CODE_COUNT = StatusCode.values().length;
+
+    /**
+     * The Gson instance that is used to write JSON bodies.
+     * Its output matches `JsonElement.toString()`: nulls are kept and HTML characters are not escaped.
+     */
+    private static final Gson GSON = new GsonBuilder().serializeNulls().disableHtmlEscaping().create();
+
+    static
+    {
+        StatusCode[] statusCodes = StatusCode.values();
+        Protocol[] protocols = Protocol.values();
+        STATUS_LINES = new byte[protocols.length * statusCodes.length][];
+        for ( Protocol protocol : protocols )
+            for ( StatusCode statusCode : statusCodes )
+                STATUS_LINES[protocol.ordinal() * STATUS_CODE_COUNT + statusCode.ordinal()] =
+                        ( protocol.getProtocol() + ' ' + statusCode.getCode() + ' ' + statusCode.getMessage() + "\r\n" )
+                                .getBytes( StandardCharsets.ISO_8859_1 );
+    }
+
     private final Map<String, String> headers = new HashMap<>();
     private StatusCode statusCode;
     private ContentType contentType;
     private boolean isSent = false;
     private boolean allowResend = false;
     private Protocol protocol = Protocol.HTTP_1_1;
-    private String body;
-    private PrintStream streamOut;
+    private byte[] body;
+    private OutputStream streamOut;
+    private Request request;
+    private String cacheKey;
+    private boolean generateETag = false;
+    private long lastModified = - 1;
+    private long declaredLength = - 1;
+    private IBodyWriter bodyWriter = null;
+    private Map<ContentEncoding, byte[]> variants = null;
+    private Path file = null;
+    private long fileOffset = 0;
+    private long fileLength = 0;
+    private ByteBuffer[] buffers = null;
+    private EncodedResponse encoded = null;
+
+    /**
+     * The headers that were set before the handler ran, for example by middleware, or null if the handler was not marked.
+     */
+    private Map<String, String> middlewareHeaders = null;
 
     /**
      * Default constructor for a response,
      * this will return a 200 OK response with a text body.
      */
-    public Response(PrintStream streamOut)
+    public Response(OutputStream streamOut)
     {
         this( streamOut, StatusCode.OK, ContentType.TEXT_PLAIN, "");
     }
@@ -42,18 +104,12 @@ public class Response
      * @param contentType The content type of the response.
      * @param body        The body of the response.
      */
-    public Response(PrintStream streamOut, StatusCode statusCode, ContentType contentType, String body)
+    public Response(OutputStream streamOut, StatusCode statusCode, ContentType contentType, String body)
     {
         this.streamOut = streamOut;
         this.statusCode = statusCode;
         this.contentType = contentType;
-        this.body = body;
-    }
-
-    public Response(PrintStream streamOut, StatusCode statusCode, boolean allowResend)
-    {
-        this( streamOut, statusCode, ContentType.TEXT_PLAIN, "");
-        this.allowResend = allowResend;
+        this.body = body.getBytes( StandardCharsets.UTF_8 );
     }
 
     /**
@@ -61,9 +117,9 @@ public class Response
      *
      * @param statusCode The status code of the response.
      *                   This will return a response with the status code and a text body.
-     * @param streamOut  The print stream to send the response to.
+     * @param streamOut  The stream to send the response to.
      */
-    public Response(PrintStream streamOut, StatusCode statusCode)
+    public Response(OutputStream streamOut, StatusCode statusCode)
     {
         this( streamOut, statusCode, ContentType.TEXT_PLAIN, "");
     }
@@ -72,12 +128,13 @@ public class Response
      * Constructor for a response with a status code and body.
      *
      * @param statusCode The status code of the response.
-     * @param streamOut  The print stream to send the response to.
+     * @param streamOut  The stream to send the response to.
      * @param allowResend Whether the response can be resent.
      */
     public Response( OutputStream streamOut, StatusCode statusCode, boolean allowResend )
     {
-        this( new PrintStream( streamOut ), statusCode, allowResend );
+        this( streamOut, statusCode, ContentType.TEXT_PLAIN, "" );
+        this.allowResend = allowResend;
     }
 
     /**
@@ -128,7 +185,12 @@ public class Response
      */
     public Response body(String body)
     {
-        this.body = body;
+        this.body = body.getBytes( StandardCharsets.UTF_8 );
+        this.bodyWriter = null;
+        this.variants = null;
+        this.file = null;
+        this.buffers = null;
+        this.encoded = null;
         return this;
     }
 
@@ -139,7 +201,12 @@ public class Response
      */
     public Response body(byte[] body)
     {
-        this.body = new String(body);
+        this.body = body;
+        this.bodyWriter = null;
+        this.variants = null;
+        this.file = null;
+        this.buffers = null;
+        this.encoded = null;
         return this;
     }
 
@@ -151,16 +218,258 @@ public class Response
     public Response json( JsonElement json)
     {
         this.contentType = ContentType.JSON;
-        return this.body(json.toString());
+        return this.body( serialize( writer -> GSON.toJson( json, writer ) ) );
     }
 
     public Response json( JsonObject[] objects )
     {
         this.contentType = ContentType.JSON;
-        JsonArray array = new JsonArray();
-        for ( JsonObject object : objects )
-            array.add( object );
-        return this.body( array.toString() );
+        return this.body( serialize( writer ->
+        {
+            writer.beginArray();
+            for ( JsonObject object : objects )
+                GSON.toJson( object, writer );
+            writer.endArray();
+        } ) );
+    }
+
+    /**
+     * Set the body of the response to a JSON array that is streamed to the client.
+     * The elements are serialized one by one while the response is sent,
+     * so the array is never held in memory as a whole.
+     * Elements can be JSON elements, or any other object that Gson is able to serialize.
+     *
+     * @param elements The elements of the array.
+     */
+    public Response json( Iterator<?> elements )
+    {
+        this.contentType = ContentType.JSON;
+        return this.stream( jsonArrayWriter( elements ) );
+    }
+
+    /**
+     * Set the body of the response to a JSON array that is streamed to the client.
+     * The stream is consumed and closed while the response is sent.
+     *
+     * @param elements The elements of the array.
+     * @see #json(Iterator)
+     */
+    public Response json( Stream<?> elements )
+    {
+        this.contentType = ContentType.JSON;
+        return this.stream( output ->
+        {
+            try ( elements )
+            {
+                jsonArrayWriter( elements.iterator() ).writeTo( output );
+            }
+        } );
+    }
+
+    /**
+     * Set the body of the response to a region of a file.
+     * The file is not read into memory; when the response is sent, it is transferred
+     * directly from the file to the client socket, which uses `sendfile` on platforms
+     * that support it. Bodies that are sent this way are never compressed.
+     *
+     * @param file   The file to send.
+     * @param offset The position in the file to start sending from.
+     * @param length The amount of bytes to send.
+     */
+    public Response file( Path file, long offset, long length )
+    {
+        this.body( new byte[ 0 ] );
+        this.file = file;
+        this.fileOffset = offset;
+        this.fileLength = length;
+        return this;
+    }
+
+    /**
+     * Set the body of the response to a sequence of buffers.
+     * The buffers are written to the client socket with a gathering write, without copying
+     * them into a single array, which allows slices of memory-mapped files to be sent directly.
+     * The buffers are read from their position up to their limit. Bodies that are sent
+     * this way are never compressed.
+     *
+     * @param buffers The buffers that make up the body.
+     */
+    public Response buffers( ByteBuffer... buffers )
+    {
+        this.body( new byte[ 0 ] );
+        this.buffers = buffers;
+        return this;
+    }
+
+    /**
+     * Set the body of the response to a body that is written while the response is sent.
+     * The body is sent with the chunked transfer coding, since its length is not known in advance.
+     *
+     * @param bodyWriter The writer of the body.
+     */
+    public Response stream( IBodyWriter bodyWriter )
+    {
+        this.body( new byte[ 0 ] );
+        this.bodyWriter = bodyWriter;
+        return this;
+    }
+
+    /**
+     * Set the response to a response that was encoded in advance, which is sent as is.
+     * Only the status line and the `Date` header are written in addition to the encoded bytes.
+     * If the request is conditional and the client already has the encoded response,
+     * a 304 Not Modified response is sent instead.
+     *
+     * @param encoded The encoded response.
+     * @see #encode()
+     */
+    public Response encoded( EncodedResponse encoded )
+    {
+        this.encoded = encoded;
+        return this;
+    }
+
+    /**
+     * Encodes the headers and body of this response into the bytes that are sent to the client,
+     * so that the response can be sent again without being built again.
+     * Only the headers the handler set are encoded; headers that were set before it ran, for example by middleware,
+     * are left out, since they apply to this request only. See {@link #beginHandler()}.
+     * The body is compressed with the encoding that is negotiated with the client of the bound request,
+     * and carries an entity tag if one was requested. Conditional requests are not evaluated,
+     * so the encoded response is always the full response.
+     *
+     * @return The encoded response, or null if the body is streamed, or sent from a file or buffers.
+     */
+    public EncodedResponse encode()
+    {
+        if ( this.bodyWriter != null || this.file != null || this.buffers != null )
+            return null;
+        if ( this.encoded != null )
+            return this.encoded;
+
+        // Headers of middleware apply to this request only, so they are not part of the encoded response.
+        Map<String, String> headers = this.handlerHeaders();
+        if ( this.generateETag && ! headers.containsKey( "ETag" ) )
+            headers.put( "ETag", ConditionalRequest.etag( this.body ) );
+
+        byte[] payload = this.encodeBody( headers );
+        long contentLength = payload.length == 0 && this.declaredLength >= 0 ? this.declaredLength : payload.length;
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream( payload.length + 256 );
+        try
+        {
+            writeHeaders( output, headers, this.contentType, contentLength );
+            int headLength = output.size();
+            output.write( payload );
+            return new EncodedResponse( this.statusCode, output.toByteArray(), headLength, this.contentType, contentLength,
+                                        headers.get( "ETag" ), this.lastModified, Map.copyOf( headers ) );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    /**
+     * Marks that the handler of the route starts to fill in the response.
+     * Headers that were set before, for example by middleware or the CORS policy, apply to this request only,
+     * and are left out when the response is shared with other requests by {@link #encode()} or {@link #copyTo(Response)}.
+     * Headers the handler sets afterwards, including ones that replace the value of an earlier header, are shared.
+     */
+    public Response beginHandler()
+    {
+        this.middlewareHeaders = new HashMap<>( this.headers );
+        return this;
+    }
+
+    /**
+     * Binds the response to the request it answers.
+     * This allows the response to take the request headers into account when it is sent,
+     * for example to negotiate the content encoding with the client.
+     *
+     * @param request The request that this response answers.
+     */
+    public Response bind( Request request )
+    {
+        this.request = request;
+        return this;
+    }
+
+    /**
+     * Marks the body of the response as stable for the given key.
+     * Derived representations of the body, such as its compressed variants,
+     * are cached under this key and reused by later responses with the same key.
+     * The key must change whenever the body changes.
+     *
+     * @param cacheKey The key that identifies the body.
+     */
+    public Response cacheKey( String cacheKey )
+    {
+        this.cacheKey = cacheKey;
+        return this;
+    }
+
+    /**
+     * Provides compressed variants of the body that were prepared in advance.
+     * If the negotiated encoding has a variant, it is sent as is instead of compressing the body.
+     *
+     * @param variants The compressed variants of the body, by encoding.
+     */
+    public Response variants( Map<ContentEncoding, byte[]> variants )
+    {
+        this.variants = variants;
+        return this;
+    }
+
+    /**
+     * Enables automatic entity tag generation for this response.
+     * When the response is sent, an entity tag is generated from a hash of the body.
+     * If it matches the `If-None-Match` header of the request,
+     * a 304 Not Modified response is sent without a body instead.
+     */
+    public Response etag()
+    {
+        this.generateETag = true;
+        return this;
+    }
+
+    /**
+     * Set the entity tag of the response.
+     *
+     * @param etag The entity tag, including quotes and the optional weakness indicator.
+     */
+    public Response etag( String etag )
+    {
+        this.headers.put( "ETag", etag );
+        return this;
+    }
+
+    /**
+     * Set the modification time of the resource that is sent.
+     * This adds a `Last-Modified` header, which is used to evaluate
+     * the `If-Modified-Since` header of the request.
+     *
+     * @param epochMillis The modification time, in milliseconds since the epoch.
+     */
+    public Response lastModified( long epochMillis )
+    {
+        this.lastModified = epochMillis;
+        this.headers.put( "Last-Modified", HttpDate.format( epochMillis ) );
+        return this;
+    }
+
+    /**
+     * Declares the length of a body that is not held by this response.
+     * This is used to answer HEAD requests for resources that are never read,
+     * so that the `Content-Length` header matches the length a GET request would receive.
+     * The declared length is only used if the response has no body.
+     *
+     * @param length The length of the body in bytes.
+     */
+    public Response contentLength( long length )
+    {
+        this.declaredLength = length;
+        return this;
     }
 
     /**
@@ -175,16 +484,55 @@ public class Response
     }
 
 
+    /**
+     * Copies the status, content type, headers and body of this response to another response.
+     * Only the headers the handler set are copied, see {@link #beginHandler()}.
+     * The body array is shared rather than copied, so neither response may modify it afterwards.
+     * Compression and conditional requests are still evaluated separately when the target is sent,
+     * since they depend on the request the target answers.
+     * Bodies that are streamed, or sent from a file or buffers, can only be sent once and are not copied.
+     *
+     * @param target The response to copy to.
+     * @return Whether the response could be copied.
+     */
+    public boolean copyTo( Response target )
+    {
+        if ( this.bodyWriter != null || this.file != null || this.buffers != null )
+            return false;
+
+        target.body( this.body );
+        target.statusCode = this.statusCode;
+        target.contentType = this.contentType;
+        target.headers.putAll( this.handlerHeaders() );
+        target.cacheKey = this.cacheKey;
+        target.generateETag = this.generateETag;
+        target.lastModified = this.lastModified;
+        target.declaredLength = this.declaredLength;
+        target.variants = this.variants;
+        target.encoded = this.encoded;
+        return true;
+    }
+
     public StatusCode getStatusCode()
     {
         return statusCode;
     }
 
     public String getBody()
+    {
+        return new String( body, StandardCharsets.UTF_8 );
+    }
+
+    public byte[] getBodyBytes()
     {
         return body;
     }
 
+    public String getHeader( String key )
+    {
+        return headers.get( key );
+    }
+
     public ContentType getContentType()
     {
         return contentType;
@@ -194,7 +542,7 @@ public class Response
     public String toString()
     {
         return "Response{" +
-                "body='" + body + '\'' +
+                "body='" + getBody() + '\'' +
                 ", statusCode=" + statusCode +
                 ", contentType=" + contentType +
                 ", protocol=" + protocol +
@@ -220,22 +568,33 @@ public class Response
             {
                 return;
             }
-            // Status header
-            this.streamOut.printf("%s %d %s\r\n",
-                          this.protocol.getProtocol(),
-                          this.statusCode.getCode(),
-                          this.statusCode.getMessage()
-            );
-
-            this.headers.forEach((key, value) -> this.streamOut.printf("%s: %s\r\n", key, value));
-
-            if ( this.body.length() > 0 )
+            if ( this.encoded != null )
+            {
+                this.sendEncoded();
+            }
+            else if ( this.bodyWriter != null )
+            {
+                this.sendStreaming();
+            }
+            else if ( this.file != null )
+            {
+                this.sendFile();
+            }
+            else if ( this.buffers != null )
+            {
+                this.sendBuffers();
+            }
+            else
             {
-                this.streamOut.printf( "Content-Type: %s\r\n", this.contentType.getType() );
-                this.streamOut.printf( "Content-Length: %d\r\n", this.body.length() );
+                this.evaluateConditional();
+                byte[] payload = this.encodeBody( this.headers );
+                long contentLength = payload.length == 0 && this.declaredLength >= 0 ? this.declaredLength : payload.length;
+                this.writeHead( contentLength );
+
+                // Responses to HEAD requests carry the same head as a GET response, but never a body.
+                if ( this.request == null || this.request.requestMethod != RequestMethod.HEAD )
+                    this.streamOut.write( payload );
             }
-            this.streamOut.print("\r\n");
-            this.streamOut.println(this.getBody());
 
             this.streamOut.flush();
         }
@@ -244,4 +603,429 @@ public class Response
             Logger.getLogger().error("Failed to send response: " + e.getMessage());
         }
     }
+
+    /**
+     * Writes the status line and headers of the response.
+     *
+     * @param contentLength The length of the body, or -1 if the length is not known in advance.
+     * @throws IOException If the head could not be written.
+     */
+    private void writeHead( long contentLength ) throws IOException
+    {
+        this.streamOut.write( STATUS_LINES[this.protocol.ordinal() * STATUS_CODE_COUNT + this.statusCode.ordinal()] );
+        this.streamOut.write( HttpDate.currentDateHeader() );
+        writeHeaders( this.streamOut, this.headers, this.contentType, contentLength );
+    }
+
+    /**
+     * Writes the headers of the response that follow the `Date` header, and the empty line that ends the head.
+     *
+     * @param output        The stream to write the headers to.
+     * @param headers       The headers to write.
+     * @param contentType   The content type of the body.
+     * @param contentLength The length of the body, or -1 if the length is not known in advance.
+     * @throws IOException If the headers could not be written.
+     */
+    private static void writeHeaders( OutputStream output, Map<String, String> headers, ContentType contentType,
+                                      long contentLength ) throws IOException
+    {
+        StringBuilder head = new StringBuilder( 256 );
+
+        headers.forEach( ( key, value ) -> head.append( key ).append( ": " ).append( value ).append( "\r\n" ) );
+
+        if ( contentLength > 0 )
+            head.append( "Content-Length: " ).append( contentLength ).append( "\r\n" );
+        head.append( "\r\n" );
+
+        if ( contentLength != 0 )
+            output.write( contentType.getHeaderBytes() );
+        output.write( head.toString().getBytes( StandardCharsets.ISO_8859_1 ) );
+    }
+
+    /**
+     * Sends a response that was encoded in advance.
+     * The encoded bytes are written with a single write, after the status line, the `Date` header,
+     * and the headers that were set on this response but are not part of the encoded response,
+     * such as the headers of middleware. If such a header replaces an encoded header, the head is built again,
+     * so the value that was set for this request is sent instead of the encoded one.
+     *
+     * @throws IOException If the response could not be written.
+     */
+    private void sendEncoded() throws IOException
+    {
+        EncodedResponse encoded = this.encoded;
+        if ( this.request != null && encoded.getStatusCode() == StatusCode.OK
+                && ( encoded.getEtag() != null || encoded.getLastModified() >= 0 )
+                && ConditionalRequest.isNotModified( this.request.requestMethod, this.request.headers,
+                                                     encoded.getEtag(), encoded.getLastModified() ) )
+        {
+            Map<String, String> headers = mergeHeaders( encoded.getHeaders(), this.headers );
+            headers.remove( "Content-Encoding" );
+            this.statusCode = StatusCode.NOT_MODIFIED;
+            this.headers.clear();
+            this.headers.putAll( headers );
+            this.writeHead( 0 );
+            return;
+        }
+
+        // Headers that were set on this response, for example by middleware, and are not part of the encoded head.
+        StringBuilder extra = new StringBuilder();
+        boolean replaced = false;
+        for ( Map.Entry<String, String> header : this.headers.entrySet() )
+        {
+            String value = encoded.getHeaders().get( header.getKey() );
+            if ( value == null )
+                extra.append( header.getKey() ).append( ": " ).append( header.getValue() ).append( "\r\n" );
+            else if ( ! value.equals( mergeHeader( header.getKey(), value, header.getValue() ) ) )
+                replaced = true;
+        }
+
+        this.streamOut.write( STATUS_LINES[this.protocol.ordinal() * STATUS_CODE_COUNT + encoded.getStatusCode().ordinal()] );
+        this.streamOut.write( HttpDate.currentDateHeader() );
+
+        // Responses to HEAD requests carry the same head as a GET response, but never a body.
+        boolean head = this.request != null && this.request.requestMethod == RequestMethod.HEAD;
+        if ( replaced )
+        {
+            writeHeaders( this.streamOut, mergeHeaders( encoded.getHeaders(), this.headers ),
+                          encoded.getContentType(), encoded.getContentLength() );
+            if ( ! head )
+                this.streamOut.write( encoded.getBytes(), encoded.getHeadLength(), encoded.getBytes().length - encoded.getHeadLength() );
+            return;
+        }
+
+        if ( ! extra.isEmpty() )
+            this.streamOut.write( extra.toString().getBytes( StandardCharsets.ISO_8859_1 ) );
+        this.streamOut.write( encoded.getBytes(), 0, head ? encoded.getHeadLength() : encoded.getBytes().length );
+    }
+
+    /**
+     * Returns the headers the handler set, see {@link #beginHandler()}.
+     * If the handler was not marked, all headers are returned.
+     *
+     * @return A new, modifiable map of the headers.
+     */
+    private Map<String, String> handlerHeaders()
+    {
+        if ( this.middlewareHeaders == null )
+            return new HashMap<>( this.headers );
+
+        Map<String, String> headers = new HashMap<>();
+        this.headers.forEach( ( key, value ) ->
+        {
+            if ( ! value.equals( this.middlewareHeaders.get( key ) ) )
+                headers.put( key, value );
+        } );
+        return headers;
+    }
+
+    /**
+     * Merges the headers of a request into the headers of an encoded response, replacing encoded headers of the same name.
+     */
+    private static Map<String, String> mergeHeaders( Map<String, String> encoded, Map<String, String> headers )
+    {
+        Map<String, String> merged = new LinkedHashMap<>( encoded );
+        headers.forEach( ( key, value ) -> merged.merge( key, value, ( old, replacement ) -> mergeHeader( key, old, replacement ) ) );
+        return merged;
+    }
+
+    /**
+     * Returns the value of a header that replaces an encoded header of the same name.
+     * The `Vary` header is the union of both, since the response varies on the headers that either one lists,
+     * such as `Accept-Encoding` for the encoded body, and `Origin` for the CORS headers of the request.
+     */
+    private static String mergeHeader( String key, String encoded, String value )
+    {
+        if ( ! key.equalsIgnoreCase( "Vary" ) )
+            return value;
+
+        Set<String> names = new HashSet<>();
+        for ( String name : encoded.split( "," ) )
+            names.add( name.trim().toLowerCase( Locale.ROOT ) );
+
+        StringBuilder merged = new StringBuilder( encoded );
+        for ( String name : value.split( "," ) )
+        {
+            name = name.trim();
+            if ( ! name.isEmpty() && names.add( name.toLowerCase( Locale.ROOT ) ) )
+                merged.append( ", " ).append( name );
+        }
+        return merged.toString();
+    }
+
+    /**
+     * Sends a response whose body is written by the body writer.
+     * HTTP/1.1 clients receive the body with the chunked transfer coding,
+     * older clients read the body until the connection is closed.
+     * If the body is eligible for compression, it is compressed while it is written.
+     *
+     * @throws IOException If the response could not be written.
+     */
+    private void sendStreaming() throws IOException
+    {
+        boolean chunked = this.protocol == Protocol.HTTP_1_1;
+        ContentEncoding encoding = this.negotiateEncoding( Long.MAX_VALUE, this.headers );
+        if ( encoding != ContentEncoding.IDENTITY )
+            this.headers.put( "Content-Encoding", encoding.getEncoding() );
+        if ( chunked )
+            this.headers.put( "Transfer-Encoding", "chunked" );
+
+        this.writeHead( - 1 );
+
+        if ( this.request != null && this.request.requestMethod == RequestMethod.HEAD )
+            return;
+
+        OutputStream output = chunked ? new ChunkedOutputStream( this.streamOut ) : this.streamOut;
+        OutputStream encoded = encoding == ContentEncoding.IDENTITY ? output :
+                this.request.server.getCompressor().newCompressor( output, encoding );
+        BufferedOutputStream buffered = new BufferedOutputStream( encoded, 8192 );
+
+        this.bodyWriter.writeTo( buffered );
+        buffered.flush();
+
+        // Finish the compressed stream and write the last chunk, without closing the client stream.
+        if ( encoded instanceof DeflaterOutputStream deflater )
+        {
+            deflater.finish();
+            deflater.close();
+        }
+        if ( output instanceof ChunkedOutputStream )
+            output.close();
+    }
+
+    /**
+     * Sends a response whose body is a region of a file.
+     * If the client socket has a channel, the region is transferred with `FileChannel.transferTo`,
+     * so the data does not pass through the heap. Otherwise, it is copied through a small buffer.
+     *
+     * @throws IOException If the file could not be read, or the response could not be written.
+     */
+    private void sendFile() throws IOException
+    {
+        this.writeHead( this.fileLength );
+
+        if ( this.request != null && this.request.requestMethod == RequestMethod.HEAD )
+            return;
+
+        // The head has to reach the socket before the file does.
+        this.streamOut.flush();
+
+        WritableByteChannel target = this.request != null && this.request.clientSocket != null ?
+                this.request.clientSocket.getChannel() : null;
+
+        try ( FileChannel source = FileChannel.open( this.file, StandardOpenOption.READ ) )
+        {
+            long position = this.fileOffset;
+            long end = this.fileOffset + this.fileLength;
+
+            if ( target != null )
+            {
+                while ( position < end )
+                {
+                    long transferred = source.transferTo( position, end - position, target );
+                    if ( transferred <= 0 && position >= source.size() )
+                        throw new IOException( "File " + this.file + " was truncated while it was sent." );
+                    position += transferred;
+                }
+                return;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate( 64 * 1024 );
+            while ( position < end )
+            {
+                buffer.clear().limit( ( int ) Math.min( buffer.capacity(), end - position ) );
+                int read = source.read( buffer, position );
+                if ( read < 0 )
+                    throw new IOException( "File " + this.file + " was truncated while it was sent." );
+                this.streamOut.write( buffer.array(), 0, read );
+                position += read;
+            }
+        }
+    }
+
+    /**
+     * Sends a response whose body is a sequence of buffers.
+     * If the client socket has a channel, the buffers are written to it with a gathering write.
+     * Otherwise, they are copied to the output stream.
+     *
+     * @throws IOException If the response could not be written.
+     */
+    private void sendBuffers() throws IOException
+    {
+        long length = 0;
+        for ( ByteBuffer buffer : this.buffers )
+            length += buffer.remaining();
+
+        this.writeHead( length );
+
+        if ( this.request != null && this.request.requestMethod == RequestMethod.HEAD )
+            return;
+
+        SocketChannel target = this.request != null && this.request.clientSocket != null ?
+                this.request.clientSocket.getChannel() : null;
+
+        if ( target != null )
+        {
+            // The head has to reach the socket before the buffers do.
+            this.streamOut.flush();
+            long written = 0;
+            while ( written < length )
+                written += target.write( this.buffers );
+            return;
+        }
+
+        byte[] chunk = new byte[ 8192 ];
+        for ( ByteBuffer buffer : this.buffers )
+        {
+            while ( buffer.hasRemaining() )
+            {
+                int count = Math.min( chunk.length, buffer.remaining() );
+                buffer.get( chunk, 0, count );
+                this.streamOut.write( chunk, 0, count );
+            }
+        }
+    }
+
+    /**
+     * Evaluates the conditional headers of the request against the validators of this response.
+     * If the client already has the current representation, the response is turned into
+     * a 304 Not Modified response without a body.
+     */
+    private void evaluateConditional()
+    {
+        if ( this.request == null || this.statusCode != StatusCode.OK )
+            return;
+
+        if ( this.generateETag && ! this.headers.containsKey( "ETag" ) )
+            this.headers.put( "ETag", ConditionalRequest.etag( this.body ) );
+
+        String etag = this.headers.get( "ETag" );
+        if ( etag == null && this.lastModified < 0 )
+            return;
+
+        if ( ConditionalRequest.isNotModified( this.request.requestMethod, this.request.headers, etag, this.lastModified ) )
+        {
+            this.statusCode = StatusCode.NOT_MODIFIED;
+            this.body = new byte[ 0 ];
+            this.declaredLength = - 1;
+        }
+    }
+
+    /**
+     * Returns the body as it should be written to the client.
+     * If the body is eligible for compression, it is compressed with the encoding that was
+     * negotiated with the client, and the `Content-Encoding` header is set accordingly.
+     *
+     * @param headers The headers the representation headers are added to.
+     * @return The encoded body.
+     */
+    private byte[] encodeBody( Map<String, String> headers )
+    {
+        ContentEncoding encoding = this.negotiateEncoding( this.body.length, headers );
+        if ( encoding == ContentEncoding.IDENTITY )
+            return this.body;
+
+        byte[] compressed = this.variants != null && this.variants.containsKey( encoding ) ?
+                this.variants.get( encoding ) :
+                this.request.server.getCompressor().compress( this.cacheKey, this.body, encoding );
+
+        // Compression does not pay off for data that is already compressed.
+        if ( compressed.length >= this.body.length )
+            return this.body;
+
+        headers.put( "Content-Encoding", encoding.getEncoding() );
+        return compressed;
+    }
+
+    /**
+     * Negotiates the content encoding of the body with the client.
+     * If the server has compression enabled and the content type may be compressed,
+     * the `Vary` header is extended with `Accept-Encoding`, since the representation
+     * then depends on that header, even if it ends up not being compressed.
+     *
+     * @param length  The length of the body in bytes.
+     * @param headers The headers the `Vary` header is added to.
+     * @return The encoding to apply, or IDENTITY if the body should not be compressed.
+     */
+    private ContentEncoding negotiateEncoding( long length, Map<String, String> headers )
+    {
+        if ( this.request == null || this.request.server == null )
+            return ContentEncoding.IDENTITY;
+
+        ResponseCompressor compressor = this.request.server.getCompressor();
+        if ( compressor == null || ! compressor.isCompressible( this.contentType ) )
+            return ContentEncoding.IDENTITY;
+
+        String vary = headers.get( "Vary" );
+        if ( vary == null )
+            headers.put( "Vary", "Accept-Encoding" );
+        else if ( ! vary.toLowerCase().contains( "accept-encoding" ) )
+            headers.put( "Vary", vary + ", Accept-Encoding" );
+
+        if ( length == 0 || headers.containsKey( "Content-Encoding" ) || ! compressor.shouldCompress( this.contentType, length ) )
+            return ContentEncoding.IDENTITY;
+
+        return ContentEncoding.negotiate( this.request.headers.get( "accept-encoding" ) );
+    }
+
+    /**
+     * Creates a body writer that writes the elements as a JSON array.
+     *
+     * @param elements The elements of the array.
+     * @return The body writer.
+     */
+    private static IBodyWriter jsonArrayWriter( Iterator<?> elements )
+    {
+        return output ->
+        {
+            JsonWriter writer = new JsonWriter( new OutputStreamWriter( output, StandardCharsets.UTF_8 ) );
+            writer.beginArray();
+            while ( elements.hasNext() )
+                writeJson( writer, elements.next() );
+            writer.endArray();
+            writer.flush();
+        };
+    }
+
+    /**
+     * Writes a single element of a JSON body.
+     *
+     * @param writer  The writer to write the element to.
+     * @param element The element to write, which may be a JSON element or any object Gson can serialize.
+     * @throws IOException If the element could not be written.
+     */
+    private static void writeJson( JsonWriter writer, Object element ) throws IOException
+    {
+        if ( element == null )
+            writer.nullValue();
+        else if ( element instanceof JsonElement json )
+            GSON.toJson( json, writer );
+        else
+            GSON.toJson( element, element.getClass(), writer );
+    }
+
+    /**
+     * Serializes JSON directly into bytes, without creating an intermediate string.
+     *
+     * @param serializer The function that writes the JSON.
+     * @return The UTF-8 encoded JSON.
+     */
+    private static byte[] serialize( JsonSerializer serializer )
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream( 256 );
+        try ( JsonWriter writer = new JsonWriter( new OutputStreamWriter( output, StandardCharsets.UTF_8 ) ) )
+        {
+            serializer.write( writer );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+        return output.toByteArray();
+    }
+
+    private interface JsonSerializer
+    {
+        void write( JsonWriter writer ) throws IOException;
+    }
 }
@@ -0,0 +1,196 @@
+package nl.getgood.api.http;
+
+import nl.getgood.api.Logger;
+import nl.getgood.api.cache.WeightedLruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses response bodies using the content encoding that was negotiated with the client.
+ * Only bodies of an allowed content type, that are at least the configured minimum size,
+ * are compressed. Compressed variants of bodies that have a cache key are kept in a
+ * bounded cache, so that static files and other stable responses are not recompressed
+ * on every request.
+ * <br /> <br />
+ * Created by agent.
+ */
+public class ResponseCompressor
+{
+
+    private final Set<String> compressibleTypes = ConcurrentHashMap.newKeySet();
+    private final WeightedLruCache<String, byte[]> variantCache;
+    private final int level;
+    private final int minimumSize;
+
+    /**
+     * Creates a new response compressor.
+     *
+     * @param level       The compression level, ranging from 1 (fastest) to 9 (smallest).
+     * @param minimumSize The minimum size in bytes of a body before it is compressed.
+     * @param cacheSize   The maximum amount of bytes of compressed variants to keep cached.
+     */
+    public ResponseCompressor( int level, int minimumSize, long cacheSize )
+    {
+        this.level = Math.max( Deflater.BEST_SPEED, Math.min( Deflater.BEST_COMPRESSION, level ) );
+        this.minimumSize = minimumSize;
+        this.variantCache = new WeightedLruCache<>( cacheSize, variant -> variant.length );
+    }
+
+    /**
+     * Adds content types to the list of types that may be compressed.
+     *
+     * @param contentTypes The content types to allow.
+     * @return The response compressor instance.
+     */
+    public ResponseCompressor allow( ContentType... contentTypes )
+    {
+        for ( ContentType contentType : contentTypes )
+            this.compressibleTypes.add( mediaType( contentType ) );
+        return this;
+    }
+
+    /**
+     * Checks whether bodies of the provided content type may be compressed.
+     *
+     * @param contentType The content type of the body.
+     * @return True if the content type is in the allow-list, false otherwise.
+     */
+    public boolean isCompressible( ContentType contentType )
+    {
+        return contentType != null && this.compressibleTypes.contains( mediaType( contentType ) );
+    }
+
+    /**
+     * Checks whether a body of the provided content type and size should be compressed.
+     *
+     * @param contentType The content type of the body.
+     * @param length      The length of the body in bytes.
+     * @return True if the body should be compressed, false otherwise.
+     */
+    public boolean shouldCompress( ContentType contentType, long length )
+    {
+        return length >= this.minimumSize && isCompressible( contentType );
+    }
+
+    /**
+     * Compresses the provided data with the provided encoding.
+     * If a cache key is provided, the compressed variant is looked up in, and stored to,
+     * the variant cache. The cache key must change whenever the data changes.
+     *
+     * @param cacheKey The key that identifies the uncompressed data, or null if the data is not cacheable.
+     * @param data     The data to compress.
+     * @param encoding The encoding to compress the data with.
+     * @return The compressed data, or the original data if compression failed.
+     */
+    public byte[] compress( String cacheKey, byte[] data, ContentEncoding encoding )
+    {
+        if ( encoding == ContentEncoding.IDENTITY )
+            return data;
+
+        String variantKey = cacheKey == null ? null : encoding.getEncoding() + ':' + cacheKey;
+        if ( variantKey != null )
+        {
+            byte[] cached = this.variantCache.get( variantKey );
+            if ( cached != null )
+                return cached;
+        }
+
+        byte[] compressed = compress( data, encoding );
+        if ( variantKey != null && compressed != data )
+            this.variantCache.put( variantKey, compressed );
+
+        return compressed;
+    }
+
+    /**
+     * Compresses the provided data with the provided encoding.
+     *
+     * @param data     The data to compress.
+     * @param encoding The encoding to compress the data with.
+     * @return The compressed data, or the original data if compression failed.
+     */
+    public byte[] compress( byte[] data, ContentEncoding encoding )
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream( Math.max( 64, data.length / 4 ) );
+        try ( DeflaterOutputStream compressor = this.newCompressor( output, encoding ) )
+        {
+            compressor.write( data );
+        }
+        catch ( IOException e )
+        {
+            Logger.getLogger().error( "Failed to compress response body: " + e.getMessage() );
+            return data;
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Creates a compressing stream for the provided encoding, that writes to the provided output stream.
+     * The stream is configured with the compression level of this compressor.
+     *
+     * @param output   The stream to write the compressed data to.
+     * @param encoding The encoding to compress the data with, must not be IDENTITY.
+     * @return The compressing output stream.
+     * @throws IOException If the stream could not be created.
+     */
+    public DeflaterOutputStream newCompressor( OutputStream output, ContentEncoding encoding ) throws IOException
+    {
+        if ( encoding == ContentEncoding.GZIP )
+        {
+            return new GZIPOutputStream( output, 8192 )
+            {
+                {
+                    this.def.setLevel( ResponseCompressor.this.level );
+                }
+            };
+        }
+        if ( encoding == ContentEncoding.DEFLATE )
+        {
+            // A deflater that is passed to the stream is not released by it, so end it on close.
+            return new DeflaterOutputStream( output, new Deflater( this.level ), 8192 )
+            {
+                @Override
+                public void close() throws IOException
+                {
+                    try
+                    {
+                        super.close();
+                    }
+                    finally
+                    {
+                        this.def.end();
+                    }
+                }
+            };
+        }
+
+        throw new IllegalArgumentException( "Cannot create a compressor for encoding " + encoding );
+    }
+
+    /**
+     * Returns the cache that holds the compressed variants.
+     */
+    public WeightedLruCache<String, byte[]> getVariantCache()
+    {
+        return this.variantCache;
+    }
+
+    /**
+     * Strips any parameters, such as the charset, from a content type.
+     */
+    private static String mediaType( ContentType contentType )
+    {
+        String type = contentType.getType();
+        if ( type == null )
+            return "";
+        int parameterIndex = type.indexOf( ';' );
+        return ( parameterIndex < 0 ? type : type.substring( 0, parameterIndex ) ).trim().toLowerCase();
+    }
+}
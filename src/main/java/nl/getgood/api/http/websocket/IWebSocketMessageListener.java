@@ -0,0 +1,18 @@
+package nl.getgood.api.http.websocket;
+
+/**
+ * Receives the messages and control frames that a {@link WebSocketFrameDecoder} decodes.
+ * <br /> <br />
+ * Created by agent.
+ */
+public interface IWebSocketMessageListener
+{
+    /**
+     * Called for every complete message, once all of its fragments have been received, and for every control frame.
+     *
+     * @param type    The type of the message: {@link WebSocketMessageType#TEXT} or {@link WebSocketMessageType#BINARY}
+     *                for messages, or the type of a control frame.
+     * @param payload The unmasked payload, which is owned by the listener.
+     */
+    void onMessage( WebSocketMessageType type, byte[] payload );
+}
@@ -132,13 +132,26 @@ public class WebSocketFrame
     }
 
     public static byte[] encode( WebSocketMessageType opcode, String data, boolean fin, byte[] maskingKey )
+    {
+        return encode( opcode, data.getBytes( StandardCharsets.UTF_8 ), fin, maskingKey );
+    }
+
+    /**
+     * Encodes a WebSocket frame with the given opcode and payload.
+     *
+     * @param opcode      The opcode of the frame
+     * @param payloadData The payload of the frame
+     * @param fin         Whether this is the final frame of a message
+     * @param maskingKey  The masking key of the payload, or null if the payload is not masked
+     * @return The encoded frame
+     */
+    public static byte[] encode( WebSocketMessageType opcode, byte[] payloadData, boolean fin, byte[] maskingKey )
     {
         boolean masked = maskingKey != null;
-        byte[] payloadData = data.getBytes(StandardCharsets.UTF_8);
 
         int payloadLength = payloadData.length;
         int extendedPayloadLength = payloadLength;
-        int payloadLengthFieldSize = 1;
+        int payloadLengthFieldSize = 0;
 
         if (payloadLength >= 126) {
             if (payloadLength < 65536) {
@@ -165,7 +178,7 @@ public class WebSocketFrame
             frame[index++] = (byte) (payloadLength);
         } else if (extendedPayloadLength == 127) {
             for (int i = 7; i >= 0; i--) {
-                frame[index++] = (byte) (payloadLength >> (i * 8));
+                frame[index++] = (byte) ((long) payloadLength >> (i * 8));
             }
         }
 
@@ -179,14 +192,6 @@ public class WebSocketFrame
             System.arraycopy(payloadData, 0, frame, index, payloadData.length);
         }
 
-        for ( byte b : frame )
-        {
-            for ( int i = 7; i >= 0; i-- )
-                System.out.print( ( b >> i ) & 1 );
-            System.out.print(" ");
-        }
-        System.out.println();
-
         return frame;
     }
 }
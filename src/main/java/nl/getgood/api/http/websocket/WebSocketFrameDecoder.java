@@ -0,0 +1,273 @@
+package nl.getgood.api.http.websocket;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes the frames a client sends over a WebSocket connection, from bytes in whatever chunks they are read.
+ * <br /> <br />
+ * The decoder keeps its state between calls to {@link #feed(byte[], int, int)}, so a frame may be split over
+ * any amount of reads, down to single bytes, and a single read may hold any amount of frames. The payloads of
+ * fragmented messages are unmasked into a message buffer, which grows to fit the message and is passed to the
+ * listener once the final fragment arrives. Control frames may arrive in between the fragments of a message;
+ * they are passed to the listener right away, without disturbing the message.
+ * <br /> <br />
+ * Frames that violate the protocol, such as unmasked frames or fragmented control frames, and messages that
+ * exceed the maximum message size, end the connection with a {@link WebSocketProtocolException}.
+ * The size of a message is checked against the maximum as soon as the header of a frame is read,
+ * so oversized messages are rejected before their payload is buffered.
+ * <br /> <br />
+ * Message buffers of the initial size are pooled, so connections that only exchange small messages
+ * do not allocate a buffer of their own. {@link #release()} returns the buffer once the connection ends.
+ * <br /> <br />
+ * Created by agent.
+ */
+public class WebSocketFrameDecoder
+{
+
+    /**
+     * The default maximum size of a message in bytes.
+     */
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 1024 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    private static final int MAX_POOLED_BUFFERS = 256;
+
+    /**
+     * The largest payload of a control frame.
+     */
+    private static final int MAX_CONTROL_PAYLOAD = 125;
+
+    private static final ConcurrentLinkedQueue<byte[]> POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger POOLED = new AtomicInteger();
+
+    private final int maxMessageSize;
+    private final IWebSocketMessageListener listener;
+
+    // The header of the current frame, of which the length is known once its first two bytes are read.
+    private final byte[] header = new byte[ 14 ];
+    private int headerRead = 0;
+    private int headerLength = 2;
+
+    // The payload of the current frame.
+    private boolean inPayload = false;
+    private WebSocketMessageType frameType;
+    private boolean fin;
+    private int payloadLength;
+    private int payloadRead;
+    private final byte[] mask = new byte[ 4 ];
+    private final byte[] control = new byte[ MAX_CONTROL_PAYLOAD ];
+
+    // The message the current frame is a fragment of, or null if no message was started.
+    private WebSocketMessageType messageType;
+    private byte[] buffer;
+    private int messageLength;
+
+    private boolean closed = false;
+
+    /**
+     * Creates a new decoder.
+     *
+     * @param maxMessageSize The maximum size of a message in bytes, after its fragments are joined.
+     * @param listener       The listener that receives the decoded messages and control frames.
+     */
+    public WebSocketFrameDecoder( int maxMessageSize, IWebSocketMessageListener listener )
+    {
+        if ( maxMessageSize < 0 )
+            throw new IllegalArgumentException( "The maximum message size must not be negative" );
+
+        this.maxMessageSize = maxMessageSize;
+        this.listener = listener;
+        this.buffer = acquire();
+    }
+
+    /**
+     * Decodes bytes that were read from the client, passing every message and control frame that they complete
+     * to the listener. Bytes that follow a close frame are ignored.
+     *
+     * @param data   The array holding the bytes.
+     * @param offset The index of the first byte.
+     * @param length The amount of bytes.
+     * @throws WebSocketProtocolException If the bytes violate the protocol, after which the decoder must not be used.
+     */
+    public void feed( byte[] data, int offset, int length ) throws WebSocketProtocolException
+    {
+        int end = offset + length;
+        while ( ! this.closed )
+        {
+            if ( ! this.inPayload )
+            {
+                if ( offset == end )
+                    return;
+
+                int count = Math.min( this.headerLength - this.headerRead, end - offset );
+                System.arraycopy( data, offset, this.header, this.headerRead, count );
+                offset += count;
+                this.headerRead += count;
+
+                if ( this.headerRead == 2 && this.headerLength == 2 )
+                    this.headerLength = this.readHeaderLength();
+                if ( this.headerRead == this.headerLength )
+                    this.beginPayload();
+                continue;
+            }
+
+            // Frames without a payload are completed without reading any bytes.
+            int count = Math.min( this.payloadLength - this.payloadRead, end - offset );
+            byte[] target = this.frameType.isControl() ? this.control : this.buffer;
+            int position = ( this.frameType.isControl() ? 0 : this.messageLength ) + this.payloadRead;
+            for ( int i = 0; i < count; i++ )
+                target[ position + i ] = ( byte ) ( data[ offset + i ] ^ this.mask[ ( this.payloadRead + i ) & 3 ] );
+            offset += count;
+            this.payloadRead += count;
+
+            if ( this.payloadRead < this.payloadLength )
+                return;
+            this.endFrame();
+        }
+    }
+
+    /**
+     * Returns whether a close frame was decoded, after which the connection ends.
+     */
+    public boolean isClosed()
+    {
+        return this.closed;
+    }
+
+    /**
+     * Returns the message buffer to the pool. The decoder must not be used afterwards.
+     */
+    public void release()
+    {
+        byte[] released = this.buffer;
+        this.buffer = null;
+        if ( released != null && released.length == INITIAL_BUFFER_SIZE && POOLED.incrementAndGet() <= MAX_POOLED_BUFFERS )
+            POOL.offer( released );
+        else if ( released != null && released.length == INITIAL_BUFFER_SIZE )
+            POOLED.decrementAndGet();
+    }
+
+    /**
+     * Validates the first two bytes of the header, and returns the length of the header.
+     */
+    private int readHeaderLength() throws WebSocketProtocolException
+    {
+        if ( ( this.header[ 0 ] & 0x70 ) != 0 )
+            throw new WebSocketProtocolException( WebSocketProtocolException.PROTOCOL_ERROR, "Reserved bits are set without an extension" );
+
+        WebSocketMessageType type = WebSocketMessageType.decode( this.header[ 0 ] );
+        if ( type == null )
+            throw new WebSocketProtocolException( WebSocketProtocolException.PROTOCOL_ERROR, "Reserved opcode " + ( this.header[ 0 ] & 0xF ) );
+        if ( ( this.header[ 1 ] & 0x80 ) == 0 )
+            throw new WebSocketProtocolException( WebSocketProtocolException.PROTOCOL_ERROR, "Frames from clients must be masked" );
+
+        int length = this.header[ 1 ] & 0x7F;
+        boolean fin = ( this.header[ 0 ] & 0x80 ) != 0;
+        if ( type.isControl() && ( ! fin || length > MAX_CONTROL_PAYLOAD ) )
+            throw new WebSocketProtocolException( WebSocketProtocolException.PROTOCOL_ERROR, "Control frames must not be fragmented or exceed 125 bytes" );
+
+        this.frameType = type;
+        this.fin = fin;
+        return 2 + ( length == 126 ? 2 : length == 127 ? 8 : 0 ) + 4;
+    }
+
+    /**
+     * Reads the payload length and masking key from the complete header, and prepares the buffer for the payload.
+     */
+    private void beginPayload() throws WebSocketProtocolException
+    {
+        int length = this.header[ 1 ] & 0x7F;
+        long payloadLength;
+        if ( length == 126 )
+        {
+            payloadLength = ( this.header[ 2 ] & 0xFF ) << 8 | this.header[ 3 ] & 0xFF;
+        }
+        else if ( length == 127 )
+        {
+            payloadLength = 0;
+            for ( int i = 0; i < 8; i++ )
+                payloadLength = payloadLength << 8 | this.header[ 2 + i ] & 0xFF;
+            if ( payloadLength < 0 )
+                throw new WebSocketProtocolException( WebSocketProtocolException.PROTOCOL_ERROR, "Payload length exceeds 63 bits" );
+        }
+        else
+        {
+            payloadLength = length;
+        }
+        System.arraycopy( this.header, this.headerLength - 4, this.mask, 0, 4 );
+
+        if ( ! this.frameType.isControl() )
+        {
+            if ( this.frameType == WebSocketMessageType.CONTINUING && this.messageType == null )
+                throw new WebSocketProtocolException( WebSocketProtocolException.PROTOCOL_ERROR, "Continuation frame without a message" );
+            if ( this.frameType != WebSocketMessageType.CONTINUING && this.messageType != null )
+                throw new WebSocketProtocolException( WebSocketProtocolException.PROTOCOL_ERROR, "New message before the previous message was finished" );
+
+            if ( this.messageLength + payloadLength > this.maxMessageSize )
+                throw new WebSocketProtocolException( WebSocketProtocolException.MESSAGE_TOO_BIG,
+                                                      "Message exceeds the maximum size of " + this.maxMessageSize + " bytes" );
+
+            if ( this.messageType == null )
+                this.messageType = this.frameType;
+            this.ensureCapacity( this.messageLength + ( int ) payloadLength );
+        }
+
+        this.payloadLength = ( int ) payloadLength;
+        this.payloadRead = 0;
+        this.inPayload = true;
+    }
+
+    /**
+     * Passes the completed frame to the listener, if it completes a message or is a control frame,
+     * and prepares the decoder for the next frame.
+     */
+    private void endFrame()
+    {
+        WebSocketMessageType type = this.frameType;
+        this.inPayload = false;
+        this.headerRead = 0;
+        this.headerLength = 2;
+
+        if ( type.isControl() )
+        {
+            this.closed = type == WebSocketMessageType.CLOSE;
+            this.listener.onMessage( type, Arrays.copyOf( this.control, this.payloadLength ) );
+            return;
+        }
+
+        this.messageLength += this.payloadLength;
+        if ( ! this.fin )
+            return;
+
+        WebSocketMessageType messageType = this.messageType;
+        byte[] message = Arrays.copyOf( this.buffer, this.messageLength );
+        this.messageType = null;
+        this.messageLength = 0;
+
+        // A buffer that grew for a large message is not kept for the small messages that usually follow.
+        if ( this.buffer.length > INITIAL_BUFFER_SIZE )
+            this.buffer = acquire();
+        this.listener.onMessage( messageType, message );
+    }
+
+    private void ensureCapacity( int capacity )
+    {
+        if ( capacity <= this.buffer.length )
+            return;
+
+        int grown = Math.max( capacity, ( int ) Math.min( ( long ) this.buffer.length * 2, Integer.MAX_VALUE - 8 ) );
+        this.buffer = Arrays.copyOf( this.buffer, grown );
+    }
+
+    private static byte[] acquire()
+    {
+        byte[] buffer = POOL.poll();
+        if ( buffer == null )
+            return new byte[ INITIAL_BUFFER_SIZE ];
+
+        POOLED.decrementAndGet();
+        return buffer;
+    }
+}
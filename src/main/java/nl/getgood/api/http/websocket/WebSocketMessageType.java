@@ -13,6 +13,13 @@ public enum WebSocketMessageType
     PING((byte) 0x9),
     PONG((byte) 0xA);
 
+    private static final WebSocketMessageType[] BY_OPCODE = new WebSocketMessageType[16];
+
+    static {
+        for (WebSocketMessageType type : values())
+            BY_OPCODE[type.opcode] = type;
+    }
+
     final byte opcode;
     WebSocketMessageType(final byte opcode) {
         this.opcode = opcode;
@@ -21,11 +28,16 @@ public enum WebSocketMessageType
     /**
      * Method for decoding the opcode of a message.
      * @param opcode The opcode to decode.
-     * @return The message type.
+     * @return The message type, or null if the opcode is reserved.
      */
     public static WebSocketMessageType decode(byte opcode) {
-        return WebSocketMessageType.values()[opcode & 0xF];
+        return BY_OPCODE[opcode & 0xF];
     }
+
+    /**
+     * Returns whether this is the type of a control frame, which may be sent in between the fragments of a message.
+     */
+    public boolean isControl() { return (this.opcode & 0x8) != 0; }
     // Returns the opcode of this message type.
     public byte getOpcode() { return this.opcode; }
 
@@ -0,0 +1,40 @@
+package nl.getgood.api.http.websocket;
+
+import java.net.ProtocolException;
+
+/**
+ * Thrown when a client violates the WebSocket protocol, along with the status code the connection is closed with.
+ * <br /> <br />
+ * Created by agent.
+ */
+public class WebSocketProtocolException extends ProtocolException
+{
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The status code of a frame that violates the protocol.
+     */
+    public static final int PROTOCOL_ERROR = 1002;
+
+    /**
+     * The status code of a message that is larger than the maximum message size.
+     */
+    public static final int MESSAGE_TOO_BIG = 1009;
+
+    private final int closeCode;
+
+    public WebSocketProtocolException( int closeCode, String message )
+    {
+        super( message );
+        this.closeCode = closeCode;
+    }
+
+    /**
+     * Returns the status code the connection is closed with.
+     */
+    public int getCloseCode()
+    {
+        return this.closeCode;
+    }
+}
@@ -0,0 +1,332 @@
+package nl.getgood.api.middleware;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+
+/**
+ * An immutable, path-compressed binary trie of CIDR prefixes, which finds the longest prefix that contains an address.
+ * IPv4 addresses are stored as IPv4-mapped IPv6 addresses, so a single trie holds both families.
+ * <br /> <br />
+ * Nodes only exist where prefixes end or branch, so the trie holds at most two nodes per prefix,
+ * and a lookup visits at most one node per bit of the address, regardless of the amount of prefixes.
+ * The nodes are stored in a single array, rather than as objects, to keep large lists compact and to read every node
+ * from one cache line.
+ * <br /> <br />
+ * Created by agent.
+ */
+final class CidrTrie
+{
+
+    /**
+     * The rule of a node without a prefix.
+     */
+    static final byte NONE = 0;
+    static final byte ALLOW = 1;
+    static final byte DENY = 2;
+
+    static final CidrTrie EMPTY = build( List.of() );
+
+    /**
+     * A prefix and the rule that applies to the addresses it contains.
+     *
+     * @param high   The first 64 bits of the address of the prefix.
+     * @param low    The last 64 bits of the address of the prefix.
+     * @param length The length of the prefix in bits, out of 128.
+     * @param rule   The rule, {@link #ALLOW} or {@link #DENY}.
+     */
+    record Prefix( long high, long low, int length, byte rule ) {}
+
+    /**
+     * The amount of values per node: the two halves of its prefix, its length and rule, and the indices of its children.
+     */
+    private static final int NODE_SIZE = 4;
+
+    private final long[] nodes;
+    private final int prefixes;
+
+    private CidrTrie( long[] nodes, int prefixes )
+    {
+        this.nodes = nodes;
+        this.prefixes = prefixes;
+    }
+
+    /**
+     * Builds a trie of prefixes. Of prefixes that occur more than once, the last one applies.
+     */
+    static CidrTrie build( List<Prefix> prefixes )
+    {
+        Node root = new Node( 0, 0, 0, NONE );
+        int nodes = 1;
+        for ( Prefix prefix : prefixes )
+            nodes += insert( root, prefix );
+
+        long[] flattened = new long[ nodes * NODE_SIZE ];
+        flatten( root, 0, new int[] { 1 }, flattened );
+        return new CidrTrie( flattened, prefixes.size() );
+    }
+
+    /**
+     * Finds the rule of the longest prefix that contains an address.
+     *
+     * @param high The first 64 bits of the address.
+     * @param low  The last 64 bits of the address.
+     * @return The rule, or {@link #NONE} if no prefix contains the address.
+     */
+    byte lookup( long high, long low )
+    {
+        long[] nodes = this.nodes;
+        byte rule = ( byte ) nodes[ 2 ];
+        int node = 0;
+        while ( true )
+        {
+            int length = ( int ) ( nodes[ node + 2 ] >>> 8 );
+            if ( length == 128 )
+                return rule;
+
+            long children = nodes[ node + 3 ];
+            int child = ( int ) ( bit( high, low, length ) == 0 ? children >>> 32 : children ) * NODE_SIZE;
+            if ( child == 0 )
+                return rule;
+
+            long meta = nodes[ child + 2 ];
+            int childLength = ( int ) ( meta >>> 8 );
+            if ( mask( high, 0, childLength ) != nodes[ child ] || mask( low, 64, childLength ) != nodes[ child + 1 ] )
+                return rule;
+
+            if ( ( byte ) meta != NONE )
+                rule = ( byte ) meta;
+            node = child;
+        }
+    }
+
+    /**
+     * Finds the rule of the longest prefix that contains an address.
+     */
+    byte lookup( InetAddress address )
+    {
+        byte[] bytes = address.getAddress();
+        if ( bytes.length == 4 )
+            return this.lookup( 0, 0xFFFF_0000_0000L | ( readInt( bytes, 0 ) & 0xFFFF_FFFFL ) );
+        return this.lookup( readLong( bytes, 0 ), readLong( bytes, 8 ) );
+    }
+
+    /**
+     * Returns the amount of prefixes the trie was built from.
+     */
+    int size()
+    {
+        return this.prefixes;
+    }
+
+    /**
+     * Parses a prefix in CIDR notation, such as "203.0.113.0/24" or "2001:db8::/32".
+     * An address without a length is a prefix of the full address.
+     * Host names are not resolved.
+     *
+     * @throws IllegalArgumentException If the prefix is malformed.
+     */
+    static Prefix parse( String cidr, byte rule )
+    {
+        int slash = cidr.indexOf( '/' );
+        String address = slash < 0 ? cidr : cidr.substring( 0, slash );
+        boolean ipv6 = address.indexOf( ':' ) >= 0;
+
+        int length;
+        try
+        {
+            length = slash < 0 ? ( ipv6 ? 128 : 32 ) : Integer.parseInt( cidr.substring( slash + 1 ) );
+        }
+        catch ( NumberFormatException e )
+        {
+            throw new IllegalArgumentException( "Malformed prefix length: " + cidr );
+        }
+        if ( length < 0 || length > ( ipv6 ? 128 : 32 ) )
+            throw new IllegalArgumentException( "Prefix length out of range: " + cidr );
+
+        long high;
+        long low;
+        if ( ipv6 )
+        {
+            byte[] bytes;
+            try
+            {
+                // Addresses with a colon are parsed as IPv6 literals and never resolved.
+                bytes = InetAddress.getByName( address ).getAddress();
+            }
+            catch ( UnknownHostException e )
+            {
+                throw new IllegalArgumentException( "Malformed IPv6 address: " + cidr );
+            }
+            if ( bytes.length == 4 )
+            {
+                high = 0;
+                low = 0xFFFF_0000_0000L | ( readInt( bytes, 0 ) & 0xFFFF_FFFFL );
+            }
+            else
+            {
+                high = readLong( bytes, 0 );
+                low = readLong( bytes, 8 );
+            }
+        }
+        else
+        {
+            high = 0;
+            low = 0xFFFF_0000_0000L | parseIpv4( address, cidr );
+            length += 96;
+        }
+        return new Prefix( mask( high, 0, length ), mask( low, 64, length ), length, rule );
+    }
+
+    private static long parseIpv4( String address, String cidr )
+    {
+        String[] octets = address.split( "\\.", - 1 );
+        if ( octets.length != 4 )
+            throw new IllegalArgumentException( "Malformed IPv4 address: " + cidr );
+
+        long value = 0;
+        for ( String octet : octets )
+        {
+            int parsed;
+            try
+            {
+                parsed = octet.isEmpty() || octet.length() > 3 ? - 1 : Integer.parseInt( octet );
+            }
+            catch ( NumberFormatException e )
+            {
+                parsed = - 1;
+            }
+            if ( parsed < 0 || parsed > 255 )
+                throw new IllegalArgumentException( "Malformed IPv4 address: " + cidr );
+            value = value << 8 | parsed;
+        }
+        return value;
+    }
+
+    /**
+     * Inserts a prefix below the root.
+     *
+     * @return The amount of nodes that were added.
+     */
+    private static int insert( Node root, Prefix prefix )
+    {
+        Node node = root;
+        while ( true )
+        {
+            if ( node.length == prefix.length() )
+            {
+                node.rule = prefix.rule();
+                return 0;
+            }
+
+            int bit = bit( prefix.high(), prefix.low(), node.length );
+            Node child = node.children[ bit ];
+            if ( child == null )
+            {
+                node.children[ bit ] = new Node( prefix.high(), prefix.low(), prefix.length(), prefix.rule() );
+                return 1;
+            }
+
+            int common = Math.min( commonLength( prefix.high(), prefix.low(), child.high, child.low ),
+                                   Math.min( prefix.length(), child.length ) );
+            if ( common == child.length )
+            {
+                node = child;
+                continue;
+            }
+
+            // The prefix ends or branches within the bits the child skips, so a node is inserted above the child.
+            Node inserted = new Node( mask( prefix.high(), 0, common ), mask( prefix.low(), 64, common ), common, NONE );
+            inserted.children[ bit( child.high, child.low, common ) ] = child;
+            node.children[ bit ] = inserted;
+            if ( common == prefix.length() )
+            {
+                inserted.rule = prefix.rule();
+                return 1;
+            }
+            inserted.children[ bit( prefix.high(), prefix.low(), common ) ] =
+                    new Node( prefix.high(), prefix.low(), prefix.length(), prefix.rule() );
+            return 2;
+        }
+    }
+
+    /**
+     * Stores a node and its descendants in the array, depth first.
+     */
+    private static void flatten( Node node, int index, int[] next, long[] nodes )
+    {
+        int offset = index * NODE_SIZE;
+        nodes[ offset ] = node.high;
+        nodes[ offset + 1 ] = node.low;
+        nodes[ offset + 2 ] = ( long ) node.length << 8 | node.rule;
+
+        long children = 0;
+        for ( int bit = 0; bit < 2; bit++ )
+        {
+            Node child = node.children[ bit ];
+            if ( child == null )
+                continue;
+
+            // Index 0 is the root, so it marks a missing child.
+            int childIndex = next[ 0 ]++;
+            children |= ( long ) childIndex << ( bit == 0 ? 32 : 0 );
+            flatten( child, childIndex, next, nodes );
+        }
+        nodes[ offset + 3 ] = children;
+    }
+
+    private static int bit( long high, long low, int index )
+    {
+        return ( int ) ( index < 64 ? high >>> ( 63 - index ) : low >>> ( 127 - index ) ) & 1;
+    }
+
+    /**
+     * Keeps the bits of one half of an address that are part of a prefix of a length.
+     *
+     * @param half   The half of the address.
+     * @param offset The index of the first bit of the half, 0 or 64.
+     * @param length The length of the prefix.
+     */
+    private static long mask( long half, int offset, int length )
+    {
+        int bits = Math.max( 0, Math.min( 64, length - offset ) );
+        return bits == 0 ? 0 : half & ( - 1L << ( 64 - bits ) );
+    }
+
+    private static int commonLength( long highA, long lowA, long highB, long lowB )
+    {
+        long high = highA ^ highB;
+        return high != 0 ? Long.numberOfLeadingZeros( high ) : 64 + Long.numberOfLeadingZeros( lowA ^ lowB );
+    }
+
+    private static int readInt( byte[] bytes, int offset )
+    {
+        return ( bytes[ offset ] & 0xFF ) << 24 | ( bytes[ offset + 1 ] & 0xFF ) << 16
+                | ( bytes[ offset + 2 ] & 0xFF ) << 8 | bytes[ offset + 3 ] & 0xFF;
+    }
+
+    private static long readLong( byte[] bytes, int offset )
+    {
+        return ( readInt( bytes, offset ) & 0xFFFF_FFFFL ) << 32 | readInt( bytes, offset + 4 ) & 0xFFFF_FFFFL;
+    }
+
+    /**
+     * A node of the trie while it is built.
+     */
+    private static final class Node
+    {
+        private final long high;
+        private final long low;
+        private final int length;
+        private final Node[] children = new Node[ 2 ];
+        private byte rule;
+
+        private Node( long high, long low, int length, byte rule )
+        {
+            this.high = high;
+            this.low = low;
+            this.length = length;
+            this.rule = rule;
+        }
+    }
+}
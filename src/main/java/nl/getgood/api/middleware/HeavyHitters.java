@@ -0,0 +1,544 @@
+package nl.getgood.api.middleware;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import nl.getgood.api.http.IRequestHandler;
+import nl.getgood.api.http.Request;
+import nl.getgood.api.http.Response;
+import nl.getgood.api.http.StatusCode;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+
+/**
+ * A middleware that detects the clients that make the most requests, in memory that does not grow with the
+ * amount of clients, and optionally throttles or blocks them.
+ * <br /> <br />
+ * The requests of every client, and of every client per route, are counted in a Count-Min Sketch: a table of
+ * `depth` rows of `width` counters, where every key increments one counter per row, chosen by a different hash.
+ * Keys share counters, so the smallest of its counters overestimates the requests of a key by at most
+ * `e / width` times the total amount of requests, with a probability of `1 - e^-depth`.
+ * The requests are counted over a sliding window, estimated from the counts of the current and the previous window.
+ * <br /> <br />
+ * The `topK` clients and client routes with the highest estimates are kept, and can be inspected with
+ * {@link #topK()} or served as JSON by {@link #handler()}. Clients or client routes of which the estimate exceeds
+ * its threshold are heavy hitters, which are reported, throttled or blocked depending on the {@link Action}.
+ * <br /> <br />
+ * The requests of a route are only known if the middleware is scoped, for example with
+ * `server.use( MiddlewareScope.ALL, heavyHitters )`; otherwise they are counted by path.
+ * <br /> <br />
+ * Created by agent.
+ */
+public class HeavyHitters implements Middleware
+{
+
+    /**
+     * What happens to the requests of heavy hitters.
+     */
+    public enum Action
+    {
+        /**
+         * The requests are allowed, and the heavy hitters are only reported.
+         */
+        REPORT,
+
+        /**
+         * The requests are answered with `429 Too Many Requests`, until the estimate drops below the threshold.
+         */
+        THROTTLE,
+
+        /**
+         * The requests are answered with `403 Forbidden`, until the estimate drops below the threshold.
+         */
+        BLOCK
+    }
+
+    /**
+     * A client, or a client route, with its estimated amount of requests in a window.
+     *
+     * @param client   The key of the client.
+     * @param route    The route, or null for the requests of the client to all routes.
+     * @param requests The estimated amount of requests.
+     * @param flagged  Whether the estimate exceeds its threshold.
+     */
+    public record Hitter( String client, String route, long requests, boolean flagged ) {}
+
+    public static final int DEFAULT_WIDTH = 8192;
+    public static final int DEFAULT_DEPTH = 4;
+    public static final int DEFAULT_TOP_K = 32;
+
+    private static final long ROUTE_SALT = 0x632BE59BD9B4E019L;
+
+    private final int threshold;
+    private final int routeThreshold;
+    private final int windowMs;
+    private final long window;
+    private final int width;
+    private final int depth;
+    private final LongSupplier clock;
+
+    /**
+     * The seed of the hashes of text keys, so that clients cannot choose keys that share counters with other clients.
+     */
+    private final long seed = ThreadLocalRandom.current().nextLong();
+
+    private final TopK clients;
+    private final TopK routes;
+    private volatile Window current;
+
+    private IRateLimitKey key = IRateLimitKey.ip();
+    private Action action = Action.THROTTLE;
+
+    /**
+     * Creates a new HeavyHitters middleware, which throttles clients that make more requests than the threshold
+     * in a window, both to all routes together and to a single route.
+     *
+     * @param threshold The amount of requests in a window above which a client is a heavy hitter.
+     * @param windowMs  The window in milliseconds.
+     */
+    public HeavyHitters( int threshold, int windowMs )
+    {
+        this( threshold, threshold, windowMs, DEFAULT_WIDTH, DEFAULT_DEPTH, DEFAULT_TOP_K, System::nanoTime );
+    }
+
+    /**
+     * Creates a new HeavyHitters middleware.
+     *
+     * @param threshold      The amount of requests in a window above which a client is a heavy hitter.
+     * @param routeThreshold The amount of requests to a single route in a window above which a client is a heavy hitter.
+     * @param windowMs       The window in milliseconds.
+     * @param width          The amount of counters per row of the sketch, which is rounded up to a power of two.
+     * @param depth          The amount of rows of the sketch.
+     * @param topK           The amount of clients and client routes that are kept as the top hitters.
+     * @param clock          The clock that returns the current time in nanoseconds, such as {@link System#nanoTime()}.
+     */
+    public HeavyHitters( int threshold, int routeThreshold, int windowMs, int width, int depth, int topK, LongSupplier clock )
+    {
+        if ( threshold < 1 || routeThreshold < 1 || windowMs < 1 || width < 1 || depth < 1 || topK < 1 )
+            throw new IllegalArgumentException( "The thresholds, window, width, depth and amount of top hitters must be positive" );
+
+        this.threshold = threshold;
+        this.routeThreshold = routeThreshold;
+        this.windowMs = windowMs;
+        this.window = TimeUnit.MILLISECONDS.toNanos( windowMs );
+        this.width = Integer.highestOneBit( width ) == width ? width : Integer.highestOneBit( width ) << 1;
+        this.depth = depth;
+        this.clock = clock;
+        this.clients = new TopK( topK );
+        this.routes = new TopK( topK );
+        this.current = new Window( clock.getAsLong(),
+                                   new AtomicIntegerArray( this.depth * this.width ),
+                                   new AtomicIntegerArray( this.depth * this.width ) );
+    }
+
+    /**
+     * Selects the key clients are identified by. This must be called before the middleware is used.
+     *
+     * @param key The extractor of the key, for example {@link IRateLimitKey#forwardedFor(int)}.
+     * @return The middleware.
+     */
+    public HeavyHitters keyBy( IRateLimitKey key )
+    {
+        this.key = key;
+        return this;
+    }
+
+    /**
+     * Selects what happens to the requests of heavy hitters, which are throttled by default.
+     * This must be called before the middleware is used.
+     *
+     * @param action The action.
+     * @return The middleware.
+     */
+    public HeavyHitters action( Action action )
+    {
+        this.action = action;
+        return this;
+    }
+
+    @Override
+    public boolean handleRequest( Request request, Response response )
+    {
+        Object client = this.key.extract( request );
+        if ( client == null )
+        {
+            client = request.clientSocket.getInetAddress();
+            if ( client == null )
+                return true;
+        }
+        String route = request.route() != null ? request.route() : request.uri.getPath();
+
+        long now = this.clock.getAsLong();
+        Window window = this.window( now );
+        long clientHash = this.hash( client );
+        long routeHash = routeHash( clientHash, route );
+
+        long clientRequests = this.record( window, clientHash, now );
+        long routeRequests = this.record( window, routeHash, now );
+        this.clients.offer( client, null, clientHash, clientRequests );
+        this.routes.offer( client, route, routeHash, routeRequests );
+
+        if ( this.action == Action.REPORT || ( clientRequests <= this.threshold && routeRequests <= this.routeThreshold ) )
+            return true;
+
+        if ( this.action == Action.BLOCK )
+        {
+            response.status( StatusCode.FORBIDDEN );
+        }
+        else
+        {
+            long retryAfter = ( window.start + this.window - now + 999_999_999 ) / 1_000_000_000;
+            response.status( StatusCode.TOO_MANY_REQUESTS )
+                    .header( "Retry-After", Long.toString( Math.max( 1, retryAfter ) ) );
+        }
+        return false;
+    }
+
+    /**
+     * Estimates the amount of requests a client made in the last window.
+     *
+     * @param client The key of the client.
+     * @return The estimated amount of requests, which is never less than the actual amount.
+     */
+    public long estimate( Object client )
+    {
+        long now = this.clock.getAsLong();
+        return this.estimate( this.window( now ), this.hash( client ), now );
+    }
+
+    /**
+     * Estimates the amount of requests a client made to a route in the last window.
+     *
+     * @param client The key of the client.
+     * @param route  The pattern of the route, for example "/users/:id".
+     * @return The estimated amount of requests, which is never less than the actual amount.
+     */
+    public long estimate( Object client, String route )
+    {
+        long now = this.clock.getAsLong();
+        return this.estimate( this.window( now ), routeHash( this.hash( client ), route ), now );
+    }
+
+    /**
+     * Returns the clients and client routes with the most requests in the last window, from most to least requests.
+     * Client routes are returned after the clients.
+     */
+    public List<Hitter> topK()
+    {
+        long now = this.clock.getAsLong();
+        Window window = this.window( now );
+        List<Hitter> hitters = this.clients.snapshot( window, now, this.threshold );
+        hitters.addAll( this.routes.snapshot( window, now, this.routeThreshold ) );
+        return hitters;
+    }
+
+    /**
+     * Returns a handler that responds with the top hitters as JSON, to be registered as an administrative route.
+     * The handler reveals the keys of clients, such as their addresses or tokens, so it should only be accessible
+     * to administrators.
+     */
+    public IRequestHandler handler()
+    {
+        return ( request, response ) ->
+        {
+            JsonArray clients = new JsonArray();
+            JsonArray routes = new JsonArray();
+            for ( Hitter hitter : this.topK() )
+            {
+                JsonObject entry = new JsonObject();
+                entry.addProperty( "client", hitter.client() );
+                if ( hitter.route() != null )
+                    entry.addProperty( "route", hitter.route() );
+                entry.addProperty( "requests", hitter.requests() );
+                entry.addProperty( "flagged", hitter.flagged() );
+                ( hitter.route() == null ? clients : routes ).add( entry );
+            }
+
+            JsonObject body = new JsonObject();
+            body.addProperty( "windowMs", this.windowMs );
+            body.addProperty( "threshold", this.threshold );
+            body.addProperty( "routeThreshold", this.routeThreshold );
+            body.addProperty( "action", this.action.name() );
+            body.add( "clients", clients );
+            body.add( "routes", routes );
+            response.json( body );
+        };
+    }
+
+    /**
+     * Returns the amount of bytes the counters of the sketch take, which is constant.
+     */
+    public long memoryUsage()
+    {
+        return 2L * this.depth * this.width * Integer.BYTES;
+    }
+
+    /**
+     * Returns the window of the time, after moving the windows forward if the current window has passed.
+     * The counters of the window before the previous window are cleared and reused for the new window.
+     */
+    private Window window( long now )
+    {
+        Window window = this.current;
+        if ( now - window.start < this.window )
+            return window;
+
+        synchronized ( this )
+        {
+            window = this.current;
+            long passed = ( now - window.start ) / this.window;
+            if ( passed < 1 )
+                return window;
+
+            AtomicIntegerArray next = window.previous;
+            clear( next );
+            // If more than one window passed, the current window is too old to be the previous window.
+            if ( passed > 1 )
+                clear( window.current );
+
+            Window moved = new Window( window.start + passed * this.window, next, window.current );
+            this.current = moved;
+            this.clients.refresh( moved, now );
+            this.routes.refresh( moved, now );
+            return moved;
+        }
+    }
+
+    /**
+     * Counts a request of a key, and returns the estimated amount of requests of the key in the last window.
+     */
+    private long record( Window window, long hash, long now )
+    {
+        long current = Long.MAX_VALUE;
+        long previous = Long.MAX_VALUE;
+        for ( int row = 0; row < this.depth; row++ )
+        {
+            int index = this.index( hash, row );
+            current = Math.min( current, window.current.incrementAndGet( index ) );
+            previous = Math.min( previous, window.previous.get( index ) );
+        }
+        return current + this.weigh( window, previous, now );
+    }
+
+    /**
+     * Returns the estimated amount of requests of a key in the last window.
+     */
+    private long estimate( Window window, long hash, long now )
+    {
+        long current = Long.MAX_VALUE;
+        long previous = Long.MAX_VALUE;
+        for ( int row = 0; row < this.depth; row++ )
+        {
+            int index = this.index( hash, row );
+            current = Math.min( current, window.current.get( index ) );
+            previous = Math.min( previous, window.previous.get( index ) );
+        }
+        return current + this.weigh( window, previous, now );
+    }
+
+    /**
+     * Returns the part of the requests of the previous window that falls within the last window.
+     */
+    private long weigh( Window window, long previous, long now )
+    {
+        long remaining = Math.max( 0, window.start + this.window - now );
+        return ( long ) ( previous * ( ( double ) remaining / this.window ) );
+    }
+
+    /**
+     * Returns the index of the counter of a key in a row of the sketch.
+     */
+    private int index( long hash, int row )
+    {
+        return row * this.width + ( int ) ( mix( hash + row * 0x9E3779B97F4A7C15L ) >>> 32 & ( this.width - 1 ) );
+    }
+
+    /**
+     * Hashes a key. Text keys, such as tokens, are hashed with the seed of the middleware,
+     * other keys, such as addresses, by their hash code.
+     */
+    private long hash( Object key )
+    {
+        long hash = this.seed;
+        if ( key instanceof CharSequence text )
+        {
+            for ( int i = 0; i < text.length(); i++ )
+                hash = ( hash ^ text.charAt( i ) ) * 0x100000001B3L;
+        }
+        else
+        {
+            hash ^= key.hashCode();
+        }
+        return mix( hash );
+    }
+
+    private static long routeHash( long clientHash, String route )
+    {
+        return mix( clientHash ^ route.hashCode() * ROUTE_SALT );
+    }
+
+    /**
+     * The finalizer of MurmurHash3, which spreads every bit of the input over the output.
+     */
+    private static long mix( long hash )
+    {
+        hash = ( hash ^ ( hash >>> 33 ) ) * 0xFF51AFD7ED558CCDL;
+        hash = ( hash ^ ( hash >>> 33 ) ) * 0xC4CEB9FE1A85EC53L;
+        return hash ^ ( hash >>> 33 );
+    }
+
+    private static void clear( AtomicIntegerArray counters )
+    {
+        for ( int i = 0; i < counters.length(); i++ )
+            counters.set( i, 0 );
+    }
+
+    private static String describe( Object client )
+    {
+        return client instanceof InetAddress address ? address.getHostAddress() : String.valueOf( client );
+    }
+
+    /**
+     * The counters of the current and the previous window.
+     */
+    private record Window( long start, AtomicIntegerArray current, AtomicIntegerArray previous ) {}
+
+    /**
+     * A hitter that is kept in the top hitters.
+     */
+    private static final class Entry
+    {
+        private final Object client;
+        private final String route;
+        private final long hash;
+        private volatile long requests;
+
+        private Entry( Object client, String route, long hash, long requests )
+        {
+            this.client = client;
+            this.route = route;
+            this.hash = hash;
+            this.requests = requests;
+        }
+    }
+
+    /**
+     * The keys with the highest estimates. Keys that are already kept are found and updated without locking;
+     * only keys of which the estimate exceeds the lowest kept estimate take the lock to replace that entry.
+     */
+    private final class TopK
+    {
+        private final AtomicReferenceArray<Entry> entries;
+
+        /**
+         * The estimate a key needs to exceed to be kept, which is zero while there is room.
+         */
+        private volatile long floor;
+
+        private TopK( int size )
+        {
+            this.entries = new AtomicReferenceArray<>( size );
+        }
+
+        private void offer( Object client, String route, long hash, long requests )
+        {
+            if ( requests <= this.floor )
+                return;
+
+            for ( int i = 0; i < this.entries.length(); i++ )
+            {
+                Entry entry = this.entries.get( i );
+                if ( entry != null && entry.hash == hash && entry.client.equals( client ) && Objects.equals( entry.route, route ) )
+                {
+                    if ( requests > entry.requests )
+                        entry.requests = requests;
+                    return;
+                }
+            }
+
+            synchronized ( this )
+            {
+                int lowest = - 1;
+                for ( int i = 0; i < this.entries.length(); i++ )
+                {
+                    Entry entry = this.entries.get( i );
+                    if ( entry == null )
+                    {
+                        lowest = i;
+                        break;
+                    }
+                    // Another thread may have added the key in the meantime.
+                    if ( entry.hash == hash && entry.client.equals( client ) && Objects.equals( entry.route, route ) )
+                        return;
+                    if ( lowest < 0 || entry.requests < this.entries.get( lowest ).requests )
+                        lowest = i;
+                }
+
+                Entry replaced = this.entries.get( lowest );
+                if ( replaced == null || replaced.requests < requests )
+                    this.entries.set( lowest, new Entry( client, route, hash, requests ) );
+                // The kept estimates grow without the lock, so the floor is raised even if nothing was replaced.
+                this.updateFloor();
+            }
+        }
+
+        /**
+         * Updates the estimates of the kept keys for a new window, and removes the keys without requests.
+         */
+        private synchronized void refresh( Window window, long now )
+        {
+            for ( int i = 0; i < this.entries.length(); i++ )
+            {
+                Entry entry = this.entries.get( i );
+                if ( entry == null )
+                    continue;
+
+                entry.requests = estimate( window, entry.hash, now );
+                if ( entry.requests == 0 )
+                    this.entries.set( i, null );
+            }
+            this.updateFloor();
+        }
+
+        private synchronized List<Hitter> snapshot( Window window, long now, int threshold )
+        {
+            List<Hitter> hitters = new ArrayList<>( this.entries.length() );
+            for ( int i = 0; i < this.entries.length(); i++ )
+            {
+                Entry entry = this.entries.get( i );
+                if ( entry == null )
+                    continue;
+
+                long requests = estimate( window, entry.hash, now );
+                if ( requests > 0 )
+                    hitters.add( new Hitter( describe( entry.client ), entry.route, requests, requests > threshold ) );
+            }
+            hitters.sort( Comparator.comparingLong( Hitter::requests ).reversed() );
+            return hitters;
+        }
+
+        private void updateFloor()
+        {
+            long floor = Long.MAX_VALUE;
+            for ( int i = 0; i < this.entries.length(); i++ )
+            {
+                Entry entry = this.entries.get( i );
+                if ( entry == null )
+                {
+                    floor = 0;
+                    break;
+                }
+                floor = Math.min( floor, entry.requests );
+            }
+            this.floor = floor;
+        }
+    }
+}
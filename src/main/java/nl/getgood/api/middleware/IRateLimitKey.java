@@ -0,0 +1,125 @@
+package nl.getgood.api.middleware;
+
+import nl.getgood.api.http.Request;
+
+import java.util.Locale;
+
+/**
+ * Extracts the key a {@link RateLimiter} limits a request by, such as the address of the client
+ * or the API token it sends. Requests with equal keys share their limit.
+ * <br /> <br />
+ * The keys of the built-in extractors are taken from the request as they are, so extracting them does not allocate,
+ * except when an address has to be cut from a list of forwarded addresses.
+ * <br /> <br />
+ * Created by agent.
+ */
+@FunctionalInterface
+public interface IRateLimitKey
+{
+
+    /**
+     * Extracts the key of a request.
+     *
+     * @param request The request to extract the key from.
+     * @return The key, or null if the request has none, in which case the request is limited by the address of the client.
+     */
+    Object extract( Request request );
+
+    /**
+     * Returns whether clients choose their own keys, such as the values of headers and cookies,
+     * rather than being identified by their address. A client that chooses its keys could fill a limiter with new keys,
+     * so once the stripe of a key is full, the request is limited by the address of the client instead.
+     * This is true for all extractors, except for those of {@link #ip()} and {@link #forwardedFor(int)}.
+     */
+    default boolean isChosenByClient()
+    {
+        return true;
+    }
+
+    /**
+     * Returns an extractor that keys requests by the address of the client.
+     */
+    static IRateLimitKey ip()
+    {
+        return address( request -> request.clientSocket.getInetAddress() );
+    }
+
+    /**
+     * Returns an extractor that keys requests by the value of a header, such as "Authorization" or "X-Api-Key".
+     *
+     * @param name The name of the header, which is matched case-insensitively.
+     * @return The extractor.
+     */
+    static IRateLimitKey header( String name )
+    {
+        String header = name.toLowerCase( Locale.ROOT );
+        return request -> request.headers.get( header );
+    }
+
+    /**
+     * Returns an extractor that keys requests by the value of a cookie, such as a session cookie.
+     *
+     * @param name The name of the cookie.
+     * @return The extractor.
+     */
+    static IRateLimitKey cookie( String name )
+    {
+        return request -> request.cookies.get( name );
+    }
+
+    /**
+     * Returns an extractor that keys requests by the client address in the `X-Forwarded-For` header,
+     * for servers that are behind proxies. Every proxy appends the address it received the request from,
+     * so the addresses at the start of the header are sent by the client and cannot be trusted.
+     * The extractor takes the address that was appended by the outermost trusted proxy.
+     *
+     * @param trustedProxies The amount of proxies in front of the server, at least 1.
+     * @return The extractor.
+     */
+    static IRateLimitKey forwardedFor( int trustedProxies )
+    {
+        if ( trustedProxies < 1 )
+            throw new IllegalArgumentException( "The amount of trusted proxies must be positive" );
+
+        return address( request ->
+        {
+            String forwarded = request.headers.get( "x-forwarded-for" );
+            if ( forwarded == null )
+                return null;
+
+            int end = forwarded.length();
+            for ( int i = 1; i < trustedProxies; i++ )
+            {
+                end = forwarded.lastIndexOf( ',', end - 1 );
+                if ( end < 0 )
+                    return null;
+            }
+            int start = forwarded.lastIndexOf( ',', end - 1 ) + 1;
+
+            String address = start == 0 && end == forwarded.length() ? forwarded : forwarded.substring( start, end );
+            address = address.strip();
+            return address.isEmpty() ? null : address;
+        } );
+    }
+
+    /**
+     * Marks an extractor of client addresses, which clients cannot choose.
+     */
+    private static IRateLimitKey address( IRateLimitKey extractor )
+    {
+        return new IRateLimitKey()
+        {
+            @Override
+            public Object extract( Request request )
+            {
+                return extractor.extract( request );
+            }
+
+            @Override
+            public boolean isChosenByClient()
+            {
+                return false;
+            }
+        };
+    }
+}
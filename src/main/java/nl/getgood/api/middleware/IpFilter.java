@@ -0,0 +1,281 @@
+package nl.getgood.api.middleware;
+
+import nl.getgood.api.Logger;
+import nl.getgood.api.http.Request;
+import nl.getgood.api.http.Response;
+import nl.getgood.api.http.StatusCode;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A middleware that allows or denies clients by their address, using lists of IPv4 and IPv6 prefixes in CIDR notation.
+ * <br /> <br />
+ * The prefixes are kept in a binary trie, so checking an address takes at most 32 steps for IPv4 and 128 for IPv6,
+ * no matter how many prefixes there are. Of the prefixes that contain an address, the longest one decides, so
+ * `deny 203.0.113.0/24` and `allow 203.0.113.7` together deny the network except for a single address.
+ * Addresses without a prefix are allowed by a deny list and denied by an allow list.
+ * <br /> <br />
+ * As middleware it answers denied requests with `403 Forbidden`, and it can be scoped to routes, such as administrative
+ * routes. Filters that apply to the whole server can be added with `server.filter( filter )` instead, which closes
+ * denied connections as soon as they are accepted, before anything is read from them.
+ * <br /> <br />
+ * Prefixes can be loaded from a file, which is read again with {@link #reload()}, or whenever it changes with
+ * {@link #watch(long)}. The new prefixes replace the old ones at once, and a file that fails to load leaves them in place.
+ * <br /> <br />
+ * Created by agent.
+ */
+public class IpFilter implements Middleware
+{
+
+    private static final Logger logger = Logger.getLogger();
+
+    /**
+     * The executor that checks the files of all filters for changes.
+     */
+    private static final ScheduledThreadPoolExecutor WATCHER = new ScheduledThreadPoolExecutor( 1, runnable ->
+    {
+        Thread thread = new Thread( runnable, "ip-filter-watcher" );
+        thread.setDaemon( true );
+        return thread;
+    } );
+
+    static
+    {
+        WATCHER.setRemoveOnCancelPolicy( true );
+    }
+
+    private final boolean allowList;
+    private final List<CidrTrie.Prefix> prefixes = new ArrayList<>();
+    private List<CidrTrie.Prefix> filePrefixes = List.of();
+    private volatile CidrTrie trie = CidrTrie.EMPTY;
+
+    private Path file;
+    private long fileModified;
+    private ScheduledFuture<?> watch;
+
+    private IpFilter( boolean allowList )
+    {
+        this.allowList = allowList;
+    }
+
+    /**
+     * Creates a filter that allows all addresses, except those in the denied prefixes.
+     */
+    public static IpFilter denyList()
+    {
+        return new IpFilter( false );
+    }
+
+    /**
+     * Creates a filter that denies all addresses, except those in the allowed prefixes.
+     */
+    public static IpFilter allowList()
+    {
+        return new IpFilter( true );
+    }
+
+    /**
+     * Allows the addresses in prefixes.
+     *
+     * @param cidrs The prefixes, for example "10.0.0.0/8" or "fd00::/8".
+     * @return The filter.
+     * @throws IllegalArgumentException If a prefix is malformed.
+     */
+    public synchronized IpFilter allow( String... cidrs )
+    {
+        for ( String cidr : cidrs )
+            this.prefixes.add( CidrTrie.parse( cidr, CidrTrie.ALLOW ) );
+        this.rebuild();
+        return this;
+    }
+
+    /**
+     * Denies the addresses in prefixes.
+     *
+     * @param cidrs The prefixes, for example "203.0.113.0/24" or "2001:db8::/32".
+     * @return The filter.
+     * @throws IllegalArgumentException If a prefix is malformed.
+     */
+    public synchronized IpFilter deny( String... cidrs )
+    {
+        for ( String cidr : cidrs )
+            this.prefixes.add( CidrTrie.parse( cidr, CidrTrie.DENY ) );
+        this.rebuild();
+        return this;
+    }
+
+    /**
+     * Loads prefixes from a file, in addition to the prefixes that were added directly.
+     * Every line holds a prefix, optionally preceded by "allow" or "deny". Prefixes without either are denied
+     * by a deny list, and allowed by an allow list. Empty lines and text after a '#' are ignored.
+     *
+     * @param file The file to load.
+     * @return The filter.
+     * @throws IOException              If the file cannot be read.
+     * @throws IllegalArgumentException If a line is malformed.
+     */
+    public synchronized IpFilter load( Path file ) throws IOException
+    {
+        long modified = Files.getLastModifiedTime( file ).toMillis();
+        this.filePrefixes = this.parse( file );
+        this.file = file;
+        this.fileModified = modified;
+        this.rebuild();
+        return this;
+    }
+
+    /**
+     * Loads the file of the filter again.
+     * If it fails to load, the prefixes that were loaded before remain in use.
+     *
+     * @return Whether the file was loaded.
+     */
+    public synchronized boolean reload()
+    {
+        if ( this.file == null )
+            throw new IllegalStateException( "No file was loaded" );
+
+        try
+        {
+            this.load( this.file );
+            logger.info( "Reloaded %d prefixes of IP filter from %s", this.filePrefixes.size(), this.file );
+            return true;
+        }
+        catch ( IOException | IllegalArgumentException e )
+        {
+            logger.error( "Failed to reload IP filter from %s: %s", this.file, e.getMessage() );
+            return false;
+        }
+    }
+
+    /**
+     * Reloads the file of the filter whenever it is modified.
+     *
+     * @param intervalMs The interval in milliseconds at which the file is checked for modifications.
+     * @return The filter.
+     */
+    public synchronized IpFilter watch( long intervalMs )
+    {
+        if ( this.file == null )
+            throw new IllegalStateException( "No file was loaded" );
+
+        if ( this.watch != null )
+            this.watch.cancel( false );
+        this.watch = WATCHER.scheduleWithFixedDelay( this::reloadIfModified, intervalMs, intervalMs, TimeUnit.MILLISECONDS );
+        return this;
+    }
+
+    /**
+     * Stops watching the file of the filter.
+     * This is called when the server the filter was added to stops listening.
+     */
+    @Override
+    public synchronized void close()
+    {
+        if ( this.watch != null )
+            this.watch.cancel( false );
+        this.watch = null;
+    }
+
+    /**
+     * Returns whether an address is allowed.
+     *
+     * @param address The address.
+     * @return Whether the address is allowed.
+     */
+    public boolean isAllowed( InetAddress address )
+    {
+        byte rule = this.trie.lookup( address );
+        return rule == CidrTrie.NONE ? ! this.allowList : rule == CidrTrie.ALLOW;
+    }
+
+    /**
+     * Returns the amount of prefixes in use.
+     */
+    public int size()
+    {
+        return this.trie.size();
+    }
+
+    @Override
+    public boolean handleRequest( Request request, Response response )
+    {
+        InetAddress address = request.clientSocket.getInetAddress();
+        if ( address == null || ! this.isAllowed( address ) )
+        {
+            response.status( StatusCode.FORBIDDEN );
+            return false;
+        }
+        return true;
+    }
+
+    private synchronized void reloadIfModified()
+    {
+        try
+        {
+            long modified = Files.getLastModifiedTime( this.file ).toMillis();
+            if ( modified != this.fileModified )
+            {
+                // A file that fails to load is not loaded again until it is modified again.
+                this.fileModified = modified;
+                this.reload();
+            }
+        }
+        catch ( IOException e )
+        {
+            logger.error( "Failed to check IP filter file %s: %s", this.file, e.getMessage() );
+        }
+    }
+
+    private List<CidrTrie.Prefix> parse( Path file ) throws IOException
+    {
+        List<CidrTrie.Prefix> prefixes = new ArrayList<>();
+        byte defaultRule = this.allowList ? CidrTrie.ALLOW : CidrTrie.DENY;
+        int lineNumber = 0;
+        for ( String line : Files.readAllLines( file ) )
+        {
+            lineNumber++;
+            int comment = line.indexOf( '#' );
+            String[] parts = ( comment < 0 ? line : line.substring( 0, comment ) ).trim().split( "\\s+" );
+            if ( parts[ 0 ].isEmpty() )
+                continue;
+
+            try
+            {
+                if ( parts.length == 1 )
+                    prefixes.add( CidrTrie.parse( parts[ 0 ], defaultRule ) );
+                else if ( parts.length == 2 && parts[ 0 ].equalsIgnoreCase( "allow" ) )
+                    prefixes.add( CidrTrie.parse( parts[ 1 ], CidrTrie.ALLOW ) );
+                else if ( parts.length == 2 && parts[ 0 ].equalsIgnoreCase( "deny" ) )
+                    prefixes.add( CidrTrie.parse( parts[ 1 ], CidrTrie.DENY ) );
+                else
+                    throw new IllegalArgumentException( "Expected a prefix, optionally preceded by allow or deny" );
+            }
+            catch ( IllegalArgumentException e )
+            {
+                throw new IllegalArgumentException( file + ":" + lineNumber + ": " + e.getMessage(), e );
+            }
+        }
+        return prefixes;
+    }
+
+    /**
+     * Builds a new trie of the prefixes of the file and the prefixes that were added directly, which take precedence,
+     * and replaces the trie in use.
+     */
+    private void rebuild()
+    {
+        List<CidrTrie.Prefix> all = new ArrayList<>( this.filePrefixes.size() + this.prefixes.size() );
+        all.addAll( this.filePrefixes );
+        all.addAll( this.prefixes );
+        this.trie = CidrTrie.build( all );
+    }
+}
@@ -6,7 +6,8 @@ import nl.getgood.api.http.Response;
 /**
  * Middleware interface
  * This interface is used to create middleware for the server,
- * which can be used to handle requests before they are passed to the API.
+ * which can be used to handle requests before they are passed to the API,
+ * and to amend responses after the API has handled them.
  * <br /> <br />
  * Created on 04/08/2024 at 18:38
  * by Luca Warmenhoven.
@@ -25,4 +26,30 @@ public interface Middleware
      * false if the request should be stopped.
      */
     boolean handleRequest(Request request, Response response);
+
+    /**
+     * Handles a response after the API route has handled the request, right before it is sent.
+     * This is called for every middleware of which {@link #handleRequest(Request, Response)} returned true,
+     * in the reverse order, also if a later middleware stopped the request or the route failed.
+     * It allows middleware to record metrics or add headers to the response.
+     * Responses for static files and websocket upgrades are sent without calling this method.
+     *
+     * @param request  The request that was received by the server.
+     * @param response The response that will be sent to the client.
+     */
+    default void afterRequest(Request request, Response response) {}
+
+    /**
+     * Starts the middleware.
+     * This method is called when the server that the middleware was added to starts listening,
+     * before any request is handled. Middleware can start background tasks here.
+     */
+    default void start() {}
+
+    /**
+     * Stops the middleware.
+     * This method is called when the server that the middleware was added to stops listening.
+     * Middleware must stop its background tasks here.
+     */
+    default void close() {}
 }
@@ -0,0 +1,97 @@
+package nl.getgood.api.middleware;
+
+import nl.getgood.api.http.RequestMethod;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.BiPredicate;
+
+/**
+ * Determines which API routes a middleware applies to.
+ * Scopes are evaluated once per route and request method when the routes are compiled,
+ * so a request only runs the middleware that applies to its route, without testing any scope.
+ * <br /> <br />
+ * Created by agent.
+ */
+public final class MiddlewareScope
+{
+
+    /**
+     * The scope that applies to all API routes.
+     */
+    public static final MiddlewareScope ALL = new MiddlewareScope( ( pattern, method ) -> true );
+
+    private final BiPredicate<String, RequestMethod> predicate;
+
+    private MiddlewareScope( BiPredicate<String, RequestMethod> predicate )
+    {
+        this.predicate = predicate;
+    }
+
+    /**
+     * Creates a scope that applies to the routes below a path prefix.
+     * The prefix is matched by segment, so the prefix "/v1/admin" applies to "/v1/admin" and "/v1/admin/users",
+     * but not to "/v1/administrators".
+     *
+     * @param prefix The path prefix, for example "/v1/admin".
+     * @return The scope.
+     */
+    public static MiddlewareScope prefix( String prefix )
+    {
+        String normalized = prefix.endsWith( "/" ) ? prefix.substring( 0, prefix.length() - 1 ) : prefix;
+        if ( normalized.isEmpty() )
+            return ALL;
+
+        return new MiddlewareScope( ( pattern, method ) -> pattern.startsWith( normalized )
+                && ( pattern.length() == normalized.length() || pattern.charAt( normalized.length() ) == '/' ) );
+    }
+
+    /**
+     * Creates a scope that applies to a single route.
+     *
+     * @param route The route as it was registered, for example "/users/:id".
+     * @return The scope.
+     */
+    public static MiddlewareScope route( String route )
+    {
+        return new MiddlewareScope( ( pattern, method ) -> pattern.equals( route ) );
+    }
+
+    /**
+     * Creates a scope that applies to the routes of request methods.
+     * HEAD requests that are answered by the GET handler of a route count as GET requests.
+     *
+     * @param methods The request methods.
+     * @return The scope.
+     */
+    public static MiddlewareScope method( RequestMethod... methods )
+    {
+        Set<RequestMethod> set = EnumSet.noneOf( RequestMethod.class );
+        set.addAll( Arrays.asList( methods ) );
+        return new MiddlewareScope( ( pattern, method ) -> set.contains( method ) );
+    }
+
+    /**
+     * Creates a scope that applies to the routes both this scope and the other scope apply to.
+     *
+     * @param other The other scope.
+     * @return The combined scope.
+     */
+    public MiddlewareScope and( MiddlewareScope other )
+    {
+        return new MiddlewareScope( this.predicate.and( other.predicate ) );
+    }
+
+    /**
+     * Returns whether the scope applies to a route.
+     *
+     * @param pattern The route as it was registered, for example "/users/:id".
+     * @param method  The request method of the route.
+     * @return Whether the scope applies.
+     */
+    public boolean appliesTo( String pattern, RequestMethod method )
+    {
+        return this.predicate.test( pattern, method );
+    }
+}
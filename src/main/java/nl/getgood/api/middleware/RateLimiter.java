@@ -6,20 +6,102 @@ import nl.getgood.api.http.Response;
 import nl.getgood.api.http.StatusCode;
 
 import java.net.InetAddress;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
 /**
+ * A middleware that limits the amount of requests a client can make in a time frame.
+ * <br /> <br />
+ * The limiter implements the generic cell rate algorithm (GCRA), which behaves like a token bucket that holds
+ * `maxRequests` tokens and refills one token every `timeFrameMs / maxRequests` milliseconds. Rather than
+ * a token count and a timestamp, it keeps a single value per client: the theoretical arrival time of the next
+ * request. A request is allowed if that time is less than a time frame ahead, which is updated with a single
+ * compare-and-set, so the limiter never locks.
+ * <br /> <br />
+ * The clients are spread over stripes, each bounded to its share of the maximum amount of entries.
+ * A client whose theoretical arrival time has passed is indistinguishable from a client that was never seen,
+ * so such idle entries are evicted without affecting the limits. While the server the limiter was added to is
+ * listening, they are evicted in the background; otherwise, they are evicted once a stripe is full.
+ * If a stripe is full of active clients, new clients are limited until entries become idle. Clients can make up
+ * keys such as header and cookie values, and could fill the limiter with them to lock out every new client,
+ * so requests with such keys are limited by the address of the client instead while their stripe is full,
+ * in a separate table of the same size. See {@link IRateLimitKey#isChosenByClient()}.
+ * <br /> <br />
+ * Requests are limited by the address of the client, unless another key is selected with {@link #keyBy(IRateLimitKey)}.
+ * Limiters for different routes are added as scoped middleware, for example
+ * `server.use( "/v1/authenticate", new RateLimiter( 5, 60_000 ).keyBy( IRateLimitKey.forwardedFor( 1 ) ) )`.
+ * Responses carry the `RateLimit-Limit`, `RateLimit-Remaining` and `RateLimit-Reset` headers of the most restrictive
+ * limiter, and limited requests carry a `Retry-After` header. The values of these headers are cached,
+ * so admitting a request does not allocate.
+ * <br /> <br />
  * Created on 04/08/2024 at 18:41
  * by Luca Warmenhoven.
  */
 public class RateLimiter implements Middleware
 {
+
+    /**
+     * The default maximum amount of clients that are tracked.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 100_000;
+
+    private static final int STRIPE_BITS = 4;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+
+    /**
+     * The state of an entry that was evicted. Threads that find this state look the entry up again.
+     */
+    private static final long EVICTED = - 1;
+
+    /**
+     * The result of an attempt to admit a request of a new client to a full stripe.
+     */
+    private static final long FULL = Long.MIN_VALUE;
+
+    /**
+     * The largest number of which the text is cached for the headers.
+     */
+    private static final int MAX_CACHED_NUMBER = 4096;
+
+    /**
+     * The executor that evicts the idle entries of all rate limiters.
+     */
+    private static final ScheduledThreadPoolExecutor EVICTOR = new ScheduledThreadPoolExecutor( 1, runnable ->
+    {
+        Thread thread = new Thread( runnable, "rate-limiter-evictor" );
+        thread.setDaemon( true );
+        return thread;
+    } );
+
+    static
+    {
+        EVICTOR.setRemoveOnCancelPolicy( true );
+    }
+
     private final int maxRequests;
     private final int timeFrameMs;
     private final boolean skipGetRequests;
 
-    private final Map<InetAddress, RateLimitEntry> rateLimitMap = new HashMap<>();
+    private final long emissionInterval;
+    private final long timeFrame;
+    private final int maxEntriesPerStripe;
+    private final LongSupplier clock;
+    private final long origin;
+
+    private final List<ConcurrentHashMap<Object, AtomicLong>> stripes;
+    // The clients whose requests are limited by their address, since the stripe of their key was full.
+    private final List<ConcurrentHashMap<Object, AtomicLong>> addressStripes;
+    private ScheduledFuture<?> eviction = null;
+
+    private final String[] numbers;
+    private IRateLimitKey key = IRateLimitKey.ip();
+    private boolean sendHeaders = true;
 
     /**
      * Creates a new RateLimiter middleware.
@@ -41,11 +123,77 @@ public class RateLimiter implements Middleware
      */
     public RateLimiter( int maxRequests, int timeFrameMs, boolean skipGetRequests )
     {
+        this( maxRequests, timeFrameMs, skipGetRequests, DEFAULT_MAX_ENTRIES );
+    }
+
+    /**
+     * Creates a new RateLimiter middleware.
+     * @param maxRequests The maximum amount of requests that can be made in the given time frame.
+     * @param timeFrameMs The time frame in milliseconds.
+     * @param skipGetRequests Whether to skip GET requests.
+     * @param maxEntries The maximum amount of clients that are tracked at the same time.
+     */
+    public RateLimiter( int maxRequests, int timeFrameMs, boolean skipGetRequests, int maxEntries )
+    {
+        this( maxRequests, timeFrameMs, skipGetRequests, maxEntries, System::nanoTime );
+    }
+
+    /**
+     * Creates a new RateLimiter middleware with a custom clock.
+     * @param maxRequests The maximum amount of requests that can be made in the given time frame.
+     * @param timeFrameMs The time frame in milliseconds.
+     * @param skipGetRequests Whether to skip GET requests.
+     * @param maxEntries The maximum amount of clients that are tracked at the same time.
+     * @param clock The clock that returns the current time in nanoseconds, such as {@link System#nanoTime()}.
+     */
+    public RateLimiter( int maxRequests, int timeFrameMs, boolean skipGetRequests, int maxEntries, LongSupplier clock )
+    {
+        if ( maxRequests < 1 || timeFrameMs < 1 || maxEntries < 1 )
+            throw new IllegalArgumentException( "The maximum amount of requests, time frame and maximum amount of entries must be positive" );
+
         this.maxRequests = maxRequests;
         this.timeFrameMs = timeFrameMs;
         this.skipGetRequests = skipGetRequests;
+        this.timeFrame = TimeUnit.MILLISECONDS.toNanos( timeFrameMs );
+        this.emissionInterval = this.timeFrame / maxRequests;
+        this.maxEntriesPerStripe = Math.max( 1, maxEntries / STRIPES );
+        this.clock = clock;
+        // Times are relative to the creation of the limiter, so they are never negative.
+        this.origin = clock.getAsLong() - 1;
+
+        this.stripes = createStripes();
+        this.addressStripes = createStripes();
+
+        int timeFrameSeconds = ( timeFrameMs + 999 ) / 1000;
+        this.numbers = new String[ Math.min( Math.max( maxRequests, timeFrameSeconds ), MAX_CACHED_NUMBER ) + 1 ];
+        for ( int i = 0; i < this.numbers.length; i++ )
+            this.numbers[ i ] = Integer.toString( i );
     }
 
+    /**
+     * Selects the key requests are limited by. This must be called before the limiter is used.
+     *
+     * @param key The extractor of the key, for example {@link IRateLimitKey#header(String)}.
+     * @return The rate limiter.
+     */
+    public RateLimiter keyBy( IRateLimitKey key )
+    {
+        this.key = key;
+        return this;
+    }
+
+    /**
+     * Sets whether responses carry the `RateLimit-*` and `Retry-After` headers, which they do by default.
+     * This must be called before the limiter is used.
+     *
+     * @param sendHeaders Whether to send the headers.
+     * @return The rate limiter.
+     */
+    public RateLimiter sendHeaders( boolean sendHeaders )
+    {
+        this.sendHeaders = sendHeaders;
+        return this;
+    }
 
     @Override
     public boolean handleRequest( Request request, Response response )
@@ -53,39 +201,232 @@ public class RateLimiter implements Middleware
         if ( skipGetRequests && request.requestMethod == RequestMethod.GET )
             return true;
 
-        InetAddress clientAddress = request.clientSocket.getInetAddress();
-        if ( clientAddress == null )
+        Object clientKey = this.key.extract( request );
+        if ( clientKey == null )
+        {
+            InetAddress clientAddress = request.clientSocket.getInetAddress();
+            if ( clientAddress == null )
+            {
+                // A client that cannot be identified cannot be limited, so it is refused like the IpFilter does.
+                response.status( StatusCode.FORBIDDEN );
+                return false;
+            }
+            clientKey = clientAddress;
+        }
+
+        long result = this.acquire( this.stripes, clientKey );
+        if ( result == FULL && this.key.isChosenByClient() && request.clientSocket.getInetAddress() != null )
+            result = this.acquire( this.addressStripes, request.clientSocket.getInetAddress() );
+        if ( result == FULL )
+            result = - this.emissionInterval;
+
+        if ( result < 0 )
+        {
+            response.status( StatusCode.TOO_MANY_REQUESTS );
+            if ( this.sendHeaders )
+            {
+                // The bucket is full once the requests in it are replenished, which is a time frame minus one request after the wait.
+                this.writeHeaders( response, 0, - result + this.timeFrame - this.emissionInterval, true );
+                response.header( "Retry-After", this.number( seconds( - result ) ) );
+            }
             return false;
+        }
 
-        if ( !rateLimitMap.containsKey( clientAddress )) {
-            rateLimitMap.put( clientAddress, new RateLimitEntry( clientAddress ) );
-        } else {
-            RateLimitEntry entry = rateLimitMap.get( clientAddress );
+        if ( this.sendHeaders )
+            this.writeHeaders( response, ( int ) ( ( this.timeFrame - result ) / this.emissionInterval ), result, false );
+        return true;
+    }
 
-            long currentTime = System.currentTimeMillis();
+    /**
+     * Attempts to admit a request of a client.
+     *
+     * @param key The key that identifies the client, such as its address.
+     * @return Whether the request is allowed.
+     */
+    public boolean tryAcquire( Object key )
+    {
+        return this.acquire( key ) >= 0;
+    }
 
-            if ( currentTime - entry.lastRequestTime > timeFrameMs ) {
-                entry.requestsSent = 0;
-                entry.lastRequestTime = currentTime;
+    /**
+     * Attempts to admit a request of a client, and returns how long the client is limited for.
+     * If the request is allowed, this is the time in nanoseconds until the client could make a full time frame of
+     * requests again, which is positive. Every request the client can still make shortens it by
+     * `timeFrameMs / maxRequests` milliseconds. If the request is not allowed, it is the negated time
+     * in nanoseconds until the client can make a request again.
+     *
+     * @param key The key that identifies the client, such as its address.
+     * @return A positive time if the request is allowed, or a negative time if it is not.
+     */
+    public long acquire( Object key )
+    {
+        long result = this.acquire( this.stripes, key );
+        return result == FULL ? - this.emissionInterval : result;
+    }
+
+    /**
+     * Attempts to admit a request of a client to a table of clients.
+     *
+     * @return The time as described by {@link #acquire(Object)}, or {@link #FULL} if the client is new and its stripe is full.
+     */
+    private long acquire( List<ConcurrentHashMap<Object, AtomicLong>> stripes, Object key )
+    {
+        ConcurrentHashMap<Object, AtomicLong> stripe = stripe( stripes, key );
+        while ( true )
+        {
+            long now = this.clock.getAsLong() - this.origin;
+            AtomicLong state = stripe.get( key );
+            if ( state == null )
+            {
+                if ( stripe.size() >= this.maxEntriesPerStripe && this.evictIdle( stripe, now ) == 0 )
+                    return FULL;
+                state = stripe.computeIfAbsent( key, k -> new AtomicLong() );
             }
-            entry.requestsSent++;
-            if ( entry.requestsSent > maxRequests ) {
-                response.status( StatusCode.TOO_MANY_REQUESTS);
-                return false;
+
+            long arrival = state.get();
+            if ( arrival == EVICTED )
+            {
+                stripe.remove( key, state );
+                continue;
             }
+
+            long next = Math.max( arrival, now ) + this.emissionInterval;
+            if ( next - now > this.timeFrame )
+                return - ( next - now - this.timeFrame );
+            if ( state.compareAndSet( arrival, next ) )
+                return next - now;
         }
-        return true;
     }
 
-    private static class RateLimitEntry
+    /**
+     * Returns the amount of clients that are tracked.
+     */
+    public int size()
+    {
+        int size = 0;
+        for ( ConcurrentHashMap<Object, AtomicLong> stripe : this.stripes )
+            size += stripe.size();
+        for ( ConcurrentHashMap<Object, AtomicLong> stripe : this.addressStripes )
+            size += stripe.size();
+        return size;
+    }
+
+    /**
+     * Removes the entries of clients that could make a full time frame of requests again.
+     */
+    public void evictIdle()
     {
-        public final InetAddress requestAddress;
-        public int requestsSent = 0;
-        public long lastRequestTime = System.currentTimeMillis();
+        long now = this.clock.getAsLong() - this.origin;
+        for ( ConcurrentHashMap<Object, AtomicLong> stripe : this.stripes )
+            this.evictIdle( stripe, now );
+        for ( ConcurrentHashMap<Object, AtomicLong> stripe : this.addressStripes )
+            this.evictIdle( stripe, now );
+    }
 
-        RateLimitEntry(InetAddress requestAddress)
+    /**
+     * Starts evicting idle entries in the background.
+     * This is called when the server the limiter was added to starts listening.
+     */
+    @Override
+    public synchronized void start()
+    {
+        if ( this.eviction != null )
+            return;
+
+        // An entry is idle at most one time frame after its last request.
+        long period = Math.max( 1000, Math.min( this.timeFrameMs, 60_000 ) );
+        this.eviction = EVICTOR.scheduleWithFixedDelay( this::evictIdle, period, period, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Stops evicting idle entries in the background.
+     * This is called when the server the limiter was added to stops listening.
+     */
+    @Override
+    public synchronized void close()
+    {
+        if ( this.eviction != null )
+            this.eviction.cancel( false );
+        this.eviction = null;
+    }
+
+    public int getMaxRequests()
+    {
+        return this.maxRequests;
+    }
+
+    public int getTimeFrameMs()
+    {
+        return this.timeFrameMs;
+    }
+
+    /**
+     * Sets the `RateLimit-*` headers of a response, unless an earlier limiter left fewer remaining requests.
+     * The limiter that limits a request always sets them, so they match its `Retry-After` header.
+     */
+    private void writeHeaders( Response response, int remaining, long reset, boolean limited )
+    {
+        String previous = response.getHeader( "RateLimit-Remaining" );
+        if ( ! limited && previous != null && Integer.parseInt( previous ) <= remaining )
+            return;
+
+        response.header( "RateLimit-Limit", this.number( this.maxRequests ) );
+        response.header( "RateLimit-Remaining", this.number( remaining ) );
+        response.header( "RateLimit-Reset", this.number( seconds( reset ) ) );
+    }
+
+    /**
+     * Returns the text of a number, from the cache if it is small enough.
+     */
+    private String number( int value )
+    {
+        return value < this.numbers.length ? this.numbers[ value ] : Integer.toString( value );
+    }
+
+    /**
+     * Converts a time in nanoseconds to whole seconds, rounded up.
+     */
+    private static int seconds( long nanos )
+    {
+        return ( int ) Math.max( 1, ( nanos + 999_999_999 ) / 1_000_000_000 );
+    }
+
+    /**
+     * Removes the idle entries of a stripe. An entry is only removed if its state is marked as evicted,
+     * so a request that updates the entry at the same time is never lost.
+     *
+     * @return The amount of removed entries.
+     */
+    private int evictIdle( ConcurrentHashMap<Object, AtomicLong> stripe, long now )
+    {
+        int evicted = 0;
+        for ( var entry : stripe.entrySet() )
         {
-            this.requestAddress = requestAddress;
+            AtomicLong state = entry.getValue();
+            long arrival = state.get();
+            if ( arrival != EVICTED && arrival <= now && state.compareAndSet( arrival, EVICTED ) )
+            {
+                stripe.remove( entry.getKey(), state );
+                evicted++;
+            }
         }
+        return evicted;
+    }
+
+    /**
+     * Selects the stripe of a key from the high bits of its mixed hash,
+     * since the maps of the stripes index their tables with the low bits.
+     */
+    private static ConcurrentHashMap<Object, AtomicLong> stripe( List<ConcurrentHashMap<Object, AtomicLong>> stripes, Object key )
+    {
+        return stripes.get( ( key.hashCode() * 0x9E3779B9 ) >>> ( Integer.SIZE - STRIPE_BITS ) );
+    }
+
+    private static List<ConcurrentHashMap<Object, AtomicLong>> createStripes()
+    {
+        List<ConcurrentHashMap<Object, AtomicLong>> stripes = new ArrayList<>( STRIPES );
+        for ( int i = 0; i < STRIPES; i++ )
+            stripes.add( new ConcurrentHashMap<>() );
+        return List.copyOf( stripes );
     }
 }
@@ -0,0 +1,28 @@
+package nl.getgood.api.module;
+
+import nl.getgood.api.server.RegisteredApiRoute;
+
+import java.util.List;
+
+/**
+ * A registry of the routes of a module, which is generated at compile time by the {@link RouteProcessor}.
+ * It allows the routes of a module to be registered without scanning the module with reflection.
+ * <br /> <br />
+ * Created by agent.
+ */
+public interface IRouteRegistry
+{
+    /**
+     * The suffix of the name of generated registries.
+     * The registry of module "com.example.Outer$CustomerModule" is named "com.example.Outer_CustomerModule_RouteRegistry".
+     */
+    String SUFFIX = "_RouteRegistry";
+
+    /**
+     * Creates the routes of a module.
+     *
+     * @param module The module to create the routes of, which is an instance of the class the registry was generated for.
+     * @return The routes of the module.
+     */
+    List<RegisteredApiRoute> routes( Module module );
+}
@@ -2,15 +2,22 @@ package nl.getgood.api.module;
 
 import nl.getgood.api.Database;
 import nl.getgood.api.Logger;
+import nl.getgood.api.http.IAsyncRequestHandler;
+import nl.getgood.api.http.IRequestHandler;
 import nl.getgood.api.http.Request;
 import nl.getgood.api.http.Response;
+import nl.getgood.api.server.AsyncRouteHandler;
 import nl.getgood.api.server.RegisteredApiRoute;
+import nl.getgood.api.server.RequestCoalescer;
+import nl.getgood.api.server.ResponseCache;
 import nl.getgood.api.server.Route;
 import nl.getgood.api.server.Server;
 
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 /**
  * Created on 03/08/2024 at 15:33
@@ -41,12 +48,16 @@ public abstract class Module
 
     /**
      * Get all api handlers in this module.
-     * This method will scan all methods in this module and return a map containing all api handlers.
+     * If a route registry was generated for this module at compile time, the handlers are taken from it.
+     * Otherwise, this method will scan all methods in this module and return a map containing all api handlers.
      *
      * @return A map containing all api handlers in this module.
      */
     public final List<RegisteredApiRoute> getApiHandlers()
     {
+        IRouteRegistry registry = this.findRouteRegistry();
+        if ( registry != null )
+            return registry.routes( this );
 
         Method[] methods = this.getClass().getDeclaredMethods();
         List<RegisteredApiRoute> handlers = new ArrayList<>();
@@ -65,21 +76,105 @@ public abstract class Module
             {
                 route = method.getAnnotation( Route.class );
 
-                handlers.add( new RegisteredApiRoute( route.route(), ( ( request, response ) ->
-                {
-                    try
-                    {
-                        method.invoke( this, request, response );
-                    }
-                    catch ( Exception e )
-                    {
-                        Logger.getLogger().error( "Failed to invoke method " + method.getName() + " in module " + this.getClass().getName());
-                        Logger.getLogger().errorStack( e );
-                    }
-                } ), route.method() ) );
+                // The method is called through a generated handler, rather than through reflection.
+                // Methods that return a stage complete their response asynchronously.
+                IRequestHandler handler = CompletionStage.class.isAssignableFrom( method.getReturnType() ) ?
+                        this.asyncRouteHandler( method.getName(), route.etag(), route.timeout(),
+                                                RouteHandlerFactory.createAsync( this, method ) ) :
+                        this.routeHandler( method.getName(), route.etag(), RouteHandlerFactory.create( this, method ) );
+                if ( route.coalesce() )
+                    handler = new RequestCoalescer( route.coalesceHeaders() ).coalesce( handler );
+                if ( route.cacheTtl() > 0 )
+                    handler = ResponseCache.cached( handler, route.cacheTtl(), route.staleWhileRevalidate(),
+                                                    route.cacheTags(), route.cacheHeaders() );
+
+                handlers.add( new RegisteredApiRoute( route.route(), handler, route.method(), route.bulkhead() ) );
             }
         }
         return handlers;
     }
 
+    /**
+     * Wraps the handler of a route method of this module.
+     * This is used by the handlers that are found with reflection, as well as by generated route registries.
+     *
+     * @param methodName The name of the route method, used for logging.
+     * @param etag       Whether responses should carry an entity tag generated from their body.
+     * @param handler    The handler that invokes the route method.
+     * @return The wrapped handler.
+     */
+    public final IRequestHandler routeHandler( String methodName, boolean etag, IRequestHandler handler )
+    {
+        return ( request, response ) ->
+        {
+            if ( etag )
+                response.etag();
+            try
+            {
+                handler.handleRequest( request, response );
+            }
+            catch ( Exception e )
+            {
+                Logger.getLogger().error( "Failed to invoke method " + methodName + " in module " + this.getClass().getName());
+                Logger.getLogger().errorStack( e );
+            }
+        };
+    }
+
+    /**
+     * Wraps the asynchronous handler of a route method of this module.
+     * This is used by the handlers that are found with reflection, as well as by generated route registries.
+     *
+     * @param methodName The name of the route method, used for logging.
+     * @param etag       Whether responses should carry an entity tag generated from their body.
+     * @param timeout    The time in milliseconds the method has to complete its response, or 0 for the default of the server.
+     * @param handler    The asynchronous handler that invokes the route method.
+     * @return The wrapped handler.
+     */
+    public final IRequestHandler asyncRouteHandler( String methodName, boolean etag, long timeout, IAsyncRequestHandler handler )
+    {
+        return new AsyncRouteHandler( ( request, response ) ->
+        {
+            if ( etag )
+                response.etag();
+            try
+            {
+                return handler.handleRequest( request, response );
+            }
+            catch ( Exception e )
+            {
+                Logger.getLogger().error( "Failed to invoke method " + methodName + " in module " + this.getClass().getName());
+                return CompletableFuture.failedFuture( e );
+            }
+        }, timeout );
+    }
+
+    /**
+     * Finds the route registry that was generated for the class of this module.
+     *
+     * @return The route registry, or null if none was generated.
+     */
+    private IRouteRegistry findRouteRegistry()
+    {
+        Class<?> moduleClass = this.getClass();
+        String packageName = moduleClass.getPackageName();
+        String registryName = packageName.isEmpty() ?
+                moduleClass.getName().replace( '$', '_' ) + IRouteRegistry.SUFFIX :
+                packageName + "." + moduleClass.getName().substring( packageName.length() + 1 ).replace( '$', '_' ) + IRouteRegistry.SUFFIX;
+        try
+        {
+            Class<?> registryClass = Class.forName( registryName, true, moduleClass.getClassLoader() );
+            return ( IRouteRegistry ) registryClass.getDeclaredConstructor().newInstance();
+        }
+        catch ( ClassNotFoundException e )
+        {
+            return null;
+        }
+        catch ( ReflectiveOperationException | ClassCastException e )
+        {
+            Logger.getLogger().error( "Failed to load route registry " + registryName + ", falling back to reflection: " + e.getMessage() );
+            return null;
+        }
+    }
+
 }
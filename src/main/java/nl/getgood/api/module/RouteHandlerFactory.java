@@ -0,0 +1,137 @@
+package nl.getgood.api.module;
+
+import nl.getgood.api.Logger;
+import nl.getgood.api.http.IAsyncRequestHandler;
+import nl.getgood.api.http.IRequestHandler;
+import nl.getgood.api.http.Request;
+import nl.getgood.api.http.Response;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Creates request handlers that invoke the annotated route methods of a module.
+ * The handlers are generated with {@link LambdaMetafactory}, so they call the method directly,
+ * just like a hand-written lambda would. Unlike {@link Method#invoke(Object, Object...)}, this does not
+ * perform access checks, allocate an array of arguments or wrap exceptions on every call,
+ * and allows the JIT compiler to inline the route method.
+ * <br /> <br />
+ * Created by agent.
+ */
+final class RouteHandlerFactory
+{
+
+    private static final MethodType HANDLER_TYPE = MethodType.methodType( void.class, Request.class, Response.class );
+    private static final MethodType ASYNC_HANDLER_TYPE = MethodType.methodType( CompletionStage.class, Request.class, Response.class );
+
+    private RouteHandlerFactory() {}
+
+    /**
+     * Creates a request handler that invokes a route method of a module.
+     * If the handler cannot be generated, for example because the module class is not accessible,
+     * a handler that invokes the method reflectively is returned instead.
+     *
+     * @param module The module to invoke the method on.
+     * @param method The route method, which accepts a request and a response.
+     * @return The request handler.
+     */
+    static IRequestHandler create( Module module, Method method )
+    {
+        IRequestHandler handler = generate( module, method, IRequestHandler.class, HANDLER_TYPE );
+        return handler != null ? handler : reflective( module, method );
+    }
+
+    /**
+     * Creates an asynchronous request handler that invokes a route method of a module,
+     * which returns a {@link CompletionStage}.
+     *
+     * @param module The module to invoke the method on.
+     * @param method The route method, which accepts a request and a response.
+     * @return The asynchronous request handler.
+     */
+    static IAsyncRequestHandler createAsync( Module module, Method method )
+    {
+        IAsyncRequestHandler handler = generate( module, method, IAsyncRequestHandler.class, ASYNC_HANDLER_TYPE );
+        return handler != null ? handler : reflectiveAsync( module, method );
+    }
+
+    /**
+     * Generates an implementation of the handler interface that invokes the method.
+     *
+     * @return The generated handler, or null if it could not be generated.
+     */
+    private static <T> T generate( Module module, Method method, Class<T> interfaceType, MethodType interfaceMethodType )
+    {
+        try
+        {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn( module.getClass(), MethodHandles.lookup() );
+            MethodHandle handle = lookup.unreflect( method );
+
+            CallSite callSite = LambdaMetafactory.metafactory(
+                    lookup,
+                    "handleRequest",
+                    MethodType.methodType( interfaceType, module.getClass() ),
+                    interfaceMethodType,
+                    handle,
+                    interfaceMethodType );
+            return interfaceType.cast( callSite.getTarget().invoke( module ) );
+        }
+        catch ( IllegalAccessException | LambdaConversionException e )
+        {
+            Logger.getLogger().verbose( "Falling back to reflection for method " + method.getName() +
+                                                " in module " + module.getClass().getName() + ": " + e.getMessage() );
+            return null;
+        }
+        catch ( Throwable e )
+        {
+            Logger.getLogger().error( "Failed to generate a handler for method " + method.getName() +
+                                              " in module " + module.getClass().getName() + ": " + e.getMessage() );
+            return null;
+        }
+    }
+
+    /**
+     * Creates a request handler that invokes the method reflectively.
+     */
+    private static IRequestHandler reflective( Module module, Method method )
+    {
+        method.setAccessible( true );
+        return ( request, response ) ->
+        {
+            try
+            {
+                method.invoke( module, request, response );
+            }
+            catch ( ReflectiveOperationException e )
+            {
+                throw new IllegalStateException( e.getCause() != null ? e.getCause() : e );
+            }
+        };
+    }
+
+    /**
+     * Creates an asynchronous request handler that invokes the method reflectively.
+     */
+    private static IAsyncRequestHandler reflectiveAsync( Module module, Method method )
+    {
+        method.setAccessible( true );
+        return ( request, response ) ->
+        {
+            try
+            {
+                return ( CompletionStage<?> ) method.invoke( module, request, response );
+            }
+            catch ( ReflectiveOperationException e )
+            {
+                return CompletableFuture.failedFuture( e.getCause() != null ? e.getCause() : e );
+            }
+        };
+    }
+}
@@ -0,0 +1,222 @@
+package nl.getgood.api.module;
+
+import nl.getgood.api.server.Route;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An annotation processor that generates an {@link IRouteRegistry} for every module with {@link Route} methods.
+ * The generated registry creates the routes of the module with method references, so the module
+ * does not have to be scanned with reflection when it is added to a server.
+ * <br /> <br />
+ * Route methods with an invalid signature, which would otherwise be skipped silently at runtime,
+ * are reported as compilation errors. Modules with private route methods, or that are not accessible
+ * from their own package, get no registry; their routes are still found with reflection.
+ * <br /> <br />
+ * The processor is registered as a service, so it runs whenever this library is on the compile class path.
+ * <br /> <br />
+ * Created by agent.
+ */
+@SupportedAnnotationTypes( "nl.getgood.api.server.Route" )
+public class RouteProcessor extends AbstractProcessor
+{
+
+    @Override
+    public SourceVersion getSupportedSourceVersion()
+    {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process( Set<? extends TypeElement> annotations, RoundEnvironment environment )
+    {
+        Map<TypeElement, List<ExecutableElement>> modules = new LinkedHashMap<>();
+        for ( Element element : environment.getElementsAnnotatedWith( Route.class ) )
+        {
+            if ( element.getKind() == ElementKind.METHOD && this.isValid( ( ExecutableElement ) element ) )
+                modules.computeIfAbsent( ( TypeElement ) element.getEnclosingElement(), type -> new ArrayList<>() )
+                        .add( ( ExecutableElement ) element );
+        }
+
+        modules.forEach( ( module, methods ) ->
+        {
+            if ( this.isAccessible( module, methods ) )
+                this.generateRegistry( module, methods );
+        } );
+        return false;
+    }
+
+    /**
+     * Checks whether a route method accepts a request and a response, and is declared in a module.
+     */
+    private boolean isValid( ExecutableElement method )
+    {
+        TypeMirror request = this.processingEnv.getElementUtils().getTypeElement( "nl.getgood.api.http.Request" ).asType();
+        TypeMirror response = this.processingEnv.getElementUtils().getTypeElement( "nl.getgood.api.http.Response" ).asType();
+        TypeMirror module = this.processingEnv.getElementUtils().getTypeElement( Module.class.getName() ).asType();
+
+        if ( method.getParameters().size() != 2
+                || ! this.processingEnv.getTypeUtils().isSameType( method.getParameters().get( 0 ).asType(), request )
+                || ! this.processingEnv.getTypeUtils().isSameType( method.getParameters().get( 1 ).asType(), response ) )
+        {
+            this.processingEnv.getMessager().printMessage(
+                    Diagnostic.Kind.ERROR, "@Route methods must accept a Request and a Response", method );
+            return false;
+        }
+
+        Element enclosing = method.getEnclosingElement();
+        if ( enclosing.getKind() != ElementKind.CLASS || ! this.processingEnv.getTypeUtils().isSubtype(
+                this.processingEnv.getTypeUtils().erasure( enclosing.asType() ), module ) )
+        {
+            this.processingEnv.getMessager().printMessage(
+                    Diagnostic.Kind.ERROR, "@Route methods must be declared in a subclass of " + Module.class.getName(), method );
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the module and its route methods can be referenced from a class in the same package.
+     */
+    private boolean isAccessible( TypeElement module, List<ExecutableElement> methods )
+    {
+        for ( Element type = module; type instanceof TypeElement; type = type.getEnclosingElement() )
+        {
+            if ( type.getModifiers().contains( Modifier.PRIVATE ) )
+            {
+                this.processingEnv.getMessager().printMessage(
+                        Diagnostic.Kind.NOTE, "Module is private, its routes will be found with reflection", module );
+                return false;
+            }
+        }
+        for ( ExecutableElement method : methods )
+        {
+            if ( method.getModifiers().contains( Modifier.PRIVATE ) )
+            {
+                this.processingEnv.getMessager().printMessage(
+                        Diagnostic.Kind.NOTE, "Route method is private, the routes of its module will be found with reflection", method );
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether a route method returns a {@link java.util.concurrent.CompletionStage}.
+     */
+    private boolean isAsynchronous( ExecutableElement method )
+    {
+        TypeMirror stage = this.processingEnv.getTypeUtils().erasure(
+                this.processingEnv.getElementUtils().getTypeElement( "java.util.concurrent.CompletionStage" ).asType() );
+        return this.processingEnv.getTypeUtils().isAssignable(
+                this.processingEnv.getTypeUtils().erasure( method.getReturnType() ), stage );
+    }
+
+    /**
+     * Returns the values as a comma separated list of string literals.
+     */
+    private String constants( String[] values )
+    {
+        StringBuilder constants = new StringBuilder();
+        for ( String value : values )
+            constants.append( constants.isEmpty() ? "" : ", " ).append( this.processingEnv.getElementUtils().getConstantExpression( value ) );
+        return constants.toString();
+    }
+
+    private void generateRegistry( TypeElement module, List<ExecutableElement> methods )
+    {
+        String packageName = this.processingEnv.getElementUtils().getPackageOf( module ).getQualifiedName().toString();
+        String binaryName = this.processingEnv.getElementUtils().getBinaryName( module ).toString();
+        String simpleName = ( packageName.isEmpty() ? binaryName : binaryName.substring( packageName.length() + 1 ) )
+                .replace( '$', '_' ) + IRouteRegistry.SUFFIX;
+        String moduleType = this.processingEnv.getTypeUtils().erasure( module.asType() ).toString();
+
+        StringBuilder source = new StringBuilder();
+        if ( ! packageName.isEmpty() )
+            source.append( "package " ).append( packageName ).append( ";\n\n" );
+
+        source.append( "/**\n" )
+                .append( " * The routes of {@link " ).append( moduleType ).append( "}.\n" )
+                .append( " * Generated by " ).append( RouteProcessor.class.getName() ).append( ", do not edit.\n" )
+                .append( " */\n" )
+                .append( "@javax.annotation.processing.Generated( \"" ).append( RouteProcessor.class.getName() ).append( "\" )\n" )
+                .append( "public final class " ).append( simpleName ).append( " implements " ).append( IRouteRegistry.class.getName() ).append( "\n" )
+                .append( "{\n" )
+                .append( "    @Override\n" )
+                .append( "    public java.util.List<nl.getgood.api.server.RegisteredApiRoute> routes( " ).append( Module.class.getName() ).append( " module )\n" )
+                .append( "    {\n" )
+                .append( "        " ).append( moduleType ).append( " target = ( " ).append( moduleType ).append( " ) module;\n" )
+                .append( "        return java.util.List.of(\n" );
+
+        for ( int i = 0; i < methods.size(); i++ )
+        {
+            ExecutableElement method = methods.get( i );
+            Route route = method.getAnnotation( Route.class );
+            String reference = ( method.getModifiers().contains( Modifier.STATIC ) ? moduleType : "target" )
+                    + "::" + method.getSimpleName();
+
+            // Methods that return a stage complete their response asynchronously.
+            String handler = this.isAsynchronous( method ) ?
+                    "module.asyncRouteHandler( \"" + method.getSimpleName() + "\", " + route.etag() + ", " + route.timeout() + "L, " + reference + " )" :
+                    "module.routeHandler( \"" + method.getSimpleName() + "\", " + route.etag() + ", " + reference + " )";
+            if ( route.coalesce() )
+            {
+                String headers = this.constants( route.coalesceHeaders() );
+                handler = "new nl.getgood.api.server.RequestCoalescer(" + ( headers.isEmpty() ? ")" : " " + headers + " )" ) +
+                        ".coalesce( " + handler + " )";
+            }
+            if ( route.cacheTtl() > 0 )
+            {
+                String tags = this.constants( route.cacheTags() );
+                String headers = this.constants( route.cacheHeaders() );
+                handler = "nl.getgood.api.server.ResponseCache.cached( " + handler + ", " + route.cacheTtl() + "L, " +
+                        route.staleWhileRevalidate() + "L, new String[] {" + ( tags.isEmpty() ? "}" : " " + tags + " }" ) +
+                        ( headers.isEmpty() ? "" : ", " + headers ) + " )";
+            }
+
+            source.append( "                new nl.getgood.api.server.RegisteredApiRoute(\n" )
+                    .append( "                        " ).append( this.processingEnv.getElementUtils().getConstantExpression( route.route() ) ).append( ",\n" )
+                    .append( "                        " ).append( handler ).append( ",\n" )
+                    .append( "                        nl.getgood.api.http.RequestMethod." ).append( route.method().name() ).append( ",\n" )
+                    .append( "                        " ).append( this.processingEnv.getElementUtils().getConstantExpression( route.bulkhead() ) ).append( " )" )
+                    .append( i < methods.size() - 1 ? ",\n" : "\n" );
+        }
+
+        source.append( "        );\n" )
+                .append( "    }\n" )
+                .append( "}\n" );
+
+        String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+        try
+        {
+            JavaFileObject file = this.processingEnv.getFiler().createSourceFile( qualifiedName, module );
+            try ( Writer writer = file.openWriter() )
+            {
+                writer.write( source.toString() );
+            }
+        }
+        catch ( IOException e )
+        {
+            this.processingEnv.getMessager().printMessage(
+                    Diagnostic.Kind.ERROR, "Failed to generate route registry: " + e.getMessage(), module );
+        }
+    }
+}
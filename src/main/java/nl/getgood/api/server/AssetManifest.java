@@ -0,0 +1,314 @@
+package nl.getgood.api.server;
+
+import nl.getgood.api.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+
+/**
+ * A manifest of the files of a static route, which serves every file at a
+ * fingerprinted URL that contains a hash of its content, for example
+ * "/assets/js/app.js" at "/assets/js/app.3f2a1b9c0d4e.js".
+ * Since the content behind a fingerprinted URL never changes, it is served with
+ * `Cache-Control: public, max-age=31536000, immutable`, and clients never have to revalidate it.
+ * <br /> <br />
+ * The manifest is built when the server starts, and is updated whenever the static file watcher
+ * reports a change, so a changed file is served at a new URL. The modification time and size of every file
+ * are recorded when it is hashed, and a file that no longer matches them is hashed again before it is served,
+ * so a fingerprinted URL never serves other content than its hash, also without a watcher or before the watcher
+ * reports the change. The old URL of a changed file is no longer served.
+ * Handlers resolve the fingerprinted URL of a file with {@link Server#asset(String)}.
+ * <br /> <br />
+ * Created by agent.
+ */
+public class AssetManifest
+{
+
+    /**
+     * The value of the `Cache-Control` header for fingerprinted files.
+     */
+    public static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    /**
+     * The amount of hexadecimal characters of the content hash that are used in fingerprinted URLs.
+     */
+    private static final int FINGERPRINT_LENGTH = 12;
+
+    private static final Logger logger = Logger.getLogger();
+
+    private final Path root;
+    private final Path directory;
+
+    /**
+     * The fingerprinted URLs by the path of their file, and the other way around.
+     * Both maps are never modified, but replaced as a whole on every change.
+     */
+    private volatile Map<String, Asset> fingerprinted = Map.of();
+    private volatile Map<String, String> logical = Map.of();
+
+    /**
+     * Whether a watcher reports the changes to the files, so they need not be checked when URLs are resolved.
+     */
+    private volatile boolean watched = false;
+
+    /**
+     * Creates a new asset manifest for a static route.
+     *
+     * @param route     The route of the static files.
+     * @param localPath The local directory the static files are served from.
+     */
+    public AssetManifest( String route, String localPath )
+    {
+        // The full request path is resolved against the local directory, so only
+        // the files below the route are reachable through the static route.
+        this.root = Path.of( localPath ).toAbsolutePath().normalize();
+        this.directory = this.root.resolve( route.replaceFirst( "^/+", "" ) ).normalize();
+    }
+
+    /**
+     * Hashes all files of the static route, replacing the previous manifest.
+     */
+    public synchronized void build()
+    {
+        Map<String, Asset> files = new HashMap<>();
+        this.hashRecursively( this.directory, files );
+        this.replace( files );
+        logger.verbose( "Built asset manifest of " + files.size() + " file(s) for " + this.directory );
+    }
+
+    /**
+     * Keeps the manifest up to date with the changes the watcher of a static file cache reports.
+     *
+     * @param cache The static file cache that watches the files of the route.
+     */
+    void watch( StaticFileCache cache )
+    {
+        cache.onChange( this::update );
+        this.watched = true;
+    }
+
+    /**
+     * Updates the manifest after a file or directory has changed.
+     *
+     * @param changed The path of the changed file or directory.
+     */
+    synchronized void update( Path changed )
+    {
+        changed = changed.toAbsolutePath().normalize();
+        if ( ! changed.startsWith( this.directory ) && ! this.directory.startsWith( changed ) )
+            return;
+
+        if ( ! changed.startsWith( this.directory ) )
+        {
+            // A parent of the route was replaced, so everything may have changed.
+            this.build();
+            return;
+        }
+
+        Map<String, Asset> files = new HashMap<>( this.fingerprinted );
+        String prefix = this.urlPath( changed );
+        files.keySet().removeIf( path -> path.equals( prefix ) || path.startsWith( prefix + "/" ) );
+        this.hashRecursively( changed, files );
+        this.replace( files );
+    }
+
+    /**
+     * Returns the fingerprinted URL of a file.
+     *
+     * @param path The request path of the file, for example "/assets/js/app.js".
+     * @return The fingerprinted URL of the file, or null if the file is not in the manifest.
+     */
+    public String resolve( String path )
+    {
+        Asset asset = this.fingerprinted.get( path );
+        if ( asset != null && ! this.watched )
+        {
+            // Without a watcher, changes are noticed when the URL of a file is resolved.
+            try
+            {
+                BasicFileAttributes attributes = Files.readAttributes( this.file( path ), BasicFileAttributes.class );
+                asset = this.refresh( path, attributes.lastModifiedTime().toMillis(), attributes.size() );
+            }
+            catch ( IOException e )
+            {
+                asset = this.refresh( path, - 1, - 1 );
+            }
+        }
+        return asset == null ? null : asset.url();
+    }
+
+    /**
+     * Returns the request path of the file behind a fingerprinted URL.
+     *
+     * @param fingerprintedPath The normalized fingerprinted URL.
+     * @return The request path of the file, or null if the URL is not fingerprinted.
+     */
+    public String logicalPath( String fingerprintedPath )
+    {
+        return this.logical.get( fingerprintedPath );
+    }
+
+    /**
+     * Returns whether a fingerprinted URL still belongs to the current content of its file.
+     * If the file changed since it was hashed, it is hashed again first.
+     *
+     * @param fingerprintedPath The normalized fingerprinted URL.
+     * @param path              The request path of the file, as returned by {@link #logicalPath(String)}.
+     * @param lastModified      The modification time of the file that is about to be served, in milliseconds since the epoch.
+     * @param size              The size of the file that is about to be served.
+     * @return Whether the file may be served at the fingerprinted URL.
+     */
+    boolean isCurrent( String fingerprintedPath, String path, long lastModified, long size )
+    {
+        Asset asset = this.refresh( path, lastModified, size );
+        return asset != null && asset.url().equals( fingerprintedPath );
+    }
+
+    /**
+     * Returns the amount of files in the manifest.
+     */
+    public int size()
+    {
+        return this.fingerprinted.size();
+    }
+
+    /**
+     * Returns the entry of a file, after hashing the file again if it no longer has the recorded modification time and size.
+     */
+    private Asset refresh( String path, long lastModified, long size )
+    {
+        Asset asset = this.fingerprinted.get( path );
+        if ( asset != null && asset.lastModified() == lastModified && asset.size() == size )
+            return asset;
+
+        synchronized ( this )
+        {
+            // Another thread may have hashed the file in the meantime.
+            asset = this.fingerprinted.get( path );
+            if ( asset == null || asset.lastModified() != lastModified || asset.size() != size )
+            {
+                this.update( this.file( path ) );
+                asset = this.fingerprinted.get( path );
+            }
+            return asset;
+        }
+    }
+
+    private void replace( Map<String, Asset> files )
+    {
+        Map<String, String> inverse = new HashMap<>( files.size() );
+        files.forEach( ( path, asset ) -> inverse.put( asset.url(), path ) );
+
+        this.fingerprinted = Map.copyOf( files );
+        this.logical = Map.copyOf( inverse );
+    }
+
+    /**
+     * Adds the fingerprinted URLs of all regular, visible files at or below the path to the map.
+     */
+    private void hashRecursively( Path start, Map<String, Asset> files )
+    {
+        try
+        {
+            Files.walkFileTree( start, new SimpleFileVisitor<>()
+            {
+                @Override
+                public FileVisitResult visitFile( Path file, BasicFileAttributes attributes ) throws IOException
+                {
+                    if ( attributes.isRegularFile() && ! Files.isHidden( file ) )
+                    {
+                        // The file is recorded as it was before hashing, so a change during hashing is noticed later.
+                        String path = urlPath( file );
+                        files.put( path, new Asset( fingerprint( path, hash( file ) ),
+                                                    attributes.lastModifiedTime().toMillis(), attributes.size() ) );
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed( Path file, IOException e )
+                {
+                    // Files may be removed whilst they are being hashed; the watcher will report that.
+                    if ( ! ( e instanceof NoSuchFileException ) )
+                        logger.error( "Failed to hash asset " + file + ": " + e.getMessage() );
+                    return FileVisitResult.CONTINUE;
+                }
+            } );
+        }
+        catch ( NoSuchFileException e ) {}
+        catch ( IOException e )
+        {
+            logger.error( "Failed to build asset manifest of " + start + ": " + e.getMessage() );
+        }
+    }
+
+    /**
+     * Returns the request path a file is served at.
+     */
+    private String urlPath( Path file )
+    {
+        return "/" + this.root.relativize( file ).toString().replace( '\\', '/' );
+    }
+
+    /**
+     * Returns the file that is served at a request path.
+     */
+    private Path file( String path )
+    {
+        return this.root.resolve( path.substring( 1 ) );
+    }
+
+    /**
+     * Inserts the hash before the extension of a path, or appends it if there is none.
+     */
+    private static String fingerprint( String path, String hash )
+    {
+        int slash = path.lastIndexOf( '/' );
+        int dot = path.lastIndexOf( '.' );
+        if ( dot <= slash + 1 )
+            return path + '.' + hash;
+        return path.substring( 0, dot ) + '.' + hash + path.substring( dot );
+    }
+
+    /**
+     * Returns the first characters of the hexadecimal SHA-256 hash of the content of a file.
+     */
+    private static String hash( Path file ) throws IOException
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance( "SHA-256" );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException( e );
+        }
+
+        try ( InputStream in = Files.newInputStream( file ) )
+        {
+            byte[] buffer = new byte[ 65536 ];
+            int read;
+            while ( ( read = in.read( buffer ) ) != -1 )
+                digest.update( buffer, 0, read );
+        }
+        return HexFormat.of().formatHex( digest.digest() ).substring( 0, FINGERPRINT_LENGTH );
+    }
+
+    /**
+     * The fingerprinted URL of a file, and the modification time and size the file had when it was hashed.
+     */
+    private record Asset( String url, long lastModified, long size ) {}
+}
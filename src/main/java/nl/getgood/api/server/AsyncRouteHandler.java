@@ -0,0 +1,89 @@
+package nl.getgood.api.server;
+
+import nl.getgood.api.http.IAsyncRequestHandler;
+import nl.getgood.api.http.IRequestHandler;
+import nl.getgood.api.http.Request;
+import nl.getgood.api.http.Response;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The registered form of an asynchronous request handler.
+ * Routes hold plain request handlers, so asynchronous handlers are wrapped in this class,
+ * which the client connection recognizes and dispatches without blocking its thread.
+ * <br /> <br />
+ * Created by agent.
+ */
+public class AsyncRouteHandler implements IRequestHandler
+{
+
+    private final IAsyncRequestHandler handler;
+    private final long timeout;
+
+    /**
+     * Creates a new asynchronous route handler.
+     *
+     * @param handler The asynchronous request handler.
+     * @param timeout The time in milliseconds the handler has to complete its response,
+     *                or 0 to use the {@link ServerProperty#ASYNC_TIMEOUT} of the server.
+     */
+    public AsyncRouteHandler( IAsyncRequestHandler handler, long timeout )
+    {
+        this.handler = handler;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Handles the request synchronously, by waiting for the stage of the handler to complete.
+     * Client connections do not call this method, but dispatch the handler asynchronously instead.
+     */
+    @Override
+    public void handleRequest( Request request, Response response )
+    {
+        CompletionStage<?> stage = this.handler.handleRequest( request, response );
+        if ( stage == null )
+            return;
+
+        try
+        {
+            if ( this.timeout > 0 )
+                stage.toCompletableFuture().get( this.timeout, TimeUnit.MILLISECONDS );
+            else
+                stage.toCompletableFuture().get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new CompletionException( e );
+        }
+        catch ( ExecutionException e )
+        {
+            throw new CompletionException( e.getCause() );
+        }
+        catch ( TimeoutException e )
+        {
+            throw new CompletionException( e );
+        }
+    }
+
+    /**
+     * Returns the asynchronous request handler.
+     */
+    public IAsyncRequestHandler getHandler()
+    {
+        return this.handler;
+    }
+
+    /**
+     * Returns the time in milliseconds the handler has to complete its response,
+     * or 0 if the default of the server applies.
+     */
+    public long getTimeout()
+    {
+        return this.timeout;
+    }
+}
@@ -0,0 +1,162 @@
+package nl.getgood.api.server;
+
+import nl.getgood.api.http.IAsyncRequestHandler;
+import nl.getgood.api.http.IRequestHandler;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bulkhead isolates the routes that are assigned to it from all other routes.
+ * Its routes are handled on its own threads, of which there are at most `maxConcurrent`,
+ * and at most `maxQueued` requests wait for one of them. Requests beyond that are rejected
+ * with a `503 Service Unavailable`. A slow route can therefore only exhaust its own bulkhead,
+ * whilst the connection threads of the server stay available for all other routes.
+ * <br /> <br />
+ * Created by agent.
+ */
+public class Bulkhead
+{
+
+    private final String name;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+
+    /**
+     * Creates a new bulkhead.
+     *
+     * @param name          The name of the bulkhead, which routes refer to.
+     * @param maxConcurrent The maximum amount of requests that are handled at the same time.
+     * @param maxQueued     The maximum amount of requests that wait to be handled, or 0 to reject
+     *                      requests right away when all threads are busy.
+     */
+    public Bulkhead( String name, int maxConcurrent, int maxQueued )
+    {
+        if ( maxConcurrent < 1 || maxQueued < 0 )
+            throw new IllegalArgumentException( "Bulkhead \"" + name + "\" needs at least one thread and a non-negative queue" );
+
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+
+        BlockingQueue<Runnable> queue = maxQueued > 0 ? new ArrayBlockingQueue<>( maxQueued ) : new SynchronousQueue<>();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor( maxConcurrent, maxConcurrent, 60, TimeUnit.SECONDS, queue, runnable ->
+        {
+            Thread thread = new Thread( runnable, "bulkhead-" + name + "-" + threadCount.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        // Idle bulkheads do not hold on to their threads, so they need not be shut down with the server.
+        this.executor.allowCoreThreadTimeOut( true );
+    }
+
+    /**
+     * Creates an asynchronous handler that handles requests with the provided handler on the threads of this bulkhead.
+     * If the bulkhead is full, the returned stage fails with a {@link RejectedExecutionException}.
+     *
+     * @param handler The handler to isolate.
+     * @return The isolated handler.
+     */
+    public IAsyncRequestHandler isolate( IRequestHandler handler )
+    {
+        return ( request, response ) ->
+        {
+            try
+            {
+                return CompletableFuture.runAsync( () ->
+                {
+                    this.active.incrementAndGet();
+                    try
+                    {
+                        handler.handleRequest( request, response );
+                    }
+                    finally
+                    {
+                        this.active.decrementAndGet();
+                        this.completed.incrementAndGet();
+                    }
+                }, this.executor );
+            }
+            catch ( RejectedExecutionException e )
+            {
+                this.rejected.incrementAndGet();
+                return CompletableFuture.failedFuture( e );
+            }
+        };
+    }
+
+    /**
+     * Returns the name of this bulkhead.
+     */
+    public String getName()
+    {
+        return this.name;
+    }
+
+    /**
+     * Returns the maximum amount of requests that are handled at the same time.
+     */
+    public int getMaxConcurrent()
+    {
+        return this.maxConcurrent;
+    }
+
+    /**
+     * Returns the maximum amount of requests that wait to be handled.
+     */
+    public int getMaxQueued()
+    {
+        return this.maxQueued;
+    }
+
+    /**
+     * Returns the amount of requests that are being handled.
+     */
+    public int active()
+    {
+        return this.active.get();
+    }
+
+    /**
+     * Returns the amount of requests that are waiting to be handled.
+     */
+    public int queued()
+    {
+        return this.executor.getQueue().size();
+    }
+
+    /**
+     * Returns the amount of requests that were rejected because the bulkhead was full.
+     */
+    public long rejected()
+    {
+        return this.rejected.get();
+    }
+
+    /**
+     * Returns the amount of requests that were handled.
+     */
+    public long completed()
+    {
+        return this.completed.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Bulkhead{name='" + name + "', active=" + active() + ", queued=" + queued() + ", rejected=" + rejected() + "}";
+    }
+}
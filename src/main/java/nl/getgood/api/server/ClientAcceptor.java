@@ -1,5 +1,7 @@
 package nl.getgood.api.server;
 
+import nl.getgood.api.middleware.IpFilter;
+
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
@@ -61,13 +63,27 @@ public class ClientAcceptor
         try
         {
             final Socket clientSocket = this.serverSocket.accept();
+
+            // Denied clients are disconnected before a connection is set up for them.
+            IpFilter filter = this.server.connectionFilter;
+            if ( filter != null && ! filter.isAllowed( clientSocket.getInetAddress() ) )
+            {
+                this.server.logger.verbose( "Denied connection from %s", clientSocket.getInetAddress() );
+                clientSocket.setSoLinger( true, 0 );
+                clientSocket.close();
+                return;
+            }
+
             clientSocket.setKeepAlive( true );
             clientSocket.setTcpNoDelay( server.getProperty( ServerProperty.SOCKET_TCP_NO_DELAY, 0, Boolean.class ) );
             ClientConnection clientConnection = new ClientConnection( this.server, clientSocket );
             this.server.threadPool.execute( () ->
                                             {
                                                 clientConnection.handleConnection();
-                                                clientConnection.closeConnection();
+
+                                                // Asynchronous responses close the connection once they are sent.
+                                                if ( ! clientConnection.isAsynchronous() )
+                                                    clientConnection.closeConnection();
                                             } );
         }
         catch ( IOException e )
@@ -5,16 +5,30 @@ import nl.getgood.api.http.*;
 import nl.getgood.api.http.websocket.IWebSocketHandler;
 import nl.getgood.api.http.websocket.IWebSocketMessageResponder;
 import nl.getgood.api.http.websocket.WebSocketFrame;
+import nl.getgood.api.http.websocket.WebSocketFrameDecoder;
 import nl.getgood.api.http.websocket.WebSocketMessageType;
+import nl.getgood.api.http.websocket.WebSocketProtocolException;
 import nl.getgood.api.middleware.Middleware;
 
 import java.io.*;
 import java.net.Socket;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Base64;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Created on 05/08/2024 at 18:17
@@ -37,7 +51,14 @@ public class ClientConnection
     private final Map<String, String> headers;
     private final Map<String, String> urlParameters;
 
+    /**
+     * Whether the response is completed asynchronously, in which case the connection
+     * is closed once it is sent, rather than when handleConnection returns.
+     */
+    private volatile boolean asynchronous = false;
+
     private static final Logger logger = Logger.getLogger();
+    private static final Middleware[] NO_MIDDLEWARE = new Middleware[ 0 ];
 
     public ClientConnection( Server source, Socket clientSocket ) throws IOException
     {
@@ -67,7 +88,7 @@ public class ClientConnection
     {
         try
         {
-            PrintStream clientWriter = new PrintStream( clientOut );
+            OutputStream clientWriter = new BufferedOutputStream( clientOut, 8192 );
             String headerLine = this.clientReader.readLine();
 
             // If the header is null, the client disconnected
@@ -172,18 +193,17 @@ public class ClientConnection
             }
 
             Request request = requestBuilder.build();
-            Response response = new Response( clientWriter );
+            Response response = new Response( clientWriter ).bind( request );
 
             /* ----- CORS CHECKS -----
-             * If the server has CORS enabled, we want to check if the client is allowed to connect.
+             * If the server has a CORS policy, we want to check if the origin of a cross-origin request is allowed.
+             * Preflight requests are answered by the policy right away, without running any middleware.
              */
-            if ( this.server.corsEnabled )
+            CorsPolicy cors = this.server.corsPolicy;
+            String origin = headers.get( "origin" );
+            if ( cors != null && origin != null && ! CorsPolicy.isSameOrigin( origin, headers.get( "x-forwarded-proto" ), headers.get( "host" ) ) )
             {
-                if ( this.server.cors.equals( "*" ) || this.server.hostUrl.equals( requestUri.getHost() ) )
-                {
-                    response.header( "Access-Control-Allow-Origin", "*" );
-                }
-                else
+                if ( ! cors.isAllowed( origin ) )
                 {
                     server.logger.verbose( "CORS policy does not allow this origin." );
                     response.body( "CORS policy does not allow this origin." )
@@ -192,6 +212,18 @@ public class ClientConnection
                             .send();
                     return;
                 }
+
+                if ( requestMethod == RequestMethod.OPTIONS && headers.containsKey( "access-control-request-method" ) )
+                {
+                    RouteTable.Route route = this.server.routeTable.lookup( uriPath, request.pathParameters );
+                    if ( route != null )
+                    {
+                        cors.preflight( response, route, origin );
+                        response.send();
+                        return;
+                    }
+                }
+                cors.apply( response, origin );
             }
 
             /* ----- MIDDLEWARE -----
@@ -199,15 +231,18 @@ public class ClientConnection
              * If middleware is present, we want to propagate the request through the middleware before
              * we start handling the request.
              */
+            int globalMiddleware = 0;
             for ( Middleware middleware : this.server.middlewares )
             {
                 // If the middleware returns false, stop propagating the request.
                 if ( ! middleware.handleRequest( request, response ) )
                 {
                     logger.verbose( "Middleware stopped request propagation." );
+                    this.afterRequest( NO_MIDDLEWARE, 0, globalMiddleware, request, response );
                     response.send();
                     return;
                 }
+                globalMiddleware++;
             }
 
             // If the client requests to upgrade the connection to a websocket connection, check if
@@ -237,32 +272,60 @@ public class ClientConnection
              * If no static route exists for the requested route, we want to check if an API route exists.
              * If so, we want to invoke the handler for the requested route.
              */
-            if ( ! this.server.genericRoutes.containsKey( uriPath ) )
+            RouteTable.Route route = this.server.routeTable.lookup( uriPath, request.pathParameters );
+            Middleware[] chain = NO_MIDDLEWARE;
+            int passed = 0;
+            if ( route == null )
             {
                 logger.verbose( "No route found for " + uriPath );
                 response.status( StatusCode.NOT_FOUND );
             }
             else
             {
+                request.setRoute( route.pattern() );
+
+                // HEAD requests are answered by the GET handler, unless a HEAD handler is registered.
+                // The response will omit the body when it is sent.
+                IRequestHandler handler = route.handler( requestMethod );
+
                 // If the route exists but the method is not defined, return a 405.
-                if ( ! this.server.genericRoutes.get( uriPath ).containsKey( requestMethod ) )
+                if ( handler == null )
                 {
-                    response.status( StatusCode.METHOD_NOT_ALLOWED );
+                    response.status( StatusCode.METHOD_NOT_ALLOWED ).header( "Allow", route.allow() );
                 }
                 else
                 {
-                    IRequestHandler route = this.server.genericRoutes.get( uriPath ).get( requestMethod );
-                    try
+                    // The scoped middleware of the route was selected when the routes were compiled.
+                    chain = route.middleware( requestMethod );
+                    while ( passed < chain.length && chain[passed].handleRequest( request, response ) )
+                        passed++;
+
+                    // Headers that were set up to here apply to this request only, and are never shared with other requests.
+                    response.beginHandler();
+                    if ( passed < chain.length )
+                    {
+                        logger.verbose( "Middleware stopped request propagation." );
+                    }
+                    else if ( handler instanceof AsyncRouteHandler asyncHandler )
                     {
-                        route.handleRequest( request, response );
+                        this.dispatchAsynchronously( asyncHandler, request, response, clientWriter, uriPath, chain );
+                        return;
                     }
-                    catch ( Exception e )
+                    else
                     {
-                        logger.error( "Failed to invoke route \"" + uriPath + "\": " + e.getMessage() );
-                        response.status( StatusCode.INTERNAL_SERVER_ERROR );
+                        try
+                        {
+                            handler.handleRequest( request, response );
+                        }
+                        catch ( Exception e )
+                        {
+                            logger.error( "Failed to invoke route \"" + uriPath + "\": " + e.getMessage() );
+                            response.status( StatusCode.INTERNAL_SERVER_ERROR );
+                        }
                     }
                 }
             }
+            this.afterRequest( chain, passed, globalMiddleware, request, response );
             response.send();
         }
         catch ( IOException | IllegalArgumentException e )
@@ -271,6 +334,144 @@ public class ClientConnection
         }
     }
 
+    /**
+     * Invokes an asynchronous handler, and sends its response once the stage it returns completes.
+     * The calling thread returns right away, and the connection is closed after the response is sent.
+     * If the handler throws or its stage completes exceptionally, a `500 Internal Server Error` is sent,
+     * and if the stage does not complete in time, a `504 Gateway Timeout`.
+     *
+     * @param handler      The asynchronous handler of the route.
+     * @param request      The request.
+     * @param response     The response the handler fills in.
+     * @param clientWriter The stream responses are written to.
+     * @param uriPath      The path of the request, used for logging.
+     * @param chain        The scoped middleware of the route, of which the after-phase runs before the response is sent.
+     */
+    private void dispatchAsynchronously( AsyncRouteHandler handler, Request request, Response response,
+                                         OutputStream clientWriter, String uriPath, Middleware[] chain )
+    {
+        CompletionStage<?> stage;
+        try
+        {
+            stage = handler.getHandler().handleRequest( request, response );
+        }
+        catch ( Exception e )
+        {
+            logger.error( "Failed to invoke route \"" + uriPath + "\": " + e.getMessage() );
+            response.status( StatusCode.INTERNAL_SERVER_ERROR );
+            this.afterRequest( chain, chain.length, this.server.middlewares.size(), request, response );
+            response.send();
+            return;
+        }
+
+        if ( stage == null )
+        {
+            this.afterRequest( chain, chain.length, this.server.middlewares.size(), request, response );
+            response.send();
+            return;
+        }
+
+        this.asynchronous = true;
+
+        // Whichever of the stage and the timeout comes first sends the response.
+        AtomicBoolean completed = new AtomicBoolean( false );
+        long timeout = handler.getTimeout() > 0 ?
+                handler.getTimeout() : this.server.getProperty( ServerProperty.ASYNC_TIMEOUT, Integer.class );
+
+        ScheduledFuture<?> timer = this.server.scheduler.schedule( () ->
+        {
+            if ( ! completed.compareAndSet( false, true ) )
+                return;
+
+            logger.error( "Route \"" + uriPath + "\" did not complete within " + timeout + "ms" );
+            // The handler may still be filling in its response, so a new one is sent instead.
+            Response timeoutResponse = new Response( clientWriter, StatusCode.GATEWAY_TIMEOUT ).bind( request );
+            this.server.threadPool.execute( () -> this.completeAsynchronously( request, timeoutResponse, chain ) );
+        }, timeout, TimeUnit.MILLISECONDS );
+
+        // The response is written on a connection thread, rather than on the thread that completed the stage.
+        stage.whenCompleteAsync( ( result, error ) ->
+        {
+            if ( ! completed.compareAndSet( false, true ) )
+                return;
+
+            timer.cancel( false );
+            if ( error != null )
+            {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                if ( cause instanceof RejectedExecutionException )
+                {
+                    // The bulkhead of the route is full.
+                    logger.verbose( "Route \"" + uriPath + "\" rejected the request: " + cause.getMessage() );
+                    response.status( StatusCode.SERVICE_UNAVAILABLE );
+                }
+                else
+                {
+                    logger.error( "Route \"" + uriPath + "\" completed exceptionally: " + cause );
+                    response.status( cause instanceof TimeoutException ?
+                                             StatusCode.GATEWAY_TIMEOUT : StatusCode.INTERNAL_SERVER_ERROR );
+                }
+            }
+            this.completeAsynchronously( request, response, chain );
+        }, this.server.threadPool );
+    }
+
+    /**
+     * Runs the after-phase of the middleware, sends the response of an asynchronous handler and closes the connection.
+     */
+    private void completeAsynchronously( Request request, Response response, Middleware[] chain )
+    {
+        try
+        {
+            this.afterRequest( chain, chain.length, this.server.middlewares.size(), request, response );
+            response.send();
+        }
+        finally
+        {
+            this.closeConnection();
+        }
+    }
+
+    /**
+     * Runs the after-phase of the middleware that let the request pass, in the reverse order in which it ran:
+     * first the scoped middleware of the route, then the middleware that runs for every request.
+     * A middleware that fails is logged, and does not keep the others from running.
+     *
+     * @param chain            The scoped middleware of the route.
+     * @param passed           The amount of scoped middleware that let the request pass.
+     * @param globalMiddleware The amount of middleware of the server that let the request pass.
+     * @param request          The request.
+     * @param response         The response that is about to be sent.
+     */
+    private void afterRequest( Middleware[] chain, int passed, int globalMiddleware, Request request, Response response )
+    {
+        for ( int i = passed - 1; i >= 0; i-- )
+            this.afterRequest( chain[i], request, response );
+        for ( int i = globalMiddleware - 1; i >= 0; i-- )
+            this.afterRequest( this.server.middlewares.get( i ), request, response );
+    }
+
+    private void afterRequest( Middleware middleware, Request request, Response response )
+    {
+        try
+        {
+            middleware.afterRequest( request, response );
+        }
+        catch ( Exception e )
+        {
+            logger.error( "Middleware " + middleware.getClass().getName() + " failed after the request: " + e.getMessage() );
+        }
+    }
+
+    /**
+     * Returns whether the response is completed asynchronously.
+     * If so, the connection is closed once the response is sent, and must not be closed by the caller.
+     */
+    protected boolean isAsynchronous()
+    {
+        return this.asynchronous;
+    }
+
     /**
      * Attempts to serve a static resource.
      * This method will attempt to serve a static resource to the client.
@@ -284,32 +485,55 @@ public class ClientConnection
      */
     private boolean attemptServeStatic( RequestMethod requestMethod, String uriPath, Response response )
     {
-        if ( this.server.staticRoutes.isEmpty() )
+        if ( this.server.staticRouteTrie.size() == 0 )
             return false;
 
-        String localStartingPath = null;
-        for ( String route : this.server.staticRoutes.keySet() )
+        // Resolve "." and ".." segments first, so that a path can neither escape the root
+        // of a mount, nor reach another mount than the one it resolves to.
+        String normalizedPath = StaticRouteTrie.normalize( uriPath );
+        if ( normalizedPath == null )
         {
-            if ( uriPath.startsWith( route ) )
-            {
-                localStartingPath = this.server.staticRoutes.get( route );
-                break;
-            }
+            logger.error( "Rejected static resource path outside of its root: " + uriPath );
+            response.body( ERR_MESSAGE )
+                    .contentType( ContentType.HTML )
+                    .status( StatusCode.NOT_FOUND )
+                    .send();
+            return true;
         }
 
-        if ( localStartingPath != null )
+        StaticRouteTrie.Mount mount = this.server.staticRouteTrie.lookup( normalizedPath );
+
+        if ( mount != null )
         {
+            String localStartingPath = mount.localPath();
+
             // If no file is specified, default to index.html.
-            String relativeFilePath = uriPath.endsWith( "/" ) ? uriPath.concat( "index.html" ) :
-                    uriPath;
+            String relativeFilePath = normalizedPath.endsWith( "/" ) ? normalizedPath.concat( "index.html" ) :
+                    normalizedPath;
+
+            // A fingerprinted URL serves the file it was derived from, which can be cached indefinitely.
+            AssetManifest manifest = this.server.assetManifests.get( mount.route() );
+            String fingerprintedPath = relativeFilePath;
+            String logicalPath = manifest == null ? null : manifest.logicalPath( relativeFilePath );
+            if ( logicalPath != null )
+                relativeFilePath = logicalPath;
 
             logger.verbose( "Incoming GET for static resource: " + localStartingPath + relativeFilePath );
 
-            File file = new File( localStartingPath + relativeFilePath );
+            // Without a cache, only the metadata of the file is loaded up front.
+            Path filePath = Path.of( localStartingPath + relativeFilePath );
+            StaticFileCache.StaticFile file = this.server.staticFileCache != null ?
+                    this.server.staticFileCache.get( filePath ) :
+                    StaticFileCache.load( filePath, 0, null );
 
-            if ( ! file.exists() || file.isHidden() || file.isDirectory() )
+            // A file that changed since it was fingerprinted is not served at its old URL,
+            // since clients would cache the new content under the hash of the old content.
+            if ( file != null && logicalPath != null && ! manifest.isCurrent( fingerprintedPath, logicalPath, file.lastModified(), file.size() ) )
+                file = null;
+
+            if ( file == null )
             {
-                logger.error( "Failed GET for static resource: " + file.getAbsolutePath() );
+                logger.error( "Failed GET for static resource: " + filePath.toAbsolutePath() );
 
                 response.body( ERR_MESSAGE )
                         .contentType( ContentType.HTML )
@@ -318,21 +542,65 @@ public class ClientConnection
                 return true;
             }
 
-            if ( requestMethod == RequestMethod.GET )
+            if ( requestMethod == RequestMethod.GET || requestMethod == RequestMethod.HEAD )
             {
+                // Evaluate the validators before reading the file, so that a
+                // revalidating client does not cost us a read from disk.
+                response.etag( file.etag() )
+                        .lastModified( file.lastModified() )
+                        .contentType( file.contentType() )
+                        .header( "Accept-Ranges", "bytes" );
+
+                if ( logicalPath != null )
+                    response.header( "Cache-Control", AssetManifest.CACHE_CONTROL );
+
+                if ( ConditionalRequest.isNotModified( requestMethod, this.headers, file.etag(), file.lastModified() ) )
+                {
+                    response.status( StatusCode.NOT_MODIFIED ).send();
+                    return true;
+                }
+
+                // Serve the requested ranges of the file, unless the client's copy is outdated.
+                // Ranges are only defined for GET, so HEAD requests receive the head of the full file.
+                String rangeHeader = this.headers.get( "range" );
+                if ( rangeHeader != null && requestMethod == RequestMethod.GET
+                        && ConditionalRequest.isRangeApplicable( this.headers, file.etag(), file.lastModified() )
+                        && this.attemptServeRanges( file, ByteRange.parse( rangeHeader, file.size() ), response ) )
+                    return true;
+
+                // Large files that are not cached are transferred straight from disk to the socket.
+                if ( file.content() == null
+                        && file.size() >= this.server.getProperty( ServerProperty.STATIC_ZERO_COPY_THRESHOLD, Integer.class ) )
+                {
+                    response.status( StatusCode.OK ).file( file.path(), 0, file.size() ).send();
+                    return true;
+                }
+
+                // A HEAD request for a file that is not cached only needs the metadata of the file,
+                // unless the body of a GET request would be compressed, which changes its length.
+                ResponseCompressor compressor = this.server.getCompressor();
+                if ( requestMethod == RequestMethod.HEAD && file.content() == null
+                        && ( compressor == null || ! compressor.shouldCompress( file.contentType(), file.size() ) ) )
+                {
+                    response.status( StatusCode.OK ).contentLength( file.size() ).send();
+                    return true;
+                }
+
                 try
                 {
-                    // Attempt to serve the file to the client.
-                    byte[] fileContent = Files.readAllBytes( file.toPath() );
+                    // Attempt to serve the file to the client. Responses to HEAD requests
+                    // go through the same path, so their head matches, but their body is never written.
+                    byte[] fileContent = file.content() != null ? file.content() : Files.readAllBytes( file.path() );
                     response
                             .body( fileContent )
+                            .variants( file.variants() )
                             .status( StatusCode.OK )
-                            .contentType( ContentType.fromFile( file ) )
+                            .cacheKey( file.path().toString() + '@' + file.lastModified() )
                             .send();
                 }
                 catch ( IOException e )
                 {
-                    response.status( StatusCode.INTERNAL_SERVER_ERROR );
+                    response.status( StatusCode.INTERNAL_SERVER_ERROR ).send();
                 }
                 return true;
             }
@@ -340,6 +608,73 @@ public class ClientConnection
         return false;
     }
 
+    /**
+     * Attempts to serve ranges of a static file, as requested with the `Range` header.
+     * A single range is sent as is, multiple ranges are sent as a `multipart/byteranges` body.
+     * Ranges of cached files are sliced from the cached content, ranges of large files
+     * from a shared memory mapping of the file.
+     * The method will return false if the full file should be sent instead.
+     *
+     * @param file     The file to serve the ranges of.
+     * @param ranges   The satisfiable ranges, or null if the `Range` header should be ignored.
+     * @param response The response that will be sent to the client.
+     * @return True if the ranges were served, false otherwise.
+     */
+    private boolean attemptServeRanges( StaticFileCache.StaticFile file, List<ByteRange> ranges, Response response )
+    {
+        if ( ranges == null )
+            return false;
+
+        if ( ranges.isEmpty() )
+        {
+            response.status( StatusCode.RANGE_NOT_SATISFIABLE )
+                    .header( "Content-Range", "bytes */" + file.size() )
+                    .send();
+            return true;
+        }
+
+        ByteBuffer content = file.content() != null ? ByteBuffer.wrap( file.content() ) :
+                this.server.mappedFileCache != null ? this.server.mappedFileCache.map( file ) : null;
+
+        response.status( StatusCode.PARTIAL_CONTENT );
+
+        if ( ranges.size() == 1 )
+        {
+            ByteRange range = ranges.get( 0 );
+            response.header( "Content-Range", range.contentRange( file.size() ) );
+            if ( content != null )
+                response.buffers( content.slice( ( int ) range.first(), ( int ) range.length() ) );
+            else
+                response.file( file.path(), range.first(), range.length() );
+            response.send();
+            return true;
+        }
+
+        // Files that can not be mapped are sent in full when multiple ranges are requested.
+        if ( content == null )
+        {
+            response.status( StatusCode.OK );
+            return false;
+        }
+
+        String boundary = Long.toHexString( ThreadLocalRandom.current().nextLong() );
+        ByteBuffer[] parts = new ByteBuffer[ ranges.size() * 2 + 1 ];
+        for ( int i = 0; i < ranges.size(); i++ )
+        {
+            ByteRange range = ranges.get( i );
+            String partHead = "\r\n--" + boundary + "\r\nContent-Type: " + file.contentType().getType() +
+                    "\r\nContent-Range: " + range.contentRange( file.size() ) + "\r\n\r\n";
+            parts[i * 2] = ByteBuffer.wrap( partHead.getBytes( StandardCharsets.ISO_8859_1 ) );
+            parts[i * 2 + 1] = content.slice( ( int ) range.first(), ( int ) range.length() );
+        }
+        parts[parts.length - 1] = ByteBuffer.wrap( ( "\r\n--" + boundary + "--\r\n" ).getBytes( StandardCharsets.ISO_8859_1 ) );
+
+        response.contentType( ContentType.of( "multipart/byteranges; boundary=" + boundary ) )
+                .buffers( parts )
+                .send();
+        return true;
+    }
+
     /**
      * Upgrades the connection to a websocket connection.
      * This method is called when the client wants to upgrade the connection to a websocket connection.
@@ -362,22 +697,29 @@ public class ClientConnection
 
         response.send();
 
-        byte[] byteBuffer = new byte[1024];
-        int bytesRead;
-
         final IWebSocketMessageResponder responder = ( message ) ->
         {
-            try
-            {
-                logger.verbose( "Sending websocket frame to client %s", this.clientAddressStr );
-                clientOut.write( WebSocketFrame.encode( WebSocketMessageType.TEXT, message ) );
-            }
-            catch ( IOException e )
+            logger.verbose( "Sending websocket frame to client %s", this.clientAddressStr );
+            this.sendWebsocketFrame( WebSocketFrame.encode( WebSocketMessageType.TEXT, message ) );
+        };
+
+        // Frames are decoded as they arrive, so frames may span reads and a read may hold several frames.
+        final WebSocketFrameDecoder decoder = new WebSocketFrameDecoder(
+                this.server.getProperty( ServerProperty.WEBSOCKET_MAX_MESSAGE_SIZE, Integer.class ), ( type, payload ) ->
+        {
+            switch ( type )
             {
-                logger.error( "Failed to send websocket frame: " + e.getMessage() );
+                case TEXT, BINARY -> requestHandler.onMessage( new String( payload, StandardCharsets.UTF_8 ), responder );
+                case PING -> this.sendWebsocketFrame( WebSocketFrame.encode( WebSocketMessageType.PONG, payload, true, null ) );
+                // The status code of the client, if it sent one, is echoed back to complete the closing handshake.
+                case CLOSE -> this.sendWebsocketFrame( WebSocketFrame.encode(
+                        WebSocketMessageType.CLOSE, payload.length >= 2 ? new byte[] { payload[ 0 ], payload[ 1 ] } : new byte[ 0 ], true, null ) );
+                default -> { }
             }
-        };
+        } );
 
+        byte[] byteBuffer = new byte[ 8192 ];
+        int bytesRead;
 
         // Continue reading the websocket frames until the connection is closed.
         try
@@ -386,7 +728,7 @@ public class ClientConnection
             {
                 requestHandler.onOpen();
             }
-            while ( ! this.clientSocket.isClosed() && this.clientSocket.isConnected() )
+            while ( ! decoder.isClosed() && ! this.clientSocket.isClosed() && this.clientSocket.isConnected() )
             {
                 if ( ( bytesRead = this.clientIn.read( byteBuffer ) ) == - 1 )
                 {
@@ -394,11 +736,17 @@ public class ClientConnection
                 }
 
                 logger.verbose( "[WebSocket] [%s] - Read %d byte(s)", this.clientAddressStr, bytesRead );
-                WebSocketFrame frame = WebSocketFrame.decode( byteBuffer );
-                logger.verbose( "[WebSocket] [%s] - Decoded frame: %s", this.clientAddressStr, frame.getContent() );
-                requestHandler.onMessage( frame.getContent(), responder );
+                decoder.feed( byteBuffer, 0, bytesRead );
             }
         }
+        catch ( WebSocketProtocolException error )
+        {
+            logger.error( "[WebSocket] [%s] - Closing connection - %s", this.clientAddressStr, error.getMessage() );
+            int code = error.getCloseCode();
+            this.sendWebsocketFrame( WebSocketFrame.encode(
+                    WebSocketMessageType.CLOSE, new byte[] { ( byte ) ( code >> 8 ), ( byte ) code }, true, null ) );
+            requestHandler.onError( error );
+        }
         catch ( IOException error )
         {
             logger.error( "[WebSocket] [%s] - Failed to read websocket frame - %s",
@@ -406,15 +754,37 @@ public class ClientConnection
         }
         catch ( Exception e )
         {
-            logger.error( "[WebSocket] [%s] - Failed to decode websocket frame - %s",
+            logger.error( "[WebSocket] [%s] - Failed to handle websocket message - %s",
                           this.clientAddressStr, e.getMessage() );
+            requestHandler.onError( e );
         }
         finally
         {
+            decoder.release();
             requestHandler.onClose();
         }
     }
 
+    /**
+     * Sends an encoded websocket frame to the client.
+     * Writes are synchronized, so frames sent by handlers on other threads are never interleaved.
+     */
+    private void sendWebsocketFrame( byte[] frame )
+    {
+        try
+        {
+            synchronized ( this.clientOut )
+            {
+                this.clientOut.write( frame );
+                this.clientOut.flush();
+            }
+        }
+        catch ( IOException e )
+        {
+            logger.error( "Failed to send websocket frame: " + e.getMessage() );
+        }
+    }
+
     /**
      * Closes the connection.
      * This method is called when the connection needs to be closed.
@@ -0,0 +1,255 @@
+package nl.getgood.api.server;
+
+import nl.getgood.api.http.EncodedResponse;
+import nl.getgood.api.http.Response;
+import nl.getgood.api.http.StatusCode;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The cross-origin resource sharing (CORS) policy of a server, which determines the origins that may call the API
+ * from a browser, and the headers they may send and read.
+ * <br /> <br />
+ * Origins are matched against a set of exact origins, such as "https://app.example.com", and patterns with a wildcard
+ * subdomain, such as "https://*.example.com". The values of the CORS headers are computed when the policy is configured,
+ * and the response to the preflight request of every route is encoded once, from the methods the route handles,
+ * so preflight requests are answered without running middleware or handlers. Preflight responses carry
+ * `Access-Control-Max-Age`, so browsers reuse them rather than sending a preflight before every request.
+ * <br /> <br />
+ * Created by agent.
+ */
+public final class CorsPolicy
+{
+
+    private final boolean anyOrigin;
+    private final Set<String> origins = new HashSet<>();
+    private final List<String[]> patterns = new ArrayList<>();
+
+    private String allowedHeaders = "Content-Type, Authorization";
+    private String exposedHeaders = null;
+    private boolean allowCredentials = false;
+    private int maxAge = 600;
+
+    private CorsPolicy( boolean anyOrigin )
+    {
+        this.anyOrigin = anyOrigin;
+    }
+
+    /**
+     * Creates a policy that allows all origins.
+     */
+    public static CorsPolicy allowAll()
+    {
+        return new CorsPolicy( true );
+    }
+
+    /**
+     * Creates a policy that allows the given origins.
+     *
+     * @param origins The origins, such as "https://app.example.com", or patterns such as "https://*.example.com",
+     *                which allow the subdomains of a domain, but not the domain itself. The origin "*" allows all origins.
+     * @return The policy.
+     */
+    public static CorsPolicy allowOrigins( String... origins )
+    {
+        CorsPolicy policy = new CorsPolicy( false );
+        for ( String origin : origins )
+        {
+            String normalized = origin.trim().toLowerCase( Locale.ROOT );
+            if ( normalized.equals( "*" ) )
+                return allowAll();
+
+            int wildcard = normalized.indexOf( "://*." );
+            if ( wildcard >= 0 )
+                policy.patterns.add( new String[] { normalized.substring( 0, wildcard + 3 ), normalized.substring( wildcard + 5 ) } );
+            else if ( ! normalized.isEmpty() )
+                policy.origins.add( normalized );
+        }
+        return policy;
+    }
+
+    /**
+     * Sets the request headers that browsers may send, which are "Content-Type" and "Authorization" by default.
+     *
+     * @param headers The names of the headers.
+     * @return The policy.
+     */
+    public CorsPolicy allowHeaders( String... headers )
+    {
+        this.allowedHeaders = headers.length == 0 ? null : String.join( ", ", headers );
+        return this;
+    }
+
+    /**
+     * Sets the response headers that scripts may read, in addition to the headers that are always readable.
+     *
+     * @param headers The names of the headers.
+     * @return The policy.
+     */
+    public CorsPolicy exposeHeaders( String... headers )
+    {
+        this.exposedHeaders = headers.length == 0 ? null : String.join( ", ", headers );
+        return this;
+    }
+
+    /**
+     * Sets whether browsers may send cookies and authorization headers along with requests.
+     * Since credentials cannot be sent to any origin, responses then name the origin of the request.
+     *
+     * @param allowCredentials Whether credentials are allowed.
+     * @return The policy.
+     */
+    public CorsPolicy allowCredentials( boolean allowCredentials )
+    {
+        this.allowCredentials = allowCredentials;
+        return this;
+    }
+
+    /**
+     * Sets how long browsers may reuse the response to a preflight request, which is 10 minutes by default.
+     *
+     * @param seconds The time in seconds.
+     * @return The policy.
+     */
+    public CorsPolicy maxAge( int seconds )
+    {
+        this.maxAge = seconds;
+        return this;
+    }
+
+    /**
+     * Returns whether an origin is allowed.
+     *
+     * @param origin The value of the `Origin` header.
+     * @return Whether the origin is allowed.
+     */
+    public boolean isAllowed( String origin )
+    {
+        if ( this.anyOrigin || this.origins.contains( origin ) )
+            return true;
+
+        for ( String[] pattern : this.patterns )
+        {
+            // The wildcard matches one or more labels: the host must be longer than the domain of the pattern.
+            if ( origin.length() > pattern[0].length() + pattern[1].length() + 1
+                    && origin.startsWith( pattern[0] ) && origin.endsWith( pattern[1] )
+                    && origin.charAt( origin.length() - pattern[1].length() - 1 ) == '.'
+                    && origin.indexOf( '/', pattern[0].length() ) < 0 )
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether an origin is the origin of the server itself, in which case the request is not cross-origin.
+     * Both the scheme and the host must match, so a page served over http is not the same origin as the API
+     * served over https, or the other way around. The server does not terminate TLS itself, so the scheme is http,
+     * unless a proxy that terminates TLS forwards the scheme of the client in the `X-Forwarded-Proto` header.
+     *
+     * @param origin         The value of the `Origin` header.
+     * @param forwardedProto The value of the `X-Forwarded-Proto` header, or null if the request has none.
+     * @param host           The value of the `Host` header, or null if the request has none.
+     */
+    static boolean isSameOrigin( String origin, String forwardedProto, String host )
+    {
+        if ( host == null )
+            return false;
+
+        String scheme = "http";
+        if ( forwardedProto != null )
+        {
+            // Proxies that append to the header leave the scheme of the client first.
+            int comma = forwardedProto.indexOf( ',' );
+            scheme = ( comma < 0 ? forwardedProto : forwardedProto.substring( 0, comma ) ).trim();
+        }
+
+        int start = scheme.length() + 3;
+        return origin.length() == start + host.length()
+                && origin.regionMatches( true, 0, scheme, 0, scheme.length() )
+                && origin.startsWith( "://", scheme.length() )
+                && origin.regionMatches( true, start, host, 0, host.length() );
+    }
+
+    /**
+     * Adds the CORS headers to the response to a cross-origin request from an allowed origin.
+     *
+     * @param response The response.
+     * @param origin   The value of the `Origin` header.
+     */
+    void apply( Response response, String origin )
+    {
+        this.applyOrigin( response, origin );
+        if ( this.allowCredentials )
+            response.header( "Access-Control-Allow-Credentials", "true" );
+        if ( this.exposedHeaders != null )
+            response.header( "Access-Control-Expose-Headers", this.exposedHeaders );
+    }
+
+    /**
+     * Answers a preflight request with the encoded preflight response of its route.
+     *
+     * @param response The response.
+     * @param route    The route of the request.
+     * @param origin   The value of the `Origin` header.
+     */
+    void preflight( Response response, RouteTable.Route route, String origin )
+    {
+        // Routes are compiled again when the policy changes, so the encoded response of a route never goes stale.
+        EncodedResponse preflight = route.preflight;
+        if ( preflight == null )
+            route.preflight = preflight = this.encodePreflight( route.allow() );
+
+        response.encoded( preflight );
+        if ( ! this.isOriginConstant() )
+            response.header( "Access-Control-Allow-Origin", origin );
+    }
+
+    /**
+     * Returns whether every allowed origin receives the same `Access-Control-Allow-Origin` header,
+     * rather than the one naming its origin.
+     */
+    private boolean isOriginConstant()
+    {
+        return this.anyOrigin && ! this.allowCredentials;
+    }
+
+    private void applyOrigin( Response response, String origin )
+    {
+        if ( this.isOriginConstant() )
+        {
+            response.header( "Access-Control-Allow-Origin", "*" );
+            return;
+        }
+
+        response.header( "Access-Control-Allow-Origin", origin );
+        String vary = response.getHeader( "Vary" );
+        response.header( "Vary", vary == null ? "Origin" : vary + ", Origin" );
+    }
+
+    /**
+     * Encodes the response to the preflight requests of a route. The `Access-Control-Allow-Origin` header
+     * is only part of it if it is the same for all origins.
+     *
+     * @param allow The methods the route handles.
+     */
+    private EncodedResponse encodePreflight( String allow )
+    {
+        Response preflight = new Response( null ).status( StatusCode.NO_CONTENT )
+                .header( "Access-Control-Allow-Methods", allow )
+                .header( "Access-Control-Max-Age", Integer.toString( this.maxAge ) );
+        if ( this.allowedHeaders != null )
+            preflight.header( "Access-Control-Allow-Headers", this.allowedHeaders );
+        if ( this.allowCredentials )
+            preflight.header( "Access-Control-Allow-Credentials", "true" );
+
+        if ( this.isOriginConstant() )
+            preflight.header( "Access-Control-Allow-Origin", "*" );
+        else
+            preflight.header( "Vary", "Origin" );
+        return preflight.encode();
+    }
+}
@@ -0,0 +1,89 @@
+package nl.getgood.api.server;
+
+import nl.getgood.api.Logger;
+import nl.getgood.api.cache.WeightedLruCache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A cache of memory-mapped static files.
+ * Large files that are requested in ranges are mapped once and shared by all requests,
+ * so that concurrent range readers, such as media players seeking through a video,
+ * don't each have to open and read the file. The mapped memory is managed by the
+ * operating system's page cache, so it does not count towards the heap.
+ * <br /> <br />
+ * Entries are keyed by path, modification time and size, so a changed file is mapped again,
+ * and the stale mapping is evicted once it is no longer used. A mapping is only released
+ * once its buffer has been garbage collected.
+ * <br /> <br />
+ * Created by agent.
+ */
+public class MappedFileCache
+{
+
+    private static final Logger logger = Logger.getLogger();
+
+    private final WeightedLruCache<String, MappedByteBuffer> mappings;
+
+    /**
+     * Creates a new mapped file cache.
+     *
+     * @param maximumSize The maximum amount of bytes that may be mapped at once.
+     */
+    public MappedFileCache( long maximumSize )
+    {
+        this.mappings = new WeightedLruCache<>( maximumSize, MappedByteBuffer::capacity );
+    }
+
+    /**
+     * Returns the mapped content of a static file, mapping it if it is not mapped yet.
+     * The returned buffer is shared between requests, so its position and limit must not be changed;
+     * use `slice( index, length )` to obtain a buffer for a range of the file.
+     *
+     * @param file The file to map.
+     * @return The mapped content, or null if the file is too large to be mapped or could not be mapped.
+     */
+    ByteBuffer map( StaticFileCache.StaticFile file )
+    {
+        if ( file.size() > Integer.MAX_VALUE || file.size() > this.mappings.maximumWeight() )
+            return null;
+
+        String key = file.path().toString() + '@' + file.lastModified() + ':' + file.size();
+        MappedByteBuffer mapping = this.mappings.get( key );
+        if ( mapping != null )
+            return mapping;
+
+        try ( FileChannel channel = FileChannel.open( file.path(), StandardOpenOption.READ ) )
+        {
+            // Concurrent requests may map the same file twice, in which case one mapping is simply dropped.
+            mapping = channel.map( FileChannel.MapMode.READ_ONLY, 0, file.size() );
+            this.mappings.put( key, mapping );
+            return mapping;
+        }
+        catch ( IOException e )
+        {
+            logger.error( "Failed to map static file " + file.path() + ": " + e.getMessage() );
+            return null;
+        }
+    }
+
+    /**
+     * Returns the amount of files that are mapped.
+     */
+    public int size()
+    {
+        return this.mappings.size();
+    }
+
+    /**
+     * Returns the amount of bytes that are mapped.
+     */
+    public long mappedBytes()
+    {
+        return this.mappings.weight();
+    }
+}
@@ -18,6 +18,7 @@ public class RegisteredApiRoute
     private final String route;
     private final RequestMethod requestMethod;
     private final IRequestHandler requestHandler;
+    private final String bulkhead;
 
     /**
      * Creates a new API route entry instance.
@@ -31,10 +32,24 @@ public class RegisteredApiRoute
      *                       For example: RequestMethod.GET or RequestMethod.POST.
      */
     public RegisteredApiRoute( String route, IRequestHandler requestHandler, RequestMethod requestMethod )
+    {
+        this( route, requestHandler, requestMethod, null );
+    }
+
+    /**
+     * Creates a new API route entry instance, which is handled in a bulkhead.
+     *
+     * @param route          The route of the API endpoint.
+     * @param requestHandler The request handler that will be called when the route is requested.
+     * @param requestMethod  The request method of the route.
+     * @param bulkhead       The name of the bulkhead the route is handled in, or null to handle it on the connection thread.
+     */
+    public RegisteredApiRoute( String route, IRequestHandler requestHandler, RequestMethod requestMethod, String bulkhead )
     {
         this.route = route;
         this.requestHandler = requestHandler;
         this.requestMethod = requestMethod;
+        this.bulkhead = bulkhead == null || bulkhead.isEmpty() ? null : bulkhead;
     }
 
     /**
@@ -66,4 +81,14 @@ public class RegisteredApiRoute
     {
         return requestHandler;
     }
+
+    /**
+     * Gets the name of the bulkhead the route is handled in.
+     *
+     * @return The name of the bulkhead, or null if the route is handled on the connection thread.
+     */
+    public String getBulkhead()
+    {
+        return bulkhead;
+    }
 }
@@ -0,0 +1,205 @@
+package nl.getgood.api.server;
+
+import nl.getgood.api.http.IAsyncRequestHandler;
+import nl.getgood.api.http.IRequestHandler;
+import nl.getgood.api.http.Request;
+import nl.getgood.api.http.RequestMethod;
+import nl.getgood.api.http.Response;
+
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces identical GET and HEAD requests that arrive whilst one of them is being handled.
+ * The first request runs the handler, and the requests that arrive before it completes wait for it
+ * and receive a copy of its status, the headers its handler set and its body, instead of running the handler themselves.
+ * This prevents a burst of identical requests from repeating the same work, for example the same database query.
+ * <br /> <br />
+ * Requests are identical if they have the same method, path, query and values of the selected headers.
+ * Nothing is kept after the first request completes, so a request that arrives later runs the handler again
+ * and never receives stale data. Responses that are streamed or set cookies are not shared; waiting requests then run
+ * the handler themselves. Headers that were set before the handler ran, such as those of middleware and the CORS policy,
+ * are never shared, since they belong to the request they were set for.
+ * <br /> <br />
+ * Created by agent.
+ */
+public class RequestCoalescer
+{
+
+    private final String[] headers;
+    private final ConcurrentHashMap<String, CompletableFuture<Response>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Creates a new request coalescer.
+     *
+     * @param headers The names of the request headers that the response depends on, such as "Authorization".
+     *                Requests are only coalesced if these headers have the same values.
+     */
+    public RequestCoalescer( String... headers )
+    {
+        this.headers = new String[ headers.length ];
+        for ( int i = 0; i < headers.length; i++ )
+            this.headers[ i ] = headers[ i ].toLowerCase( Locale.ROOT );
+    }
+
+    /**
+     * Wraps a request handler, so that identical concurrent requests are handled by it only once.
+     * Asynchronous route handlers are wrapped without blocking the requests that wait.
+     *
+     * @param handler The handler to wrap.
+     * @return The coalescing handler.
+     */
+    public IRequestHandler coalesce( IRequestHandler handler )
+    {
+        if ( handler instanceof AsyncRouteHandler asyncHandler )
+            return new AsyncRouteHandler( this.coalesceAsync( asyncHandler.getHandler() ), asyncHandler.getTimeout() );
+
+        return ( request, response ) ->
+        {
+            String key = this.key( request );
+            if ( key == null )
+            {
+                handler.handleRequest( request, response );
+                return;
+            }
+
+            CompletableFuture<Response> flight = new CompletableFuture<>();
+            CompletableFuture<Response> leader = this.inFlight.putIfAbsent( key, flight );
+            if ( leader != null )
+            {
+                this.coalesced.incrementAndGet();
+                Response snapshot;
+                try
+                {
+                    snapshot = leader.join();
+                }
+                catch ( CompletionException e )
+                {
+                    throw e.getCause() instanceof RuntimeException cause ? cause : e;
+                }
+                if ( snapshot == null || ! snapshot.copyTo( response ) )
+                    handler.handleRequest( request, response );
+                return;
+            }
+
+            try
+            {
+                handler.handleRequest( request, response );
+                this.complete( key, flight, response, null );
+            }
+            catch ( Throwable e )
+            {
+                this.complete( key, flight, response, e );
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * Wraps an asynchronous request handler, so that identical concurrent requests are handled by it only once.
+     *
+     * @param handler The handler to wrap.
+     * @return The coalescing handler.
+     */
+    public IAsyncRequestHandler coalesceAsync( IAsyncRequestHandler handler )
+    {
+        return ( request, response ) ->
+        {
+            String key = this.key( request );
+            if ( key == null )
+                return handler.handleRequest( request, response );
+
+            CompletableFuture<Response> flight = new CompletableFuture<>();
+            CompletableFuture<Response> leader = this.inFlight.putIfAbsent( key, flight );
+            if ( leader != null )
+            {
+                this.coalesced.incrementAndGet();
+                return leader.thenCompose( snapshot -> snapshot != null && snapshot.copyTo( response ) ?
+                        CompletableFuture.completedFuture( null ) : handler.handleRequest( request, response ) );
+            }
+
+            CompletionStage<?> stage;
+            try
+            {
+                stage = handler.handleRequest( request, response );
+            }
+            catch ( Throwable e )
+            {
+                this.complete( key, flight, response, e );
+                throw e;
+            }
+            if ( stage == null )
+            {
+                this.complete( key, flight, response, null );
+                return null;
+            }
+            // The snapshot is taken before the response is sent, since sending it adds headers that depend on the client.
+            return stage.whenComplete( ( result, error ) -> this.complete( key, flight, response, error ) );
+        };
+    }
+
+    /**
+     * Returns the amount of requests that received the response of an identical request.
+     */
+    public long coalesced()
+    {
+        return this.coalesced.get();
+    }
+
+    /**
+     * Returns the amount of distinct requests that are being handled.
+     */
+    public int inFlight()
+    {
+        return this.inFlight.size();
+    }
+
+    /**
+     * Completes the flight of a request, and passes a snapshot of its response to the requests that wait for it.
+     * Responses that set cookies are not passed on, since the cookies belong to the client of the first request.
+     */
+    private void complete( String key, CompletableFuture<Response> flight, Response response, Throwable error )
+    {
+        this.inFlight.remove( key, flight );
+        if ( error != null )
+        {
+            flight.completeExceptionally( error );
+            return;
+        }
+
+        Response snapshot = new Response( null );
+        flight.complete( response.getHeader( "Set-Cookie" ) == null && response.copyTo( snapshot ) ? snapshot : null );
+    }
+
+    /**
+     * Builds the key that identifies identical requests.
+     *
+     * @return The key, or null if requests with this method must not be coalesced.
+     */
+    private String key( Request request )
+    {
+        if ( request.requestMethod != RequestMethod.GET && request.requestMethod != RequestMethod.HEAD )
+            return null;
+
+        StringBuilder key = new StringBuilder( 64 )
+                .append( request.requestMethod.ordinal() )
+                .append( ' ' ).append( request.uri.getRawPath() )
+                .append( '?' );
+        if ( request.uri.getRawQuery() != null )
+            key.append( request.uri.getRawQuery() );
+
+        for ( String header : this.headers )
+        {
+            String value = request.headers.get( header );
+            key.append( '\n' );
+            if ( value != null )
+                key.append( value.length() ).append( ':' ).append( value );
+        }
+        return key.toString();
+    }
+}
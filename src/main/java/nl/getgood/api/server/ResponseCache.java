@@ -0,0 +1,415 @@
+package nl.getgood.api.server;
+
+import nl.getgood.api.Logger;
+import nl.getgood.api.cache.WeightedLruCache;
+import nl.getgood.api.http.ContentEncoding;
+import nl.getgood.api.http.EncodedResponse;
+import nl.getgood.api.http.IAsyncRequestHandler;
+import nl.getgood.api.http.IRequestHandler;
+import nl.getgood.api.http.Request;
+import nl.getgood.api.http.RequestMethod;
+import nl.getgood.api.http.Response;
+import nl.getgood.api.http.StatusCode;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache for the responses of API routes, which routes opt into with {@link #cached(IRequestHandler, long)}
+ * or with {@link Route#cacheTtl()}. Cached responses are stored encoded, so a hit is answered with the
+ * encoded bytes, without invoking the handler, building the head or compressing the body.
+ * <br /> <br />
+ * Responses are cached for GET and HEAD requests, keyed by their path, query, the values of the selected
+ * request headers and the content encoding that is negotiated with the client. Only `200 OK` responses
+ * without cookies are cached, and only with the headers their handler set. Headers that were set before the handler ran,
+ * such as the CORS and rate limit headers of middleware, are set for every request and replace cached headers of the same name. An entry is fresh for the time to live of its route, after which it may be served
+ * stale for a while longer, whilst it is revalidated in the background.
+ * <br /> <br />
+ * Entries are invalidated by path with {@link #invalidate(String)}, or by tag with {@link #invalidateTag(String)},
+ * for example from the POST handler that changes the data. The cache is bounded by the total size of its entries
+ * and evicts the least recently used entries.
+ * <br /> <br />
+ * Created by agent.
+ */
+public class ResponseCache
+{
+
+    /**
+     * The estimated amount of memory an entry uses in addition to its encoded bytes.
+     */
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private static final Logger logger = Logger.getLogger();
+
+    private final WeightedLruCache<String, Entry> entries;
+
+    /**
+     * The amount of invalidations so far. Responses that were being built whilst an invalidation happened
+     * are not stored, since they may hold the data that was invalidated.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Creates a new response cache.
+     *
+     * @param maximumSize The maximum amount of bytes the cache may hold.
+     */
+    public ResponseCache( long maximumSize )
+    {
+        this.entries = new WeightedLruCache<>( maximumSize, entry -> entry.response.size() + ENTRY_OVERHEAD );
+    }
+
+    /**
+     * Wraps a request handler, so that its responses are cached in the response cache of the server.
+     *
+     * @param handler The handler to wrap.
+     * @param ttl     The time in milliseconds a response is fresh.
+     * @return The caching handler.
+     */
+    public static IRequestHandler cached( IRequestHandler handler, long ttl )
+    {
+        return cached( handler, ttl, 0, new String[ 0 ] );
+    }
+
+    /**
+     * Wraps a request handler, so that its responses are cached in the response cache of the server.
+     * Asynchronous route handlers are wrapped as well, and remain asynchronous.
+     *
+     * @param handler              The handler to wrap.
+     * @param ttl                  The time in milliseconds a response is fresh.
+     * @param staleWhileRevalidate The time in milliseconds a response may be served after it became stale,
+     *                             whilst it is revalidated in the background.
+     * @param tags                 The tags of the responses, which they can be invalidated by.
+     *                             Segments of a tag that start with ':' are replaced by the path parameter of that name,
+     *                             so the tag "users/:id" of the route "/users/:id" becomes "users/42".
+     * @param headers              The names of the request headers that the response depends on, such as "Authorization".
+     * @return The caching handler.
+     */
+    public static IRequestHandler cached( IRequestHandler handler, long ttl, long staleWhileRevalidate, String[] tags, String... headers )
+    {
+        Policy policy = new Policy( ttl, staleWhileRevalidate, tags, headers );
+        if ( handler instanceof AsyncRouteHandler asyncHandler )
+            return new AsyncRouteHandler( policy.applyAsync( asyncHandler.getHandler() ), asyncHandler.getTimeout() );
+        return policy.apply( handler );
+    }
+
+    /**
+     * Removes all cached responses of a path, regardless of their query or headers.
+     *
+     * @param path The path of the responses, for example "/v1/users/42".
+     */
+    public void invalidate( String path )
+    {
+        this.generation.incrementAndGet();
+        this.entries.invalidateIf( ( key, entry ) -> entry.path.equals( path ) );
+    }
+
+    /**
+     * Removes all cached responses with a tag.
+     *
+     * @param tag The tag of the responses, with its path parameters filled in.
+     */
+    public void invalidateTag( String tag )
+    {
+        this.generation.incrementAndGet();
+        this.entries.invalidateIf( ( key, entry ) -> entry.tags.contains( tag ) );
+    }
+
+    /**
+     * Removes all cached responses.
+     */
+    public void clear()
+    {
+        this.generation.incrementAndGet();
+        this.entries.clear();
+    }
+
+    /**
+     * Returns the amount of cached responses.
+     */
+    public int size()
+    {
+        return this.entries.size();
+    }
+
+    /**
+     * Returns the estimated amount of memory the cached responses use, in bytes.
+     */
+    public long memoryUsage()
+    {
+        return this.entries.weight();
+    }
+
+    /**
+     * Returns the amount of requests that were answered from the cache.
+     */
+    public long hits()
+    {
+        return this.entries.hits();
+    }
+
+    /**
+     * Returns the amount of requests that were not answered from the cache.
+     */
+    public long misses()
+    {
+        return this.entries.misses();
+    }
+
+    /**
+     * Returns the ratio of requests that were answered from the cache, between 0 and 1.
+     */
+    public double hitRatio()
+    {
+        return this.entries.hitRatio();
+    }
+
+    /**
+     * Stores the response to a request, if it may be cached.
+     *
+     * @param key        The key of the request.
+     * @param policy     The cache policy of the route.
+     * @param request    The request that was answered.
+     * @param response   The response to store.
+     * @param generation The generation of the cache when the handler was invoked.
+     * @return The encoded response, or null if the response could not be encoded.
+     */
+    private EncodedResponse store( String key, Policy policy, Request request, Response response, long generation )
+    {
+        if ( response.getStatusCode() != StatusCode.OK || response.getHeader( "Set-Cookie" ) != null )
+            return null;
+
+        EncodedResponse encoded = response.encode();
+        if ( encoded == null )
+            return null;
+
+        if ( this.generation.get() == generation )
+        {
+            long now = System.currentTimeMillis();
+            this.entries.put( key, new Entry( encoded, request.uri.getRawPath(), policy.tags( request ),
+                                              now + policy.ttl, now + policy.ttl + policy.staleWhileRevalidate ) );
+        }
+        return encoded;
+    }
+
+    /**
+     * The cache policy of a route.
+     */
+    private static final class Policy
+    {
+        private final long ttl;
+        private final long staleWhileRevalidate;
+        private final String[] tags;
+        private final String[] headers;
+
+        private Policy( long ttl, long staleWhileRevalidate, String[] tags, String[] headers )
+        {
+            this.ttl = ttl;
+            this.staleWhileRevalidate = staleWhileRevalidate;
+            this.tags = tags.clone();
+            this.headers = new String[ headers.length ];
+            for ( int i = 0; i < headers.length; i++ )
+                this.headers[ i ] = headers[ i ].toLowerCase( Locale.ROOT );
+        }
+
+        private IRequestHandler apply( IRequestHandler handler )
+        {
+            return ( request, response ) ->
+            {
+                ResponseCache cache = request.server != null ? request.server.getResponseCache() : null;
+                if ( cache == null || ! isCacheable( request ) )
+                {
+                    handler.handleRequest( request, response );
+                    return;
+                }
+
+                String key = this.key( request );
+                Entry entry = cache.entries.get( key );
+                long now = System.currentTimeMillis();
+                if ( entry != null && now < entry.staleUntil )
+                {
+                    if ( now >= entry.expires && entry.revalidating.compareAndSet( false, true ) )
+                        request.server.threadPool.execute( () -> this.revalidate( cache, key, entry, handler, request ) );
+                    response.encoded( entry.response );
+                    return;
+                }
+
+                long generation = cache.generation.get();
+                handler.handleRequest( request, response );
+                EncodedResponse encoded = cache.store( key, this, request, response, generation );
+                if ( encoded != null )
+                    response.encoded( encoded );
+            };
+        }
+
+        private IAsyncRequestHandler applyAsync( IAsyncRequestHandler handler )
+        {
+            return ( request, response ) ->
+            {
+                ResponseCache cache = request.server != null ? request.server.getResponseCache() : null;
+                if ( cache == null || ! isCacheable( request ) )
+                    return handler.handleRequest( request, response );
+
+                String key = this.key( request );
+                Entry entry = cache.entries.get( key );
+                long now = System.currentTimeMillis();
+                if ( entry != null && now < entry.staleUntil )
+                {
+                    if ( now >= entry.expires && entry.revalidating.compareAndSet( false, true ) )
+                        this.revalidateAsync( cache, key, entry, handler, request );
+                    response.encoded( entry.response );
+                    return null;
+                }
+
+                long generation = cache.generation.get();
+                CompletionStage<?> stage = handler.handleRequest( request, response );
+                if ( stage == null )
+                {
+                    EncodedResponse encoded = cache.store( key, this, request, response, generation );
+                    if ( encoded != null )
+                        response.encoded( encoded );
+                    return null;
+                }
+                return stage.thenRun( () ->
+                {
+                    EncodedResponse encoded = cache.store( key, this, request, response, generation );
+                    if ( encoded != null )
+                        response.encoded( encoded );
+                } );
+            };
+        }
+
+        /**
+         * Invokes the handler again for a stale entry, and stores its response.
+         */
+        private void revalidate( ResponseCache cache, String key, Entry stale, IRequestHandler handler, Request request )
+        {
+            try
+            {
+                Response response = new Response( null ).bind( request );
+                long generation = cache.generation.get();
+                handler.handleRequest( request, response );
+                cache.store( key, this, request, response, generation );
+            }
+            catch ( Exception e )
+            {
+                logger.error( "Failed to revalidate cached response of \"" + request.uri.getPath() + "\": " + e.getMessage() );
+            }
+            finally
+            {
+                // If the entry could not be replaced, it may be revalidated again.
+                stale.revalidating.set( false );
+            }
+        }
+
+        /**
+         * Invokes the asynchronous handler again for a stale entry, and stores its response once it completes.
+         */
+        private void revalidateAsync( ResponseCache cache, String key, Entry stale, IAsyncRequestHandler handler, Request request )
+        {
+            Response response = new Response( null ).bind( request );
+            long generation = cache.generation.get();
+            try
+            {
+                CompletionStage<?> stage = handler.handleRequest( request, response );
+                if ( stage == null )
+                {
+                    cache.store( key, this, request, response, generation );
+                    stale.revalidating.set( false );
+                    return;
+                }
+                stage.whenComplete( ( result, error ) ->
+                {
+                    if ( error == null )
+                        cache.store( key, this, request, response, generation );
+                    else
+                        logger.error( "Failed to revalidate cached response of \"" + request.uri.getPath() + "\": " + error );
+                    stale.revalidating.set( false );
+                } );
+            }
+            catch ( Exception e )
+            {
+                logger.error( "Failed to revalidate cached response of \"" + request.uri.getPath() + "\": " + e.getMessage() );
+                stale.revalidating.set( false );
+            }
+        }
+
+        /**
+         * Builds the key of a request, from its path, query, selected headers and negotiated content encoding.
+         * The encoding is part of the key, since the cached body is compressed with it.
+         */
+        private String key( Request request )
+        {
+            StringBuilder key = new StringBuilder( 64 )
+                    .append( request.uri.getRawPath() )
+                    .append( '?' );
+            if ( request.uri.getRawQuery() != null )
+                key.append( request.uri.getRawQuery() );
+
+            for ( String header : this.headers )
+            {
+                String value = request.headers.get( header );
+                key.append( '\n' );
+                if ( value != null )
+                    key.append( value.length() ).append( ':' ).append( value );
+            }
+
+            ContentEncoding encoding = request.server.getCompressor() != null ?
+                    ContentEncoding.negotiate( request.headers.get( "accept-encoding" ) ) : ContentEncoding.IDENTITY;
+            return key.append( '\n' ).append( encoding.ordinal() ).toString();
+        }
+
+        /**
+         * Resolves the tags of a response, by filling in the path parameters of the request.
+         */
+        private Set<String> tags( Request request )
+        {
+            if ( this.tags.length == 0 )
+                return Set.of();
+
+            String[] resolved = new String[ this.tags.length ];
+            for ( int i = 0; i < this.tags.length; i++ )
+            {
+                String[] segments = this.tags[ i ].split( "/", - 1 );
+                for ( int j = 0; j < segments.length; j++ )
+                {
+                    if ( segments[ j ].length() > 1 && segments[ j ].charAt( 0 ) == ':' )
+                        segments[ j ] = request.pathParameters.getOrDefault( segments[ j ].substring( 1 ), "" );
+                }
+                resolved[ i ] = String.join( "/", segments );
+            }
+            return Set.copyOf( Arrays.asList( resolved ) );
+        }
+
+        private static boolean isCacheable( Request request )
+        {
+            return request.requestMethod == RequestMethod.GET || request.requestMethod == RequestMethod.HEAD;
+        }
+    }
+
+    /**
+     * A cached response, with the path and tags it is invalidated by.
+     */
+    private static final class Entry
+    {
+        private final EncodedResponse response;
+        private final String path;
+        private final Set<String> tags;
+        private final long expires;
+        private final long staleUntil;
+        private final AtomicBoolean revalidating = new AtomicBoolean();
+
+        private Entry( EncodedResponse response, String path, Set<String> tags, long expires, long staleUntil )
+        {
+            this.response = response;
+            this.path = path;
+            this.tags = tags;
+            this.expires = expires;
+            this.staleUntil = staleUntil;
+        }
+    }
+}
@@ -19,4 +19,56 @@ public @interface Route
 {
     String route();
     RequestMethod method();
+
+    /**
+     * Whether responses of this route should carry an entity tag that is generated from
+     * a hash of the body, allowing clients to revalidate them with `If-None-Match`.
+     */
+    boolean etag() default false;
+
+    /**
+     * The time in milliseconds a route method that returns a {@link java.util.concurrent.CompletionStage}
+     * has to complete its response, or 0 to use {@link ServerProperty#ASYNC_TIMEOUT}.
+     */
+    long timeout() default 0;
+
+    /**
+     * The name of the bulkhead the route is handled in, which must be defined with {@link Server#bulkhead(String, int, int)}
+     * before the module is added. By default, routes are handled on the connection thread.
+     */
+    String bulkhead() default "";
+
+    /**
+     * Whether identical GET and HEAD requests that arrive whilst one of them is being handled
+     * should share its response, rather than invoking the route method again. See {@link RequestCoalescer}.
+     */
+    boolean coalesce() default false;
+
+    /**
+     * The names of the request headers the response of the route depends on, such as "Authorization".
+     * Requests are only coalesced if these headers have the same values.
+     */
+    String[] coalesceHeaders() default {};
+
+    /**
+     * The time in milliseconds the responses of the route are cached in the {@link ResponseCache} of the server,
+     * or 0 to not cache them.
+     */
+    long cacheTtl() default 0;
+
+    /**
+     * The time in milliseconds a cached response may be served after it became stale, whilst it is revalidated in the background.
+     */
+    long staleWhileRevalidate() default 0;
+
+    /**
+     * The tags of the cached responses, which they can be invalidated by with {@link ResponseCache#invalidateTag(String)}.
+     * Segments that start with ':' are replaced by the path parameter of that name, such as "users/:id".
+     */
+    String[] cacheTags() default {};
+
+    /**
+     * The names of the request headers the cached responses depend on, such as "Authorization".
+     */
+    String[] cacheHeaders() default {};
 }
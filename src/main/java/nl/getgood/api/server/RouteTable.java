@@ -0,0 +1,241 @@
+package nl.getgood.api.server;
+
+import nl.getgood.api.http.EncodedResponse;
+import nl.getgood.api.http.IRequestHandler;
+import nl.getgood.api.http.RequestMethod;
+import nl.getgood.api.middleware.Middleware;
+import nl.getgood.api.middleware.MiddlewareScope;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, compiled form of a {@link RouteTree}, which is used to dispatch requests.
+ * Every route holds its handlers in an array indexed by {@link RequestMethod#ordinal()},
+ * and the value of the `Allow` header for `405 Method Not Allowed` responses is computed up front.
+ * The scoped middleware that applies to a route is selected up front as well, into a chain per request method.
+ * <br /> <br />
+ * Since a table never changes after it is compiled, it can be shared by all connection threads
+ * without locking. Routes that are registered whilst the server is running are published
+ * by compiling a new table and replacing the old one as a whole.
+ * <br /> <br />
+ * Created by agent.
+ */
+public final class RouteTable
+{
+
+    /**
+     * A table without any routes.
+     */
+    public static final RouteTable EMPTY = new RouteTable(
+            new Node( "", new char[ 0 ], new Node[ 0 ], null, null, null ), Map.of(), 0 );
+
+    private static final RequestMethod[] METHODS = RequestMethod.values();
+    private static final Middleware[] NO_MIDDLEWARE = new Middleware[ 0 ];
+
+    private final Node root;
+    private final Map<String, Route> staticRoutes;
+    private final int size;
+
+    RouteTable( Node root, Map<String, Route> staticRoutes, int size )
+    {
+        this.root = root;
+        // A hash map is faster to query than the immutable maps of Map.copyOf, and is never modified after this.
+        this.staticRoutes = new HashMap<>( staticRoutes );
+        this.size = size;
+    }
+
+    /**
+     * Finds the route that matches the path.
+     * Static segments take priority over parameters, which take priority over wildcards.
+     *
+     * @param path       The request path.
+     * @param parameters The map the values of the dynamic segments of the matching route are put in, by name.
+     * @return The matching route, or null if no route matches.
+     */
+    public Route lookup( String path, Map<String, String> parameters )
+    {
+        Route route = this.staticRoutes.get( path );
+        if ( route != null )
+            return route;
+
+        Node node = match( this.root, path, 0, parameters );
+        return node == null ? null : node.route;
+    }
+
+    /**
+     * Returns the amount of routes in the table.
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Matches the remainder of the path, starting at the index, against the children of the node.
+     * Branches are tried in order of priority, and abandoned branches have their parameters removed.
+     */
+    private static Node match( Node node, String path, int index, Map<String, String> parameters )
+    {
+        if ( index == path.length() && node.route != null )
+            return node;
+
+        if ( index < path.length() )
+        {
+            char c = path.charAt( index );
+            for ( int i = 0; i < node.indices.length; i++ )
+            {
+                if ( node.indices[i] != c )
+                    continue;
+
+                Node child = node.children[i];
+                if ( path.startsWith( child.prefix, index ) )
+                {
+                    Node match = match( child, path, index + child.prefix.length(), parameters );
+                    if ( match != null )
+                        return match;
+                }
+                break;
+            }
+
+            if ( node.parameter != null )
+            {
+                int end = path.indexOf( '/', index );
+                if ( end < 0 )
+                    end = path.length();
+                if ( end > index )
+                {
+                    parameters.put( node.parameter.prefix, path.substring( index, end ) );
+                    Node match = match( node.parameter, path, end, parameters );
+                    if ( match != null )
+                        return match;
+                    parameters.remove( node.parameter.prefix );
+                }
+            }
+        }
+
+        if ( node.wildcard != null && node.wildcard.route != null )
+        {
+            parameters.put( node.wildcard.prefix, path.substring( index ) );
+            return node.wildcard;
+        }
+        return null;
+    }
+
+    /**
+     * Creates a compiled route from the handlers of a route.
+     * HEAD requests are answered by the GET handler, unless a HEAD handler is registered,
+     * in which case they also run the middleware of GET requests.
+     *
+     * @param pattern    The route as it was registered.
+     * @param handlers   The handlers of the route, by request method.
+     * @param middleware The scoped middleware of the server, in the order it was added.
+     */
+    static Route compileRoute( String pattern, Map<RequestMethod, IRequestHandler> handlers, List<ScopedMiddleware> middleware )
+    {
+        IRequestHandler[] byMethod = new IRequestHandler[ METHODS.length ];
+        Middleware[][] chains = new Middleware[ METHODS.length ][];
+        handlers.forEach( ( method, handler ) ->
+        {
+            byMethod[method.ordinal()] = handler;
+            chains[method.ordinal()] = chain( pattern, method, middleware );
+        } );
+        if ( byMethod[RequestMethod.HEAD.ordinal()] == null )
+        {
+            byMethod[RequestMethod.HEAD.ordinal()] = byMethod[RequestMethod.GET.ordinal()];
+            chains[RequestMethod.HEAD.ordinal()] = chains[RequestMethod.GET.ordinal()];
+        }
+
+        StringBuilder allow = new StringBuilder();
+        for ( RequestMethod method : METHODS )
+        {
+            if ( byMethod[method.ordinal()] != null )
+                allow.append( allow.isEmpty() ? "" : ", " ).append( method.name() );
+        }
+        return new Route( pattern, byMethod, chains, allow.toString() );
+    }
+
+    /**
+     * Selects the middleware that applies to a route and request method.
+     */
+    private static Middleware[] chain( String pattern, RequestMethod method, List<ScopedMiddleware> middleware )
+    {
+        List<Middleware> chain = new ArrayList<>();
+        for ( ScopedMiddleware scoped : middleware )
+        {
+            if ( scoped.scope().appliesTo( pattern, method ) )
+                chain.add( scoped.middleware() );
+        }
+        return chain.isEmpty() ? NO_MIDDLEWARE : chain.toArray( new Middleware[ 0 ] );
+    }
+
+    /**
+     * A compiled route.
+     */
+    public static final class Route
+    {
+        private final String pattern;
+        private final IRequestHandler[] handlers;
+        private final Middleware[][] middleware;
+        private final String allow;
+
+        /**
+         * The response to preflight requests, which is encoded by the CORS policy of the server when it is first needed.
+         */
+        volatile EncodedResponse preflight;
+
+        private Route( String pattern, IRequestHandler[] handlers, Middleware[][] middleware, String allow )
+        {
+            this.pattern = pattern;
+            this.handlers = handlers;
+            this.middleware = middleware;
+            this.allow = allow;
+        }
+
+        /**
+         * Returns the handler of the request method, or null if the route does not handle the method.
+         */
+        public IRequestHandler handler( RequestMethod method )
+        {
+            return this.handlers[method.ordinal()];
+        }
+
+        /**
+         * Returns the scoped middleware that requests with the method run, in order.
+         * The array is shared and must not be modified.
+         */
+        public Middleware[] middleware( RequestMethod method )
+        {
+            Middleware[] chain = this.middleware[method.ordinal()];
+            return chain != null ? chain : NO_MIDDLEWARE;
+        }
+
+        /**
+         * Returns the value of the `Allow` header, listing the methods the route handles.
+         */
+        public String allow()
+        {
+            return this.allow;
+        }
+
+        /**
+         * Returns the route as it was registered, for example "/users/:id".
+         */
+        public String pattern()
+        {
+            return this.pattern;
+        }
+    }
+
+    /**
+     * A node of the compiled tree. The fields mirror those of the nodes of {@link RouteTree}.
+     */
+    record Node( String prefix, char[] indices, Node[] children, Node parameter, Node wildcard, Route route ) {}
+
+    /**
+     * A middleware of the server, with the scope of routes it applies to.
+     */
+    record ScopedMiddleware( MiddlewareScope scope, Middleware middleware ) {}
+}
@@ -0,0 +1,245 @@
+package nl.getgood.api.server;
+
+import nl.getgood.api.http.IRequestHandler;
+import nl.getgood.api.http.RequestMethod;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compressed radix tree of API routes.
+ * Routes consist of static text and two kinds of dynamic segments:
+ * <ul>
+ *     <li>`:name` matches a single, non-empty path segment, for example "/users/:id"</li>
+ *     <li>`*name` matches the remainder of the path, and must be the last segment, for example "/files/*path"</li>
+ * </ul>
+ * Static segments take priority over parameters, which take priority over wildcards,
+ * so "/users/me" can be registered next to "/users/:id".
+ * The values of dynamic segments are captured by name while the path is matched, without regular expressions.
+ * <br /> <br />
+ * This tree is only used to register routes; requests are dispatched by the immutable
+ * {@link RouteTable} that is compiled from it with {@link #compile()}.
+ * <br /> <br />
+ * Created by agent.
+ */
+public class RouteTree
+{
+
+    private final Node root = new Node( "" );
+    private int size = 0;
+
+    /**
+     * Adds the handler of a route and method to the tree, replacing any handler
+     * for the same route and method.
+     *
+     * @param route   The route, for example "/users/:id/posts".
+     * @param method  The request method the handler handles.
+     * @param handler The handler of the route.
+     * @throws IllegalArgumentException If the route has an unnamed or misplaced dynamic segment, or if
+     *                                  a dynamic segment conflicts with one of an already registered route.
+     */
+    public void insert( String route, RequestMethod method, IRequestHandler handler )
+    {
+        Node node = this.root;
+        int index = 0;
+        while ( index < route.length() )
+        {
+            char c = route.charAt( index );
+            if ( ( c == ':' || c == '*' ) && ( index == 0 || route.charAt( index - 1 ) == '/' ) )
+            {
+                int end = c == '*' ? route.length() : segmentEnd( route, index );
+                String name = route.substring( index + 1, end );
+                if ( name.isEmpty() || name.indexOf( '/' ) >= 0 )
+                    throw new IllegalArgumentException( "Invalid dynamic segment in route \"" + route + "\"" );
+
+                if ( c == ':' )
+                {
+                    if ( node.parameter == null )
+                        node.parameter = new Node( name );
+                    else if ( ! node.parameter.prefix.equals( name ) )
+                        throw new IllegalArgumentException( "Parameter \":" + name + "\" of route \"" + route +
+                                                                    "\" conflicts with \":" + node.parameter.prefix + "\"" );
+                    node = node.parameter;
+                }
+                else
+                {
+                    if ( node.wildcard == null )
+                        node.wildcard = new Node( name );
+                    else if ( ! node.wildcard.prefix.equals( name ) )
+                        throw new IllegalArgumentException( "Wildcard \"*" + name + "\" of route \"" + route +
+                                                                    "\" conflicts with \"*" + node.wildcard.prefix + "\"" );
+                    node = node.wildcard;
+                }
+                index = end;
+            }
+            else
+            {
+                int end = nextDynamicSegment( route, index );
+                node = insertStatic( node, route.substring( index, end ) );
+                index = end;
+            }
+        }
+
+        if ( node.handlers == null )
+        {
+            node.handlers = new EnumMap<>( RequestMethod.class );
+            node.pattern = route;
+            this.size++;
+        }
+        node.handlers.put( method, handler );
+    }
+
+    /**
+     * Compiles the routes into an immutable table.
+     * Since a static route always has the highest priority, routes without dynamic segments
+     * are also put in a hash map, which resolves them without walking the tree.
+     */
+    public RouteTable compile()
+    {
+        return compile( List.of() );
+    }
+
+    /**
+     * Compiles the routes into an immutable table, selecting the scoped middleware of every route up front.
+     *
+     * @param middleware The scoped middleware of the server, in the order it was added.
+     */
+    RouteTable compile( List<RouteTable.ScopedMiddleware> middleware )
+    {
+        Map<String, RouteTable.Route> staticRoutes = new HashMap<>();
+        return new RouteTable( compile( this.root, true, staticRoutes, middleware ), staticRoutes, this.size );
+    }
+
+    /**
+     * Returns the amount of routes in the tree.
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    private static RouteTable.Node compile( Node node, boolean isStatic, Map<String, RouteTable.Route> staticRoutes,
+                                            List<RouteTable.ScopedMiddleware> middleware )
+    {
+        RouteTable.Node[] children = new RouteTable.Node[ node.children.length ];
+        for ( int i = 0; i < children.length; i++ )
+            children[i] = compile( node.children[i], isStatic, staticRoutes, middleware );
+
+        RouteTable.Route route = null;
+        if ( node.handlers != null )
+        {
+            route = RouteTable.compileRoute( node.pattern, node.handlers, middleware );
+            if ( isStatic )
+                staticRoutes.put( node.pattern, route );
+        }
+
+        return new RouteTable.Node( node.prefix, node.indices.clone(), children,
+                                    node.parameter == null ? null : compile( node.parameter, false, staticRoutes, middleware ),
+                                    node.wildcard == null ? null : compile( node.wildcard, false, staticRoutes, middleware ),
+                                    route );
+    }
+
+    /**
+     * Adds a static fragment below the node, splitting existing children where they share a prefix.
+     *
+     * @return The node at the end of the fragment.
+     */
+    private static Node insertStatic( Node node, String fragment )
+    {
+        while ( ! fragment.isEmpty() )
+        {
+            int i = node.indexOf( fragment.charAt( 0 ) );
+            if ( i < 0 )
+                return node.addChild( new Node( fragment ) );
+
+            Node child = node.children[i];
+            int common = commonPrefixLength( child.prefix, fragment );
+            if ( common < child.prefix.length() )
+            {
+                // Split the child, so that the shared prefix becomes a node of its own.
+                Node split = new Node( child.prefix.substring( 0, common ) );
+                child.prefix = child.prefix.substring( common );
+                split.addChild( child );
+                node.children[i] = split;
+                child = split;
+            }
+            node = child;
+            fragment = fragment.substring( common );
+        }
+        return node;
+    }
+
+    private static int commonPrefixLength( String a, String b )
+    {
+        int length = Math.min( a.length(), b.length() );
+        int i = 0;
+        while ( i < length && a.charAt( i ) == b.charAt( i ) )
+            i++;
+        return i;
+    }
+
+    /**
+     * Returns the index of the first dynamic segment after the index, or the length of the route.
+     */
+    private static int nextDynamicSegment( String route, int index )
+    {
+        for ( int i = index; i < route.length() - 1; i++ )
+        {
+            if ( route.charAt( i ) == '/' && ( route.charAt( i + 1 ) == ':' || route.charAt( i + 1 ) == '*' ) )
+                return i + 1;
+        }
+        return route.length();
+    }
+
+    private static int segmentEnd( String path, int index )
+    {
+        int end = path.indexOf( '/', index );
+        return end < 0 ? path.length() : end;
+    }
+
+    private static class Node
+    {
+        /**
+         * The static text of this node, or the name of the parameter or wildcard.
+         */
+        private String prefix;
+
+        /**
+         * The static children, with the first character of each of their prefixes.
+         */
+        private char[] indices = new char[ 0 ];
+        private Node[] children = new Node[ 0 ];
+
+        private Node parameter;
+        private Node wildcard;
+        private Map<RequestMethod, IRequestHandler> handlers;
+        private String pattern;
+
+        private Node( String prefix )
+        {
+            this.prefix = prefix;
+        }
+
+        private int indexOf( char c )
+        {
+            for ( int i = 0; i < this.indices.length; i++ )
+            {
+                if ( this.indices[i] == c )
+                    return i;
+            }
+            return - 1;
+        }
+
+        private Node addChild( Node child )
+        {
+            this.indices = Arrays.copyOf( this.indices, this.indices.length + 1 );
+            this.children = Arrays.copyOf( this.children, this.children.length + 1 );
+            this.indices[this.indices.length - 1] = child.prefix.charAt( 0 );
+            this.children[this.children.length - 1] = child;
+            return child;
+        }
+    }
+}
@@ -2,24 +2,37 @@ package nl.getgood.api.server;
 
 import nl.getgood.api.Database;
 import nl.getgood.api.Logger;
+import nl.getgood.api.http.ContentType;
+import nl.getgood.api.http.IAsyncRequestHandler;
 import nl.getgood.api.http.IRequestHandler;
+import nl.getgood.api.http.Request;
 import nl.getgood.api.http.RequestMethod;
+import nl.getgood.api.http.ResponseCompressor;
 import nl.getgood.api.http.websocket.IWebSocketHandler;
+import nl.getgood.api.middleware.IpFilter;
 import nl.getgood.api.middleware.Middleware;
+import nl.getgood.api.middleware.MiddlewareScope;
 import nl.getgood.api.module.Module;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.stream.Stream;
 
 /**
  * Created on 03/08/2024 at 15:28
@@ -38,14 +51,30 @@ public class Server
      * ranging from static routes to generic routes.
      */
     protected final Map<String, String> staticRoutes = new HashMap<>();
+    protected final StaticRouteTrie staticRouteTrie = new StaticRouteTrie();
+    protected final Map<String, AssetManifest> assetManifests = new HashMap<>();
     protected final Map<String, IWebSocketHandler> websocketRoutes = new HashMap<>();
-    protected final Map<String, Map<RequestMethod, IRequestHandler>> genericRoutes = new HashMap<>();
+    protected final RouteTree routeTree = new RouteTree();
+    protected final Map<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
 
     /**
-     * A list containing all middlewares.
+     * The compiled routes that requests are dispatched with.
+     * The table is immutable, and is replaced as a whole when routes are registered whilst the server is running,
+     * so connection threads never lock and always see a consistent set of routes.
+     */
+    protected volatile RouteTable routeTable = RouteTable.EMPTY;
+
+    /**
+     * A list containing all middlewares, which run for every request.
      */
     protected final List<Middleware> middlewares = new ArrayList<>();
 
+    /**
+     * A list containing all middlewares that only run for the API routes in their scope.
+     * These are compiled into the route table, into a chain per route.
+     */
+    protected final List<RouteTable.ScopedMiddleware> scopedMiddlewares = new ArrayList<>();
+
     /**
      * A map containing all server properties.
      * These properties will be applied once the server is started.
@@ -77,12 +106,49 @@ public class Server
      */
     protected ThreadPoolExecutor threadPool;
 
+    /**
+     * The scheduler that times out asynchronous request handlers.
+     */
+    protected ScheduledThreadPoolExecutor scheduler;
+
     protected final Logger logger = Logger.getLogger();
-    protected String cors = null;
-    protected boolean corsEnabled = false;
+
+    /**
+     * The CORS policy of the server, or null if cross-origin requests are not handled.
+     */
+    protected volatile CorsPolicy corsPolicy = null;
+
+    /**
+     * The filter of the addresses of connections, or null if all connections are accepted.
+     */
+    protected volatile IpFilter connectionFilter = null;
 
     private Database queryExecutor = null;
 
+    /**
+     * The content types that are compressed when the client accepts a compressed response,
+     * and the compressor that is created from them once the server starts.
+     */
+    private final List<ContentType> compressibleTypes = new ArrayList<>( Arrays.asList(
+            ContentType.HTML, ContentType.JSON, ContentType.TEXT_PLAIN, ContentType.APPLICATION_XML,
+            ContentType.CSS, ContentType.JAVASCRIPT, ContentType.of( "application/javascript" ), ContentType.SVG ) );
+    private ResponseCompressor compressor = null;
+
+    /**
+     * The cache for static files, or null if static file caching is disabled.
+     */
+    protected StaticFileCache staticFileCache = null;
+
+    /**
+     * The cache for the responses of API routes, or null if response caching is disabled.
+     */
+    protected ResponseCache responseCache = null;
+
+    /**
+     * The cache of memory-mapped files that are served in ranges, or null if it is disabled.
+     */
+    protected MappedFileCache mappedFileCache = null;
+
     /**
      * Creates a new API server instance.
      *
@@ -157,23 +223,64 @@ public class Server
      * @return The API server instance.
      */
     public Server useModule( Module module )
+    {
+        return useModule( module, null );
+    }
+
+    /**
+     * Adds a module to the API server, of which the routes are handled in a bulkhead.
+     * Routes that declare their own bulkhead with {@link Route#bulkhead()} are handled in that bulkhead instead.
+     *
+     * @param module   The module to add.
+     * @param bulkhead The name of the bulkhead to handle the routes of the module in,
+     *                 which must be defined with {@link #bulkhead(String, int, int)}.
+     * @return The API server instance.
+     */
+    public Server useModule( Module module, String bulkhead )
     {
         this.modules.add( module );
         List<RegisteredApiRoute> apiHandlers = module.getApiHandlers();
 
         for ( RegisteredApiRoute apiRoute : apiHandlers )
-        {
-            Map<RequestMethod, IRequestHandler> handlers =
-                    this.genericRoutes.containsKey( apiRoute.getRoute() ) ?
-                            this.genericRoutes.get( apiRoute.getRoute() ) : new HashMap<>();
+            this.registerRoute( apiRoute.getRoute(), apiRoute.getRequestMethod(), apiRoute.getRequestHandler(),
+                                apiRoute.getBulkhead() != null ? apiRoute.getBulkhead() : bulkhead );
 
-            handlers.put( apiRoute.getRequestMethod(), apiRoute.getRequestHandler() );
-            this.genericRoutes.put( apiRoute.getRoute(), handlers );
-        }
+        return this;
+    }
 
+    /**
+     * Defines a bulkhead, which isolates the routes that are assigned to it from all other routes.
+     * Routes in a bulkhead are handled on its own threads, so a slow route can only exhaust its own bulkhead.
+     *
+     * @param name          The name of the bulkhead, which routes refer to.
+     * @param maxConcurrent The maximum amount of requests of the bulkhead that are handled at the same time.
+     * @param maxQueued     The maximum amount of requests that wait to be handled. Requests beyond
+     *                      that are answered with a `503 Service Unavailable`.
+     * @return The API server instance.
+     */
+    public Server bulkhead( String name, int maxConcurrent, int maxQueued )
+    {
+        this.bulkheads.put( name, new Bulkhead( name, maxConcurrent, maxQueued ) );
         return this;
     }
 
+    /**
+     * Returns the bulkhead with the provided name, which exposes its active, queued and rejected requests,
+     * or null if there is none.
+     */
+    public Bulkhead getBulkhead( String name )
+    {
+        return this.bulkheads.get( name );
+    }
+
+    /**
+     * Returns all bulkheads of the server, by name.
+     */
+    public Map<String, Bulkhead> getBulkheads()
+    {
+        return Map.copyOf( this.bulkheads );
+    }
+
     /**
      * Registers a static route.
      *
@@ -191,10 +298,86 @@ public class Server
                 localPath = localPath.substring( 0, localPath.length() - 1 );
             }
             this.staticRoutes.put( route, localPath );
+            this.staticRouteTrie.insert( route, localPath );
         }
         return this;
     }
 
+    /**
+     * Registers a static route whose files are also served at fingerprinted URLs.
+     * These URLs contain a hash of the content of the file, and are served with a
+     * `Cache-Control` header that allows clients to cache them indefinitely.
+     * The fingerprinted URL of a file can be resolved with {@link #asset(String)}.
+     *
+     * @param route     The route to register.
+     * @param localPath The path to the directory to serve.
+     * @return The API server instance.
+     */
+    public Server serveAssets( final String route, String localPath )
+    {
+        this.serveStatic( route, localPath );
+        String root = this.staticRoutes.get( route );
+        if ( root != null )
+            this.assetManifests.put( route, new AssetManifest( route, root ) );
+        return this;
+    }
+
+    /**
+     * Resolves the fingerprinted URL of a file that is served with {@link #serveAssets(String, String)}.
+     *
+     * @param path The request path of the file, for example "/assets/js/app.js".
+     * @return The fingerprinted URL of the file, or the provided path if the file has no fingerprint.
+     */
+    public String asset( String path )
+    {
+        String normalizedPath = StaticRouteTrie.normalize( path );
+        StaticRouteTrie.Mount mount = normalizedPath == null ? null : this.staticRouteTrie.lookup( normalizedPath );
+        AssetManifest manifest = mount == null ? null : this.assetManifests.get( mount.route() );
+        String fingerprinted = manifest == null ? null : manifest.resolve( normalizedPath );
+        return fingerprinted != null ? fingerprinted : path;
+    }
+
+    /**
+     * Returns the asset manifest of a route registered with {@link #serveAssets(String, String)},
+     * or null if there is none.
+     */
+    public AssetManifest getAssetManifest( String route )
+    {
+        return this.assetManifests.get( route );
+    }
+
+    /**
+     * Sets the CORS policy of the server, which takes precedence over the CORS properties.
+     * Cross-origin requests from origins that the policy does not allow are answered with `403 Forbidden`,
+     * and preflight requests for API routes are answered by the policy.
+     *
+     * @param policy The policy, or null to stop handling cross-origin requests.
+     * @return The API server instance.
+     */
+    public synchronized Server cors( CorsPolicy policy )
+    {
+        this.corsPolicy = policy;
+        // The routes hold the preflight responses of the previous policy.
+        if ( this.serverSocket != null && ! this.serverSocket.isClosed() )
+            this.routeTable = this.routeTree.compile( this.scopedMiddlewares );
+        return this;
+    }
+
+    /**
+     * Filters the connections to the server by the address of the client.
+     * Connections from denied addresses are closed as soon as they are accepted,
+     * before their request is read. This replaces the previous filter.
+     * The filter is closed when the server stops, which stops it from watching its file.
+     *
+     * @param filter The filter, or null to accept all connections.
+     * @return The API server instance.
+     */
+    public Server filter( IpFilter filter )
+    {
+        this.connectionFilter = filter;
+        return this;
+    }
+
     /**
      * Adds a middleware to the API server.
      *
@@ -207,6 +390,52 @@ public class Server
         return this;
     }
 
+    /**
+     * Adds a middleware to the API server, which only runs for the API routes below a path prefix.
+     *
+     * @param prefix     The path prefix, for example "/v1/admin".
+     * @param middleware The middleware to add.
+     * @return The API server instance.
+     * @see MiddlewareScope#prefix(String)
+     */
+    public Server use( String prefix, Middleware middleware )
+    {
+        return use( MiddlewareScope.prefix( prefix ), middleware );
+    }
+
+    /**
+     * Adds a middleware to the API server, which only runs for the API routes in its scope.
+     * Unlike middleware that is added with {@link #use(Middleware)}, it does not run for static files,
+     * websocket upgrades or requests without a route. The middleware of every route is selected when
+     * the routes are compiled, so requests do not pay for middleware that does not apply to them.
+     *
+     * @param scope      The scope of routes the middleware applies to.
+     * @param middleware The middleware to add.
+     * @return The API server instance.
+     */
+    public synchronized Server use( MiddlewareScope scope, Middleware middleware )
+    {
+        this.scopedMiddlewares.add( new RouteTable.ScopedMiddleware( scope, middleware ) );
+        if ( this.serverSocket != null && ! this.serverSocket.isClosed() )
+            this.routeTable = this.routeTree.compile( this.scopedMiddlewares );
+        return this;
+    }
+
+    /**
+     * Adds content types to the list of types that will be compressed
+     * when the client accepts a compressed response.
+     *
+     * @param contentTypes The content types to compress.
+     * @return The API server instance.
+     */
+    public Server compress( ContentType... contentTypes )
+    {
+        this.compressibleTypes.addAll( Arrays.asList( contentTypes ) );
+        if ( this.compressor != null )
+            this.compressor.allow( contentTypes );
+        return this;
+    }
+
     /**
      * Registers a GET route.
      *
@@ -233,6 +462,92 @@ public class Server
         return this;
     }
 
+    /**
+     * Registers a GET route that is handled in a bulkhead.
+     *
+     * @param route          The route to register.
+     * @param requestHandler The method to invoke when the route is requested.
+     * @param bulkhead       The name of the bulkhead, which must be defined with {@link #bulkhead(String, int, int)}.
+     * @return The API server instance.
+     */
+    public Server get( String route, IRequestHandler requestHandler, String bulkhead )
+    {
+        registerRoute( route, RequestMethod.GET, requestHandler, bulkhead );
+        return this;
+    }
+
+    /**
+     * Registers a POST route that is handled in a bulkhead.
+     *
+     * @param route          The route to register.
+     * @param requestHandler The method to invoke when the route is requested.
+     * @param bulkhead       The name of the bulkhead, which must be defined with {@link #bulkhead(String, int, int)}.
+     * @return The API server instance.
+     */
+    public Server post( String route, IRequestHandler requestHandler, String bulkhead )
+    {
+        registerRoute( route, RequestMethod.POST, requestHandler, bulkhead );
+        return this;
+    }
+
+    /**
+     * Registers a GET route with an asynchronous handler.
+     * The thread that handles the connection is released whilst the handler waits,
+     * and the response is sent once the stage the handler returns completes.
+     *
+     * @param route          The route to register.
+     * @param requestHandler The method to invoke when the route is requested.
+     * @return The API server instance.
+     */
+    public Server getAsync( String route, IAsyncRequestHandler requestHandler )
+    {
+        return getAsync( route, requestHandler, 0 );
+    }
+
+    /**
+     * Registers a GET route with an asynchronous handler.
+     *
+     * @param route          The route to register.
+     * @param requestHandler The method to invoke when the route is requested.
+     * @param timeout        The time in milliseconds the handler has to complete its response,
+     *                       after which a `504 Gateway Timeout` is sent, or 0 to use {@link ServerProperty#ASYNC_TIMEOUT}.
+     * @return The API server instance.
+     */
+    public Server getAsync( String route, IAsyncRequestHandler requestHandler, long timeout )
+    {
+        registerRoute( route, RequestMethod.GET, new AsyncRouteHandler( requestHandler, timeout ) );
+        return this;
+    }
+
+    /**
+     * Registers a POST route with an asynchronous handler.
+     * The thread that handles the connection is released whilst the handler waits,
+     * and the response is sent once the stage the handler returns completes.
+     *
+     * @param route          The route to register.
+     * @param requestHandler The method to invoke when the route is requested.
+     * @return The API server instance.
+     */
+    public Server postAsync( String route, IAsyncRequestHandler requestHandler )
+    {
+        return postAsync( route, requestHandler, 0 );
+    }
+
+    /**
+     * Registers a POST route with an asynchronous handler.
+     *
+     * @param route          The route to register.
+     * @param requestHandler The method to invoke when the route is requested.
+     * @param timeout        The time in milliseconds the handler has to complete its response,
+     *                       after which a `504 Gateway Timeout` is sent, or 0 to use {@link ServerProperty#ASYNC_TIMEOUT}.
+     * @return The API server instance.
+     */
+    public Server postAsync( String route, IAsyncRequestHandler requestHandler, long timeout )
+    {
+        registerRoute( route, RequestMethod.POST, new AsyncRouteHandler( requestHandler, timeout ) );
+        return this;
+    }
+
     public Server websocket( String route, IWebSocketHandler requestHandler )
     {
         if ( ! this.getProperty( ServerProperty.ALLOW_WEBSOCKET_CONNECTIONS, Boolean.class ) )
@@ -244,6 +559,8 @@ public class Server
 
     /**
      * Register a route with the given method and handler.
+     * Routes may contain path parameters, such as "/users/:id", and a trailing wildcard,
+     * such as "/files/*path", of which the values are available through {@link Request#pathParameter(String)}.
      *
      * @param route   The route to register.
      * @param method  The method to register.
@@ -251,9 +568,37 @@ public class Server
      */
     private void registerRoute( String route, RequestMethod method, IRequestHandler handler )
     {
-        Map<RequestMethod, IRequestHandler> handlerMap = this.genericRoutes.getOrDefault( route, new HashMap<>() );
-        handlerMap.put( method, handler );
-        this.genericRoutes.put( route, handlerMap );
+        registerRoute( route, method, handler, null );
+    }
+
+    /**
+     * Register a route with the given method and handler, which is handled in a bulkhead.
+     * The handler is then invoked on a thread of the bulkhead, and the response is sent asynchronously.
+     *
+     * @param route    The route to register.
+     * @param method   The method to register.
+     * @param handler  The handler to register.
+     * @param bulkhead The name of the bulkhead, or null to handle the route on the connection thread.
+     * @throws IllegalArgumentException If no bulkhead with the name is defined.
+     */
+    private synchronized void registerRoute( String route, RequestMethod method, IRequestHandler handler, String bulkhead )
+    {
+        if ( bulkhead != null && ! bulkhead.isEmpty() )
+        {
+            Bulkhead isolation = this.bulkheads.get( bulkhead );
+            if ( isolation == null )
+                throw new IllegalArgumentException( "Route \"" + route + "\" refers to undefined bulkhead \"" + bulkhead + "\"" );
+
+            // Asynchronous handlers keep the thread of the bulkhead until they complete, and keep their timeout.
+            long timeout = handler instanceof AsyncRouteHandler asyncHandler ? asyncHandler.getTimeout() : 0;
+            handler = new AsyncRouteHandler( isolation.isolate( handler ), timeout );
+        }
+
+        this.routeTree.insert( route, method, handler );
+
+        // Routes registered before the server starts are compiled at once when it does.
+        if ( this.serverSocket != null && ! this.serverSocket.isClosed() )
+            this.routeTable = this.routeTree.compile( this.scopedMiddlewares );
     }
 
     /**
@@ -283,23 +628,76 @@ public class Server
                 );
             }
 
-            this.serverSocket = new ServerSocket( this.port );
+            // The server socket is opened through a channel, so that the client sockets have channels as well.
+            // This allows files to be transferred to clients without copying them through the heap.
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            serverChannel.bind( new InetSocketAddress( this.port ) );
+            this.serverSocket = serverChannel.socket();
             this.clientAcceptor = new ClientAcceptor( this, this.serverSocket );
 
             this.threadPool = ( ThreadPoolExecutor ) Executors.newFixedThreadPool(
                     this.getProperty( ServerProperty.CONNECTION_CONCURRENCY, 0, Integer.class ) );
-            this.corsEnabled = this.getProperty( ServerProperty.CORS_ENABLED, Boolean.class );
 
-            if ( this.corsEnabled )
-                this.cors = this.getProperty( ServerProperty.CORS, String.class );
+            this.scheduler = new ScheduledThreadPoolExecutor( 1, runnable ->
+            {
+                Thread thread = new Thread( runnable, "async-timeout-scheduler" );
+                thread.setDaemon( true );
+                return thread;
+            } );
+            // Timeouts of handlers that complete in time are removed right away, rather than when they expire.
+            this.scheduler.setRemoveOnCancelPolicy( true );
+
+            if ( this.corsPolicy == null && this.getProperty( ServerProperty.CORS_ENABLED, Boolean.class ) )
+            {
+                this.corsPolicy = CorsPolicy.allowOrigins( this.getPropertyList( ServerProperty.CORS ) )
+                        .allowHeaders( this.getPropertyList( ServerProperty.CORS_ALLOWED_HEADERS ) )
+                        .maxAge( this.getProperty( ServerProperty.CORS_MAX_AGE, Integer.class ) );
+            }
+
+            if ( this.getProperty( ServerProperty.COMPRESSION_ENABLED, Boolean.class ) )
+            {
+                this.compressor = new ResponseCompressor(
+                        this.getProperty( ServerProperty.COMPRESSION_LEVEL, Integer.class ),
+                        this.getProperty( ServerProperty.COMPRESSION_MIN_SIZE, Integer.class ),
+                        this.getProperty( ServerProperty.COMPRESSION_CACHE_SIZE, Integer.class ) )
+                        .allow( this.compressibleTypes.toArray( new ContentType[ 0 ] ) );
+            }
+
+            if ( this.getProperty( ServerProperty.STATIC_CACHE_ENABLED, Boolean.class ) )
+            {
+                this.staticFileCache = new StaticFileCache(
+                        this.getProperty( ServerProperty.STATIC_CACHE_SIZE, Integer.class ),
+                        this.getProperty( ServerProperty.STATIC_CACHE_MAX_FILE_SIZE, Integer.class ),
+                        this.compressor );
+                this.staticRoutes.values().forEach( root -> this.staticFileCache.watch( Path.of( root ) ) );
+                this.assetManifests.values().forEach( manifest -> manifest.watch( this.staticFileCache ) );
+            }
+
+            // Without the static file cache there is no watcher, so manifests check their files when they are used.
+            this.assetManifests.values().forEach( AssetManifest::build );
+
+            int responseCacheSize = this.getProperty( ServerProperty.RESPONSE_CACHE_SIZE, Integer.class );
+            if ( responseCacheSize > 0 )
+                this.responseCache = new ResponseCache( responseCacheSize );
+
+            int mappedCacheSize = this.getProperty( ServerProperty.STATIC_MMAP_CACHE_SIZE, Integer.class );
+            if ( mappedCacheSize > 0 )
+                this.mappedFileCache = new MappedFileCache( mappedCacheSize );
 
             this.modules.forEach( module -> module.initialize( this, this.queryExecutor ) );
 
+            synchronized ( this )
+            {
+                this.routeTable = this.routeTree.compile( this.scopedMiddlewares );
+            }
+            this.allMiddleware().forEach( Middleware::start );
+
             logger.info( "Server started on " + this.hostUrl + ":" + this.port );
-            logger.info( "Registered " + this.genericRoutes.size() + " API route(s)" );
-            logger.info( "Registered " + this.middlewares.size() + " middleware(s)" );
+            logger.info( "Registered " + this.routeTable.size() + " API route(s)" );
+            logger.info( "Registered " + this.middlewares.size() + " middleware(s) and " + this.scopedMiddlewares.size() + " scoped middleware(s)" );
             logger.info( "Registered " + this.websocketRoutes.size() + " websocket route(s)" );
             this.staticRoutes.forEach( ( key, value ) -> logger.info( "Serving static route: \"" + key + "\" from \"" + value + "\"" ) );
+            this.assetManifests.forEach( ( key, value ) -> logger.info( "Fingerprinted " + value.size() + " asset(s) on route \"" + key + "\"" ) );
 
             this.clientAcceptor.startAccepting();
         }
@@ -310,6 +708,20 @@ public class Server
         }
     }
 
+    /**
+     * Returns every middleware of the server once, including scoped middleware and the connection filter,
+     * so they are started and closed along with the server.
+     */
+    private Stream<Middleware> allMiddleware()
+    {
+        Stream<Middleware> middleware = Stream.concat( this.middlewares.stream(),
+                                                       this.scopedMiddlewares.stream().map( RouteTable.ScopedMiddleware::middleware ) );
+        IpFilter filter = this.connectionFilter;
+        if ( filter != null )
+            middleware = Stream.concat( middleware, Stream.of( filter ) );
+        return middleware.distinct();
+    }
+
     /**
      * Stops the API server.
      */
@@ -320,7 +732,12 @@ public class Server
             if ( this.serverSocket != null && ! this.serverSocket.isClosed() )
             {
                 this.modules.forEach( Module::close );
+                this.allMiddleware().forEach( Middleware::close );
                 this.serverSocket.close();
+                if ( this.staticFileCache != null )
+                    this.staticFileCache.close();
+                if ( this.scheduler != null )
+                    this.scheduler.shutdownNow();
                 logger.info( "Server stopped." );
             }
         }
@@ -424,6 +841,30 @@ public class Server
         return classType.cast( values[argumentIndex] );
     }
 
+    /**
+     * Returns the values of a property that holds a list, such as a list of origins.
+     * Properties files separate the values with commas, whereas default values may hold them in a single value.
+     * The values are read as they were set, since {@link #getProperty(ServerProperty)} only returns
+     * as many values as the property has by default.
+     *
+     * @param key The key of the property.
+     * @return The values of the property, without surrounding spaces.
+     */
+    private String[] getPropertyList( ServerProperty key )
+    {
+        Object[] values = this.serverProperties.get( key );
+        List<String> list = new ArrayList<>();
+        for ( Object value : values == null ? key.getArguments() : values )
+        {
+            for ( String item : String.valueOf( value ).split( "," ) )
+            {
+                if ( ! item.isBlank() )
+                    list.add( item.trim() );
+            }
+        }
+        return list.toArray( new String[ 0 ] );
+    }
+
     /**
      * Returns the property value in the provided object type at index 0.
      *
@@ -471,13 +912,49 @@ public class Server
         if ( values.length != property.getArgumentCount() )
         {
             Object[] newValues = new Object[property.getArgumentCount()];
-            System.arraycopy( values, 0, newValues, 0, values.length );
+            System.arraycopy( values, 0, newValues, 0, Math.min( values.length, newValues.length ) );
             return newValues;
         }
 
         return values;
     }
 
+    /**
+     * Returns the response compressor of the server,
+     * or null if the server is not running or compression is disabled.
+     */
+    public ResponseCompressor getCompressor()
+    {
+        return this.compressor;
+    }
+
+    /**
+     * Returns the cache for static files, which exposes its hit ratio and memory usage,
+     * or null if the server is not running or static file caching is disabled.
+     */
+    public StaticFileCache getStaticFileCache()
+    {
+        return this.staticFileCache;
+    }
+
+    /**
+     * Returns the cache for the responses of API routes, which is used to invalidate cached responses
+     * and exposes its hit ratio and memory usage, or null if the server is not running or response caching is disabled.
+     */
+    public ResponseCache getResponseCache()
+    {
+        return this.responseCache;
+    }
+
+    /**
+     * Returns the cache of memory-mapped files that are served in ranges,
+     * or null if the server is not running or the cache is disabled.
+     */
+    public MappedFileCache getMappedFileCache()
+    {
+        return this.mappedFileCache;
+    }
+
     /**
      * Returns the instance of the database query executor.
      */
@@ -24,6 +24,20 @@ public enum ServerProperty
     DATABASE_HOST( "localhost" ),
     DATABASE_NAME(""),
     DATABASE_PORT( 3306 ),
+    COMPRESSION_ENABLED( true ),
+    COMPRESSION_LEVEL( 6 ),
+    COMPRESSION_MIN_SIZE( 1024 ),
+    COMPRESSION_CACHE_SIZE( 16 * 1024 * 1024 ),
+    STATIC_CACHE_ENABLED( true ),
+    STATIC_CACHE_SIZE( 64 * 1024 * 1024 ),
+    STATIC_CACHE_MAX_FILE_SIZE( 1024 * 1024 ),
+    STATIC_ZERO_COPY_THRESHOLD( 256 * 1024 ),
+    STATIC_MMAP_CACHE_SIZE( 1024 * 1024 * 1024 ),
+    ASYNC_TIMEOUT( 30000 ),
+    RESPONSE_CACHE_SIZE( 32 * 1024 * 1024 ),
+    CORS_MAX_AGE( 600 ),
+    CORS_ALLOWED_HEADERS( "Content-Type, Authorization" ),
+    WEBSOCKET_MAX_MESSAGE_SIZE( 1024 * 1024 ),
 
     SOCKET_TCP_NO_DELAY(true);
 
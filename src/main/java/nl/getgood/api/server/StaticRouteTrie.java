@@ -0,0 +1,141 @@
+package nl.getgood.api.server;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A trie over the path segments of all static mounts.
+ * It resolves a request path to the mount with the longest matching prefix,
+ * so that overlapping mounts such as "/" and "/assets" resolve deterministically,
+ * in time proportional to the length of the path rather than the amount of mounts.
+ * <br /> <br />
+ * Created by agent.
+ */
+public class StaticRouteTrie
+{
+
+    private final Node root = new Node();
+    private int size = 0;
+
+    /**
+     * Adds a static mount to the trie, replacing any mount on the same route.
+     * Mounts are expected to be added before the server starts accepting clients.
+     *
+     * @param route     The route the mount is served on, for example "/assets".
+     * @param localPath The local directory that is served.
+     */
+    public void insert( String route, String localPath )
+    {
+        Node node = this.root;
+        int start = 0;
+        while ( ( start = nextSegmentStart( route, start ) ) < route.length() )
+        {
+            int end = segmentEnd( route, start );
+            node = node.children.computeIfAbsent( route.substring( start, end ), segment -> new Node() );
+            start = end;
+        }
+        if ( node.mount == null )
+            this.size++;
+        node.mount = new Mount( route, localPath );
+    }
+
+    /**
+     * Finds the mount with the longest route that is a segment-wise prefix of the path.
+     *
+     * @param path The normalized request path.
+     * @return The matching mount, or null if no mount matches.
+     */
+    public Mount lookup( String path )
+    {
+        Node node = this.root;
+        Mount match = node.mount;
+        int start = 0;
+        while ( ( start = nextSegmentStart( path, start ) ) < path.length() )
+        {
+            int end = segmentEnd( path, start );
+            node = node.children.get( path.substring( start, end ) );
+            if ( node == null )
+                break;
+            if ( node.mount != null )
+                match = node.mount;
+            start = end;
+        }
+        return match;
+    }
+
+    /**
+     * Returns the amount of mounts in the trie.
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Normalizes a request path by removing empty and "." segments and resolving ".." segments.
+     * A trailing slash is kept, since it indicates that the index of a directory is requested.
+     *
+     * @param path The decoded request path.
+     * @return The normalized path, or null if the path escapes the root with ".." segments.
+     */
+    public static String normalize( String path )
+    {
+        if ( path == null || path.isEmpty() )
+            return "/";
+
+        // Backslashes are treated as separators, since they are on some file systems.
+        path = path.replace( '\\', '/' );
+
+        StringBuilder normalized = new StringBuilder( path.length() );
+        int start = 0;
+        while ( ( start = nextSegmentStart( path, start ) ) < path.length() )
+        {
+            int end = segmentEnd( path, start );
+            String segment = path.substring( start, end );
+
+            if ( segment.equals( ".." ) )
+            {
+                if ( normalized.length() == 0 )
+                    return null;
+                normalized.setLength( normalized.lastIndexOf( "/" ) );
+            }
+            else if ( ! segment.equals( "." ) )
+            {
+                normalized.append( '/' ).append( segment );
+            }
+            start = end;
+        }
+
+        if ( path.endsWith( "/" ) || path.endsWith( "/." ) || path.endsWith( "/.." ) )
+            normalized.append( '/' );
+
+        return normalized.length() == 0 ? "/" : normalized.toString();
+    }
+
+    private static int nextSegmentStart( String path, int index )
+    {
+        while ( index < path.length() && path.charAt( index ) == '/' )
+            index++;
+        return index;
+    }
+
+    private static int segmentEnd( String path, int start )
+    {
+        int end = path.indexOf( '/', start );
+        return end < 0 ? path.length() : end;
+    }
+
+    /**
+     * A static mount.
+     *
+     * @param route     The route the mount is served on.
+     * @param localPath The local directory that is served.
+     */
+    public record Mount( String route, String localPath ) {}
+
+    private static class Node
+    {
+        private final Map<String, Node> children = new HashMap<>( 4 );
+        private Mount mount;
+    }
+}
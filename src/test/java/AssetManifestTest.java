@@ -0,0 +1,93 @@
+import nl.getgood.api.server.AssetManifest;
+import nl.getgood.api.server.ServerProperty;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by agent.
+ */
+public class AssetManifestTest
+{
+
+    private Path directory;
+    private Path script;
+    private TestServer server;
+
+    @Before
+    public void startServer() throws Exception
+    {
+        this.directory = Files.createTempDirectory( "assets" );
+        this.script = this.directory.resolve( "assets/app.js" );
+        Files.createDirectories( this.script.getParent() );
+        Files.writeString( this.script, "console.log( 1 );" );
+
+        // Without the static file cache, no watcher reports changes to the manifest.
+        this.server = TestServer.start( server ->
+        {
+            server.setProperty( ServerProperty.STATIC_CACHE_ENABLED, false );
+            server.serveAssets( "/assets", this.directory.toString() );
+        } );
+    }
+
+    @After
+    public void stopServer() throws IOException
+    {
+        this.server.stop();
+        try ( Stream<Path> files = Files.walk( this.directory ) )
+        {
+            for ( Path file : files.sorted( Comparator.reverseOrder() ).toList() )
+                Files.delete( file );
+        }
+    }
+
+    @Test
+    public void testChangedFileIsNotServedAtItsOldUrl() throws IOException
+    {
+        String oldUrl = this.server.server.asset( "/assets/app.js" );
+        String response = this.server.request( "GET", oldUrl, "" );
+        assertEquals( "HTTP/1.1 200 OK", TestServer.statusLine( response ) );
+        assertEquals( AssetManifest.CACHE_CONTROL, TestServer.header( response, "Cache-Control" ) );
+        assertTrue( response.endsWith( "console.log( 1 );" ) );
+
+        Files.writeString( this.script, "console.log( 22 );" );
+        Files.setLastModifiedTime( this.script, FileTime.fromMillis( System.currentTimeMillis() + 5_000 ) );
+
+        // The old URL would otherwise serve the new content under the old hash.
+        assertEquals( "HTTP/1.1 404 Not Found", TestServer.statusLine( this.server.request( "GET", oldUrl, "" ) ) );
+
+        String newUrl = this.server.server.asset( "/assets/app.js" );
+        assertNotEquals( oldUrl, newUrl );
+        response = this.server.request( "GET", newUrl, "" );
+        assertEquals( "HTTP/1.1 200 OK", TestServer.statusLine( response ) );
+        assertTrue( response.endsWith( "console.log( 22 );" ) );
+    }
+
+    @Test
+    public void testChangedFileResolvesToNewUrl() throws IOException
+    {
+        String oldUrl = this.server.server.asset( "/assets/app.js" );
+
+        Files.writeString( this.script, "console.log( 22 );" );
+        Files.setLastModifiedTime( this.script, FileTime.fromMillis( System.currentTimeMillis() + 5_000 ) );
+
+        String newUrl = this.server.server.asset( "/assets/app.js" );
+        assertNotEquals( oldUrl, newUrl );
+        assertEquals( "HTTP/1.1 404 Not Found", TestServer.statusLine( this.server.request( "GET", oldUrl, "" ) ) );
+        assertEquals( "HTTP/1.1 200 OK", TestServer.statusLine( this.server.request( "GET", newUrl, "" ) ) );
+
+        Files.delete( this.script );
+        assertEquals( "/assets/app.js", this.server.server.asset( "/assets/app.js" ) );
+    }
+}
@@ -0,0 +1,100 @@
+import nl.getgood.api.http.ByteRange;
+import nl.getgood.api.http.ConditionalRequest;
+import nl.getgood.api.http.HttpDate;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by agent.
+ */
+public class ByteRangeTest
+{
+
+    private static final long SIZE = 1000;
+
+    @Test
+    public void testSingleRanges()
+    {
+        assertEquals( List.of( new ByteRange( 0, 499 ) ), ByteRange.parse( "bytes=0-499", SIZE ) );
+        assertEquals( List.of( new ByteRange( 500, 999 ) ), ByteRange.parse( "bytes=500-", SIZE ) );
+        assertEquals( List.of( new ByteRange( 900, 999 ) ), ByteRange.parse( "bytes=900-5000", SIZE ) );
+        assertEquals( List.of( new ByteRange( 10, 10 ) ), ByteRange.parse( "bytes= 10 - 10 ", SIZE ) );
+        assertEquals( List.of( new ByteRange( 0, 1 ) ), ByteRange.parse( "bytes=0-1,", SIZE ) );
+        assertEquals( 500, ByteRange.parse( "bytes=0-499", SIZE ).get( 0 ).length() );
+        assertEquals( "bytes 0-499/1000", ByteRange.parse( "bytes=0-499", SIZE ).get( 0 ).contentRange( SIZE ) );
+    }
+
+    @Test
+    public void testSuffixRanges()
+    {
+        assertEquals( List.of( new ByteRange( 900, 999 ) ), ByteRange.parse( "bytes=-100", SIZE ) );
+        // A suffix longer than the resource requests the whole resource.
+        assertEquals( List.of( new ByteRange( 0, 999 ) ), ByteRange.parse( "bytes=-5000", SIZE ) );
+        assertTrue( ByteRange.parse( "bytes=-0", SIZE ).isEmpty() );
+        assertTrue( ByteRange.parse( "bytes=-100", 0 ).isEmpty() );
+    }
+
+    @Test
+    public void testUnsatisfiableRanges()
+    {
+        assertTrue( ByteRange.parse( "bytes=1000-", SIZE ).isEmpty() );
+        assertTrue( ByteRange.parse( "bytes=2000-3000", SIZE ).isEmpty() );
+        assertTrue( ByteRange.parse( "bytes=0-10", 0 ).isEmpty() );
+
+        // Unsatisfiable ranges are left out when other ranges can be satisfied.
+        assertEquals( List.of( new ByteRange( 0, 9 ) ), ByteRange.parse( "bytes=0-9, 2000-3000", SIZE ) );
+    }
+
+    @Test
+    public void testInvalidHeadersAreIgnored()
+    {
+        assertNull( ByteRange.parse( null, SIZE ) );
+        assertNull( ByteRange.parse( "items=0-10", SIZE ) );
+        assertNull( ByteRange.parse( "bytes=10", SIZE ) );
+        assertNull( ByteRange.parse( "bytes=10-5", SIZE ) );
+        assertNull( ByteRange.parse( "bytes=a-b", SIZE ) );
+        assertNull( ByteRange.parse( "bytes=-", SIZE ) );
+
+        StringBuilder tooMany = new StringBuilder( "bytes=0-0" );
+        for ( int i = 1; i <= ByteRange.MAXIMUM_RANGES; i++ )
+            tooMany.append( ',' ).append( i * 10 ).append( '-' ).append( i * 10 );
+        assertNull( ByteRange.parse( tooMany.toString(), SIZE ) );
+    }
+
+    @Test
+    public void testMultipleRangesAreCoalesced()
+    {
+        assertEquals( List.of( new ByteRange( 0, 9 ), new ByteRange( 100, 199 ) ),
+                      ByteRange.parse( "bytes=0-9,100-199", SIZE ) );
+
+        // Overlapping and adjacent ranges are merged, and the result is ordered by position.
+        assertEquals( List.of( new ByteRange( 0, 199 ) ), ByteRange.parse( "bytes=100-199,0-49,50-99", SIZE ) );
+        assertEquals( List.of( new ByteRange( 0, 999 ) ), ByteRange.parse( "bytes=0-,0-,0-,-1", SIZE ) );
+        assertEquals( List.of( new ByteRange( 0, 9 ), new ByteRange( 900, 999 ) ),
+                      ByteRange.parse( "bytes=-100,0-9,950-960", SIZE ) );
+    }
+
+    @Test
+    public void testIfRange()
+    {
+        String etag = "W/\"3e8-abc\"";
+        long lastModified = 1_700_000_000_000L;
+
+        assertTrue( ConditionalRequest.isRangeApplicable( Map.of(), etag, lastModified ) );
+        assertTrue( ConditionalRequest.isRangeApplicable( Map.of( "if-range", etag ), etag, lastModified ) );
+        assertFalse( ConditionalRequest.isRangeApplicable( Map.of( "if-range", "W/\"old\"" ), etag, lastModified ) );
+        assertFalse( ConditionalRequest.isRangeApplicable( Map.of( "if-range", etag ), null, lastModified ) );
+
+        // A date only validates the range if it exactly matches the modification time.
+        assertTrue( ConditionalRequest.isRangeApplicable( Map.of( "if-range", HttpDate.format( lastModified ) ), etag, lastModified ) );
+        assertFalse( ConditionalRequest.isRangeApplicable( Map.of( "if-range", HttpDate.format( lastModified - 60_000 ) ), etag, lastModified ) );
+        assertFalse( ConditionalRequest.isRangeApplicable( Map.of( "if-range", "not a date" ), etag, lastModified ) );
+    }
+}
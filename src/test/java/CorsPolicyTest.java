@@ -0,0 +1,137 @@
+import nl.getgood.api.server.CorsPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by agent.
+ */
+public class CorsPolicyTest
+{
+
+    private TestServer server;
+
+    @Before
+    public void startServer() throws Exception
+    {
+        this.server = TestServer.start( server ->
+        {
+            server.cors( CorsPolicy.allowOrigins( "https://app.example.com", "https://*.example.org" )
+                                 .allowHeaders( "Content-Type", "X-Api-Key" )
+                                 .maxAge( 3600 ) );
+            server.get( "/items", ( request, response ) -> response.body( "items" ) );
+            server.post( "/items", ( request, response ) -> response.body( "created" ) );
+        } );
+    }
+
+    @After
+    public void stopServer()
+    {
+        this.server.stop();
+    }
+
+    @Test
+    public void testAllowedOrigin() throws IOException
+    {
+        String exact = this.server.request( "GET", "/items", "Origin: https://app.example.com\r\n" );
+        assertEquals( "HTTP/1.1 200 OK", TestServer.statusLine( exact ) );
+        assertEquals( "https://app.example.com", TestServer.header( exact, "Access-Control-Allow-Origin" ) );
+        assertTrue( TestServer.header( exact, "Vary" ).contains( "Origin" ) );
+        assertTrue( exact.endsWith( "items" ) );
+
+        String pattern = this.server.request( "GET", "/items", "Origin: https://shop.eu.example.org\r\n" );
+        assertEquals( "HTTP/1.1 200 OK", TestServer.statusLine( pattern ) );
+        assertEquals( "https://shop.eu.example.org", TestServer.header( pattern, "Access-Control-Allow-Origin" ) );
+    }
+
+    @Test
+    public void testDisallowedOrigin() throws IOException
+    {
+        for ( String origin : new String[] { "https://evil.example.com", "http://app.example.com", "https://example.org",
+                                             "https://app.example.com.evil.net" } )
+        {
+            String response = this.server.request( "GET", "/items", "Origin: " + origin + "\r\n" );
+            assertEquals( origin, "HTTP/1.1 403 Forbidden", TestServer.statusLine( response ) );
+            assertNull( origin, TestServer.header( response, "Access-Control-Allow-Origin" ) );
+        }
+    }
+
+    @Test
+    public void testPreflightResponse() throws IOException
+    {
+        String response = this.server.request( "OPTIONS", "/items", "Origin: https://app.example.com\r\n" +
+                "Access-Control-Request-Method: POST\r\nAccess-Control-Request-Headers: x-api-key\r\n" );
+
+        assertEquals( "HTTP/1.1 204 No Content", TestServer.statusLine( response ) );
+        assertEquals( "https://app.example.com", TestServer.header( response, "Access-Control-Allow-Origin" ) );
+        assertTrue( TestServer.header( response, "Access-Control-Allow-Methods" ).contains( "POST" ) );
+        assertEquals( "Content-Type, X-Api-Key", TestServer.header( response, "Access-Control-Allow-Headers" ) );
+        assertEquals( "3600", TestServer.header( response, "Access-Control-Max-Age" ) );
+        assertEquals( "Origin", TestServer.header( response, "Vary" ) );
+
+        String denied = this.server.request( "OPTIONS", "/items", "Origin: https://evil.example.com\r\nAccess-Control-Request-Method: POST\r\n" );
+        assertEquals( "HTTP/1.1 403 Forbidden", TestServer.statusLine( denied ) );
+        assertNull( TestServer.header( denied, "Access-Control-Allow-Methods" ) );
+    }
+
+    @Test
+    public void testSameOriginComparesScheme() throws IOException
+    {
+        String host = "127.0.0.1:" + this.server.port;
+
+        // Requests from the origin of the server itself are not cross-origin, and carry no CORS headers.
+        String same = this.server.request( "GET", "/items", "Origin: http://" + host + "\r\n" );
+        assertEquals( "HTTP/1.1 200 OK", TestServer.statusLine( same ) );
+        assertNull( TestServer.header( same, "Access-Control-Allow-Origin" ) );
+
+        // The same host with another scheme is another origin, which the policy does not allow.
+        String otherScheme = this.server.request( "GET", "/items", "Origin: https://" + host + "\r\n" );
+        assertEquals( "HTTP/1.1 403 Forbidden", TestServer.statusLine( otherScheme ) );
+
+        // Behind a proxy that terminates TLS, the server is reached over https.
+        String proxied = this.server.request( "GET", "/items", "Origin: https://" + host + "\r\nX-Forwarded-Proto: https\r\n" );
+        assertEquals( "HTTP/1.1 200 OK", TestServer.statusLine( proxied ) );
+        String downgraded = this.server.request( "GET", "/items", "Origin: http://" + host + "\r\nX-Forwarded-Proto: https\r\n" );
+        assertEquals( "HTTP/1.1 403 Forbidden", TestServer.statusLine( downgraded ) );
+    }
+
+    @Test
+    public void testPolicyFromPropertiesFile() throws Exception
+    {
+        Path properties = Files.createTempFile( "cors", ".properties" );
+        Files.writeString( properties, "CORS_ENABLED=true\n" +
+                "CORS=https://a.example.com, https://b.example.com\n" +
+                "CORS_ALLOWED_HEADERS=Content-Type, Authorization\n" );
+
+        TestServer configured = TestServer.start( server ->
+        {
+            server.useProperties( properties.toFile() );
+            server.post( "/items", ( request, response ) -> response.body( "created" ) );
+        } );
+        try
+        {
+            String preflight = configured.request( "OPTIONS", "/items", "Origin: https://b.example.com\r\nAccess-Control-Request-Method: POST\r\n" );
+            assertEquals( "HTTP/1.1 204 No Content", TestServer.statusLine( preflight ) );
+            assertEquals( "https://b.example.com", TestServer.header( preflight, "Access-Control-Allow-Origin" ) );
+            assertEquals( "Content-Type, Authorization", TestServer.header( preflight, "Access-Control-Allow-Headers" ) );
+
+            String allowed = configured.request( "POST", "/items", "Origin: https://a.example.com\r\nContent-Length: 0\r\n" );
+            assertEquals( "https://a.example.com", TestServer.header( allowed, "Access-Control-Allow-Origin" ) );
+            String denied = configured.request( "POST", "/items", "Origin: https://c.example.com\r\nContent-Length: 0\r\n" );
+            assertEquals( "HTTP/1.1 403 Forbidden", TestServer.statusLine( denied ) );
+        }
+        finally
+        {
+            configured.stop();
+            Files.delete( properties );
+        }
+    }
+}
@@ -0,0 +1,238 @@
+import nl.getgood.api.middleware.HeavyHitters;
+import nl.getgood.api.middleware.IRateLimitKey;
+import nl.getgood.api.middleware.MiddlewareScope;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by agent.
+ */
+public class HeavyHittersTest
+{
+
+    private static final long WINDOW = TimeUnit.MILLISECONDS.toNanos( 60_000 );
+
+    @Test
+    public void testEstimateIsNeverBelowTrueCount() throws Exception
+    {
+        // A sketch of 16 counters per row is shared by many clients, so most estimates are too high, but never too low.
+        HeavyHitters heavyHitters = new HeavyHitters( 10_000, 10_000, 60_000, 16, 2, 4, () -> 0 )
+                .keyBy( IRateLimitKey.header( "X-Client" ) ).action( HeavyHitters.Action.REPORT );
+        TestServer server = start( heavyHitters );
+        try
+        {
+            Random random = new Random( 42 );
+            int[] requests = new int[ 50 ];
+            for ( int client = 0; client < requests.length; client++ )
+            {
+                requests[ client ] = 1 + random.nextInt( 8 );
+                for ( int i = 0; i < requests[ client ]; i++ )
+                    assertEquals( "HTTP/1.1 200 OK", send( server, "client-" + client, "/" ) );
+            }
+
+            int overestimated = 0;
+            for ( int client = 0; client < requests.length; client++ )
+            {
+                long estimate = heavyHitters.estimate( "client-" + client );
+                assertTrue( "client-" + client, estimate >= requests[ client ] );
+                assertTrue( "client-" + client, heavyHitters.estimate( "client-" + client, "/" ) >= requests[ client ] );
+                if ( estimate > requests[ client ] )
+                    overestimated++;
+            }
+            assertTrue( overestimated > 0 );
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testWindowRotationAndDecay() throws Exception
+    {
+        AtomicLong clock = new AtomicLong();
+        HeavyHitters heavyHitters = new HeavyHitters( 10_000, 10_000, 60_000, 1024, 4, 4, clock::get )
+                .keyBy( IRateLimitKey.header( "X-Client" ) ).action( HeavyHitters.Action.REPORT );
+        TestServer server = start( heavyHitters );
+        try
+        {
+            for ( int i = 0; i < 10; i++ )
+                send( server, "client", "/" );
+            assertEquals( 10, heavyHitters.estimate( "client" ) );
+
+            // At the start of the next window, all requests of the previous window still fall within the last window.
+            clock.set( WINDOW );
+            assertEquals( 10, heavyHitters.estimate( "client" ) );
+            for ( int i = 0; i < 4; i++ )
+                send( server, "client", "/" );
+            assertEquals( 14, heavyHitters.estimate( "client" ) );
+
+            // Halfway the window, half of the requests of the previous window are counted.
+            clock.set( WINDOW + WINDOW / 2 );
+            assertEquals( 4 + 5, heavyHitters.estimate( "client" ) );
+            assertEquals( 4 + 5, heavyHitters.estimate( "client", "/" ) );
+
+            // The requests of the window before the previous window are forgotten.
+            clock.set( 2 * WINDOW );
+            assertEquals( 4, heavyHitters.estimate( "client" ) );
+            clock.set( 3 * WINDOW );
+            assertEquals( 0, heavyHitters.estimate( "client" ) );
+            assertTrue( heavyHitters.topK().isEmpty() );
+
+            // After several windows without requests, both windows are cleared.
+            for ( int i = 0; i < 6; i++ )
+                send( server, "client", "/" );
+            clock.set( 10 * WINDOW );
+            assertEquals( 0, heavyHitters.estimate( "client" ) );
+            assertTrue( heavyHitters.topK().isEmpty() );
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testHeavyHittersAreThrottled() throws Exception
+    {
+        AtomicLong clock = new AtomicLong();
+        HeavyHitters heavyHitters = new HeavyHitters( 3, 100, 60_000, 1024, 4, 4, clock::get )
+                .keyBy( IRateLimitKey.header( "X-Client" ) );
+        TestServer server = start( heavyHitters );
+        try
+        {
+            for ( int i = 0; i < 3; i++ )
+                assertEquals( "HTTP/1.1 200 OK", send( server, "heavy", "/" ) );
+
+            String throttled = server.request( "GET", "/", "X-Client: heavy\r\n" );
+            assertEquals( "HTTP/1.1 429 Too Many Requests", TestServer.statusLine( throttled ) );
+            assertEquals( "60", TestServer.header( throttled, "Retry-After" ) );
+            clock.set( WINDOW / 4 );
+            assertEquals( "45", TestServer.header( server.request( "GET", "/", "X-Client: heavy\r\n" ), "Retry-After" ) );
+
+            // Other clients are not affected.
+            assertEquals( "HTTP/1.1 200 OK", send( server, "light", "/" ) );
+
+            List<HeavyHitters.Hitter> hitters = heavyHitters.topK();
+            assertEquals( new HeavyHitters.Hitter( "heavy", null, 5, true ), hitters.get( 0 ) );
+            assertEquals( new HeavyHitters.Hitter( "light", null, 1, false ), hitters.get( 1 ) );
+
+            // Once the requests of the heavy hitter fall out of the last window, it is allowed again.
+            clock.set( 2 * WINDOW );
+            assertEquals( "HTTP/1.1 200 OK", send( server, "heavy", "/" ) );
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testHeavyHittersOfARouteAreThrottled() throws Exception
+    {
+        HeavyHitters heavyHitters = new HeavyHitters( 100, 2, 60_000, 1024, 4, 4, () -> 0 )
+                .keyBy( IRateLimitKey.header( "X-Client" ) );
+        TestServer server = start( heavyHitters );
+        try
+        {
+            assertEquals( "HTTP/1.1 200 OK", send( server, "client", "/a" ) );
+            assertEquals( "HTTP/1.1 200 OK", send( server, "client", "/a" ) );
+            assertEquals( "HTTP/1.1 429 Too Many Requests", send( server, "client", "/a" ) );
+
+            // The client is only throttled on the route it makes too many requests to.
+            assertEquals( "HTTP/1.1 200 OK", send( server, "client", "/b" ) );
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testHeavyHittersAreBlocked() throws Exception
+    {
+        AtomicLong clock = new AtomicLong();
+        HeavyHitters heavyHitters = new HeavyHitters( 2, 100, 60_000, 1024, 4, 4, clock::get )
+                .keyBy( IRateLimitKey.header( "X-Client" ) ).action( HeavyHitters.Action.BLOCK );
+        TestServer server = start( heavyHitters );
+        try
+        {
+            assertEquals( "HTTP/1.1 200 OK", send( server, "heavy", "/" ) );
+            assertEquals( "HTTP/1.1 200 OK", send( server, "heavy", "/" ) );
+
+            String blocked = server.request( "GET", "/", "X-Client: heavy\r\n" );
+            assertEquals( "HTTP/1.1 403 Forbidden", TestServer.statusLine( blocked ) );
+            assertEquals( null, TestServer.header( blocked, "Retry-After" ) );
+            assertEquals( "HTTP/1.1 200 OK", send( server, "light", "/" ) );
+
+            clock.set( 2 * WINDOW );
+            assertEquals( "HTTP/1.1 200 OK", send( server, "heavy", "/" ) );
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testTopKEvictsLowestEstimate() throws Exception
+    {
+        HeavyHitters heavyHitters = new HeavyHitters( 10_000, 10_000, 60_000, 1024, 4, 2, () -> 0 )
+                .keyBy( IRateLimitKey.header( "X-Client" ) ).action( HeavyHitters.Action.REPORT );
+        TestServer server = start( heavyHitters );
+        try
+        {
+            sendAll( server, "a", 5 );
+            sendAll( server, "b", 3 );
+            sendAll( server, "c", 1 );
+            assertEquals( List.of( "a", "b" ), clients( heavyHitters.topK() ) );
+
+            // Once the estimate of a client exceeds the lowest kept estimate, it replaces that client.
+            sendAll( server, "c", 5 );
+            assertEquals( List.of( "c", "a" ), clients( heavyHitters.topK() ) );
+            assertEquals( 6, heavyHitters.topK().get( 0 ).requests() );
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
+    private static TestServer start( HeavyHitters heavyHitters ) throws IOException, InterruptedException
+    {
+        return TestServer.start( server ->
+        {
+            // Scoped middleware does not count the requests to unknown paths, such as the probe of the test server.
+            server.use( MiddlewareScope.ALL, heavyHitters );
+            for ( String path : new String[] { "/", "/a", "/b" } )
+                server.get( path, ( request, response ) -> response.body( "ok" ) );
+        } );
+    }
+
+    private static String send( TestServer server, String client, String path ) throws IOException
+    {
+        return TestServer.statusLine( server.request( "GET", path, "X-Client: " + client + "\r\n" ) );
+    }
+
+    private static void sendAll( TestServer server, String client, int requests ) throws IOException
+    {
+        for ( int i = 0; i < requests; i++ )
+            send( server, client, "/" );
+    }
+
+    /**
+     * Returns the clients of the top hitters to all routes, from most to least requests.
+     */
+    private static List<String> clients( List<HeavyHitters.Hitter> hitters )
+    {
+        return hitters.stream().filter( hitter -> hitter.route() == null ).map( HeavyHitters.Hitter::client ).toList();
+    }
+}
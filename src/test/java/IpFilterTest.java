@@ -0,0 +1,253 @@
+import nl.getgood.api.middleware.IpFilter;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by agent.
+ */
+public class IpFilterTest
+{
+
+    @Test
+    public void testLongestPrefixDecides() throws UnknownHostException
+    {
+        IpFilter filter = IpFilter.denyList()
+                .deny( "203.0.113.0/24" ).allow( "203.0.113.7" )
+                .deny( "2001:db8::/32" ).allow( "2001:db8:1::/48" ).deny( "2001:db8:1::1" );
+
+        assertFalse( filter.isAllowed( address( "203.0.113.6" ) ) );
+        assertTrue( filter.isAllowed( address( "203.0.113.7" ) ) );
+        assertTrue( filter.isAllowed( address( "203.0.114.7" ) ) );
+        assertFalse( filter.isAllowed( address( "2001:db8:2::1" ) ) );
+        assertTrue( filter.isAllowed( address( "2001:db8:1::2" ) ) );
+        assertFalse( filter.isAllowed( address( "2001:db8:1::1" ) ) );
+        assertTrue( filter.isAllowed( address( "2001:db9::1" ) ) );
+    }
+
+    @Test
+    public void testZeroLengthPrefixes() throws UnknownHostException
+    {
+        // An IPv4 prefix of length 0 contains every IPv4 address, but no IPv6 address.
+        IpFilter ipv4 = IpFilter.allowList().allow( "0.0.0.0/0" ).deny( "10.0.0.0/8" );
+        assertTrue( ipv4.isAllowed( address( "192.0.2.1" ) ) );
+        assertFalse( ipv4.isAllowed( address( "10.1.2.3" ) ) );
+        assertFalse( ipv4.isAllowed( address( "2001:db8::1" ) ) );
+
+        // An IPv6 prefix of length 0 contains every address, including IPv4 addresses.
+        IpFilter ipv6 = IpFilter.allowList().allow( "::/0" ).deny( "fd00::/8" );
+        assertTrue( ipv6.isAllowed( address( "192.0.2.1" ) ) );
+        assertTrue( ipv6.isAllowed( address( "2001:db8::1" ) ) );
+        assertFalse( ipv6.isAllowed( address( "fd12::1" ) ) );
+    }
+
+    @Test
+    public void testIpv4MappedAddressesMatchIpv4Prefixes() throws UnknownHostException
+    {
+        IpFilter filter = IpFilter.denyList().deny( "198.51.100.0/24" ).allow( "::ffff:198.51.100.128/121" );
+
+        assertFalse( filter.isAllowed( address( "198.51.100.1" ) ) );
+        assertFalse( filter.isAllowed( address( "::ffff:198.51.100.1" ) ) );
+        assertTrue( filter.isAllowed( address( "198.51.100.130" ) ) );
+        assertTrue( filter.isAllowed( address( "::ffff:198.51.100.130" ) ) );
+    }
+
+    @Test
+    public void testRandomPrefixesMatchBruteForce() throws UnknownHostException
+    {
+        Random random = new Random( 42 );
+        for ( int round = 0; round < 20; round++ )
+        {
+            boolean allowList = random.nextBoolean();
+            IpFilter filter = allowList ? IpFilter.allowList() : IpFilter.denyList();
+
+            // Prefixes are taken from a few networks, so that many of them overlap.
+            byte[][] networks = new byte[ 6 ][];
+            for ( int i = 0; i < networks.length; i++ )
+                networks[ i ] = randomAddress( random, i % 2 == 0 );
+
+            List<Rule> rules = new ArrayList<>();
+            for ( int i = 0; i < 200; i++ )
+            {
+                byte[] network = perturb( random, networks[ random.nextInt( networks.length ) ] );
+                Rule rule = randomRule( random, network );
+                rules.add( rule );
+                if ( rule.allow )
+                    filter.allow( rule.cidr );
+                else
+                    filter.deny( rule.cidr );
+            }
+
+            for ( int i = 0; i < 2000; i++ )
+            {
+                byte[] bytes = i % 10 == 0 ?
+                        randomAddress( random, random.nextBoolean() ) :
+                        perturb( random, networks[ random.nextInt( networks.length ) ] );
+                InetAddress address = InetAddress.getByAddress( isMapped( bytes ) && random.nextBoolean() ?
+                                                                        slice( bytes, 12, 4 ) : bytes );
+
+                assertEquals( "Round " + round + ", address " + address.getHostAddress(),
+                              bruteForce( rules, bytes, allowList ), filter.isAllowed( address ) );
+            }
+        }
+    }
+
+    @Test
+    public void testConnectionFilterStopsWatchingWhenServerStops() throws Exception
+    {
+        Path file = Files.createTempFile( "blocked", ".txt" );
+        Files.writeString( file, "192.0.2.0/24\n" );
+        IpFilter filter = IpFilter.denyList().load( file ).watch( 20 );
+        try
+        {
+            TestServer server = TestServer.start( s -> s.filter( filter ) );
+            assertFalse( filter.isAllowed( address( "192.0.2.1" ) ) );
+            server.stop();
+
+            // A change after the server stopped is no longer picked up.
+            Files.writeString( file, "198.51.100.0/24\n" );
+            Files.setLastModifiedTime( file, FileTime.fromMillis( System.currentTimeMillis() + 5_000 ) );
+            Thread.sleep( 200 );
+            assertFalse( filter.isAllowed( address( "192.0.2.1" ) ) );
+            assertTrue( filter.isAllowed( address( "198.51.100.1" ) ) );
+        }
+        finally
+        {
+            filter.close();
+            Files.delete( file );
+        }
+    }
+
+    /**
+     * A prefix in CIDR notation, and the address and length it covers as an IPv6 prefix.
+     */
+    private record Rule( String cidr, byte[] address, int length, boolean allow ) {}
+
+    /**
+     * Finds the rule of the longest prefix that contains an address by checking every prefix,
+     * where of equal prefixes the last one applies.
+     */
+    private static boolean bruteForce( List<Rule> rules, byte[] address, boolean allowList )
+    {
+        Rule match = null;
+        for ( Rule rule : rules )
+        {
+            if ( ( match == null || rule.length >= match.length ) && contains( rule, address ) )
+                match = rule;
+        }
+        return match == null ? ! allowList : match.allow;
+    }
+
+    private static boolean contains( Rule rule, byte[] address )
+    {
+        for ( int bit = 0; bit < rule.length; bit++ )
+        {
+            if ( bit( rule.address, bit ) != bit( address, bit ) )
+                return false;
+        }
+        return true;
+    }
+
+    private static int bit( byte[] address, int index )
+    {
+        return address[ index >>> 3 ] >>> ( 7 - ( index & 7 ) ) & 1;
+    }
+
+    /**
+     * Creates a rule for a network, written as an IPv4, IPv4-mapped or IPv6 prefix.
+     */
+    private static Rule randomRule( Random random, byte[] network ) throws UnknownHostException
+    {
+        boolean allow = random.nextBoolean();
+        if ( ! isMapped( network ) )
+        {
+            int length = random.nextInt( 129 );
+            String host = InetAddress.getByAddress( network ).getHostAddress();
+            return new Rule( host + "/" + length, network, length, allow );
+        }
+
+        String ipv4 = InetAddress.getByAddress( slice( network, 12, 4 ) ).getHostAddress();
+        if ( random.nextInt( 4 ) == 0 )
+        {
+            int length = 96 + random.nextInt( 33 );
+            return new Rule( "::ffff:" + ipv4 + "/" + length, network, length, allow );
+        }
+
+        // IPv4 prefixes without a length cover a single address.
+        int length = random.nextInt( 34 ) - 1;
+        return length < 0 ?
+                new Rule( ipv4, network, 128, allow ) :
+                new Rule( ipv4 + "/" + length, network, 96 + length, allow );
+    }
+
+    /**
+     * Creates a random IPv6 address, or a random IPv4 address as an IPv4-mapped address.
+     */
+    private static byte[] randomAddress( Random random, boolean ipv4 )
+    {
+        byte[] address = new byte[ 16 ];
+        random.nextBytes( address );
+        if ( ipv4 )
+        {
+            for ( int i = 0; i < 10; i++ )
+                address[ i ] = 0;
+            address[ 10 ] = ( byte ) 0xFF;
+            address[ 11 ] = ( byte ) 0xFF;
+        }
+        else if ( address[ 0 ] == 0 )
+        {
+            // Keeps the address out of the IPv4-mapped range.
+            address[ 0 ] = 0x20;
+        }
+        return address;
+    }
+
+    /**
+     * Flips a few of the last bits of an address, staying within its family.
+     */
+    private static byte[] perturb( Random random, byte[] address )
+    {
+        byte[] perturbed = address.clone();
+        int bits = isMapped( address ) ? 32 : 128;
+        int flips = random.nextInt( 4 );
+        for ( int i = 0; i < flips; i++ )
+        {
+            int index = 128 - 1 - random.nextInt( 1 + random.nextInt( bits ) );
+            perturbed[ index >>> 3 ] ^= ( byte ) ( 0x80 >>> ( index & 7 ) );
+        }
+        return perturbed;
+    }
+
+    private static boolean isMapped( byte[] address )
+    {
+        for ( int i = 0; i < 10; i++ )
+        {
+            if ( address[ i ] != 0 )
+                return false;
+        }
+        return address[ 10 ] == ( byte ) 0xFF && address[ 11 ] == ( byte ) 0xFF;
+    }
+
+    private static byte[] slice( byte[] bytes, int offset, int length )
+    {
+        byte[] slice = new byte[ length ];
+        System.arraycopy( bytes, offset, slice, 0, length );
+        return slice;
+    }
+
+    private static InetAddress address( String literal ) throws UnknownHostException
+    {
+        return InetAddress.getByName( literal );
+    }
+}
@@ -0,0 +1,184 @@
+import nl.getgood.api.http.IRequestHandler;
+import nl.getgood.api.http.Request;
+import nl.getgood.api.http.RequestMethod;
+import nl.getgood.api.http.Response;
+import nl.getgood.api.http.StatusCode;
+import nl.getgood.api.middleware.Middleware;
+import nl.getgood.api.middleware.MiddlewareScope;
+import nl.getgood.api.server.Server;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created by agent.
+ */
+public class MiddlewareScopeTest
+{
+
+    /**
+     * The middleware, handlers and after-hooks that ran for the last request, in the order in which they ran.
+     */
+    private final List<String> calls = Collections.synchronizedList( new ArrayList<>() );
+
+    private TestServer server;
+
+    @After
+    public void stopServer()
+    {
+        if ( this.server != null )
+            this.server.stop();
+    }
+
+    @Test
+    public void testMiddlewareRunsForRoutesInScope() throws Exception
+    {
+        this.start( server ->
+        {
+            server.use( new Recorder( "global" ) );
+            server.use( "/admin", new Recorder( "admin" ) );
+            server.use( MiddlewareScope.route( "/users/:id" ), new Recorder( "user" ) );
+            server.use( MiddlewareScope.method( RequestMethod.POST ), new Recorder( "post" ) );
+            server.get( "/admin/users", this.handler() );
+            server.get( "/administrators", this.handler() );
+            server.get( "/users/:id", this.handler() );
+            server.post( "/users/:id", this.handler() );
+        } );
+
+        this.assertCalls( "GET", "/admin/users", "200 OK", "global", "admin", "handler", "admin.after", "global.after" );
+        this.assertCalls( "GET", "/users/7", "200 OK", "global", "user", "handler", "user.after", "global.after" );
+        this.assertCalls( "POST", "/users/7", "200 OK", "global", "user", "post", "handler", "post.after", "user.after", "global.after" );
+
+        // A prefix is matched by segment.
+        this.assertCalls( "GET", "/administrators", "200 OK", "global", "handler", "global.after" );
+
+        // Scoped middleware does not run for requests without a route, or without a handler for their method.
+        this.assertCalls( "GET", "/unknown", "404 Not Found", "global", "global.after" );
+        this.assertCalls( "POST", "/admin/users", "405 Method Not Allowed", "global", "global.after" );
+    }
+
+    @Test
+    public void testStoppedRequestRunsAfterHooksOfPassedMiddleware() throws Exception
+    {
+        this.start( server ->
+        {
+            server.use( new Recorder( "first" ) );
+            server.use( new Recorder( "second" ) );
+            server.use( "/admin", new Recorder( "admin" ) );
+            server.use( "/admin/secret", new Recorder( "deny", false ) );
+            server.use( MiddlewareScope.ALL, new Recorder( "all" ) );
+            server.get( "/admin/secret", this.handler() );
+            server.get( "/public", this.handler() );
+        } );
+
+        // The after-hooks run for the middleware that let the request pass, but not for the one that stopped it.
+        this.assertCalls( "GET", "/admin/secret", "403 Forbidden", "first", "second", "admin", "deny", "admin.after", "second.after", "first.after" );
+        this.assertCalls( "GET", "/public", "200 OK", "first", "second", "all", "handler", "all.after", "second.after", "first.after" );
+    }
+
+    @Test
+    public void testStoppedByGlobalMiddlewareSkipsScopedMiddleware() throws Exception
+    {
+        this.start( server ->
+        {
+            server.use( new Recorder( "first" ) );
+            server.use( new Recorder( "deny", false ) );
+            server.use( new Recorder( "third" ) );
+            server.use( MiddlewareScope.ALL, new Recorder( "all" ) );
+            server.get( "/items", this.handler() );
+        } );
+
+        this.assertCalls( "GET", "/items", "403 Forbidden", "first", "deny", "first.after" );
+    }
+
+    @Test
+    public void testAfterHooksRunWhenAsynchronousRouteCompletes() throws Exception
+    {
+        this.start( server ->
+        {
+            server.use( new Recorder( "global" ) );
+            server.use( "/async", new Recorder( "async" ) );
+            server.getAsync( "/async/items", ( request, response ) ->
+                    CompletableFuture.runAsync( () ->
+                    {
+                        this.calls.add( "handler" );
+                        response.body( "ok" );
+                    }, CompletableFuture.delayedExecutor( 50, TimeUnit.MILLISECONDS ) ) );
+            server.getAsync( "/async/slow", ( request, response ) -> new CompletableFuture<>(), 100 );
+        } );
+
+        this.assertCalls( "GET", "/async/items", "200 OK", "global", "async", "handler", "async.after", "global.after" );
+
+        // The after-hooks also run for the response of a route that did not complete in time.
+        this.assertCalls( "GET", "/async/slow", "504 Gateway Timeout", "global", "async", "async.after", "global.after" );
+    }
+
+    private void start( Consumer<Server> configure ) throws IOException, InterruptedException
+    {
+        this.server = TestServer.start( configure );
+    }
+
+    /**
+     * Sends a request, and checks its status and the calls that were made for it.
+     */
+    private void assertCalls( String method, String path, String status, String... calls ) throws IOException
+    {
+        this.calls.clear();
+        String response = this.server.request( method, path, method.equals( "POST" ) ? "Content-Length: 0\r\n" : "" );
+        assertEquals( method + " " + path, "HTTP/1.1 " + status, TestServer.statusLine( response ) );
+        assertEquals( method + " " + path, List.of( calls ), new ArrayList<>( this.calls ) );
+    }
+
+    private IRequestHandler handler()
+    {
+        return ( request, response ) ->
+        {
+            this.calls.add( "handler" );
+            response.body( "ok" );
+        };
+    }
+
+    /**
+     * A middleware that records when it runs, and that lets requests pass or stops them with `403 Forbidden`.
+     */
+    private final class Recorder implements Middleware
+    {
+        private final String name;
+        private final boolean pass;
+
+        private Recorder( String name )
+        {
+            this( name, true );
+        }
+
+        private Recorder( String name, boolean pass )
+        {
+            this.name = name;
+            this.pass = pass;
+        }
+
+        @Override
+        public boolean handleRequest( Request request, Response response )
+        {
+            calls.add( this.name );
+            if ( ! this.pass )
+                response.status( StatusCode.FORBIDDEN );
+            return this.pass;
+        }
+
+        @Override
+        public void afterRequest( Request request, Response response )
+        {
+            calls.add( this.name + ".after" );
+        }
+    }
+}
@@ -0,0 +1,118 @@
+import nl.getgood.api.middleware.RateLimiter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the throughput of the rate limiter under contention, with all threads limiting a single client
+ * and with every thread limiting its own clients, against a limiter that guards a hash map with a lock.
+ * This is not a unit test; run it with its main method, for example:
+ * <pre>
+ * java -cp target/classes:target/test-classes RateLimiterBenchmark
+ * </pre>
+ * Created by agent.
+ */
+public class RateLimiterBenchmark
+{
+
+    private static final int OPERATIONS_PER_THREAD = 2_000_000;
+    private static final int CLIENTS = 10_000;
+
+    public static void main( String[] args ) throws InterruptedException
+    {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String[] clients = new String[ CLIENTS ];
+        for ( int i = 0; i < CLIENTS; i++ )
+            clients[ i ] = "10.0." + ( i / 256 ) + "." + ( i % 256 );
+
+        for ( int round = 0; round < 3; round++ )
+        {
+            RateLimiter limiter = new RateLimiter( 1_000_000, 1000, false, CLIENTS * 2 );
+            LockingLimiter locking = new LockingLimiter( 1_000_000, 1000 );
+
+            System.out.printf( "round %d, %d threads:%n", round, threads );
+            System.out.printf( "  single client: lock-free %6.1f ns/op, locking %6.1f ns/op%n",
+                               measure( threads, ( thread, i ) -> limiter.tryAcquire( clients[ 0 ] ) ),
+                               measure( threads, ( thread, i ) -> locking.tryAcquire( clients[ 0 ] ) ) );
+            System.out.printf( "  many clients:  lock-free %6.1f ns/op, locking %6.1f ns/op%n",
+                               measure( threads, ( thread, i ) -> limiter.tryAcquire( clients[ ( thread * 7919 + i ) % CLIENTS ] ) ),
+                               measure( threads, ( thread, i ) -> locking.tryAcquire( clients[ ( thread * 7919 + i ) % CLIENTS ] ) ) );
+            limiter.close();
+        }
+    }
+
+    /**
+     * Runs the operation on all threads at once, and returns the average wall-clock time per operation.
+     */
+    private static double measure( int threads, Operation operation ) throws InterruptedException
+    {
+        CountDownLatch start = new CountDownLatch( 1 );
+        CountDownLatch done = new CountDownLatch( threads );
+        LongAdder admitted = new LongAdder();
+
+        for ( int t = 0; t < threads; t++ )
+        {
+            int thread = t;
+            new Thread( () ->
+            {
+                try
+                {
+                    start.await();
+                    for ( int i = 0; i < OPERATIONS_PER_THREAD; i++ )
+                    {
+                        if ( operation.run( thread, i ) )
+                            admitted.increment();
+                    }
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            } ).start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        if ( admitted.sum() == 0 )
+            System.out.println( "  (nothing was admitted)" );
+        return ( double ) elapsed / ( ( long ) threads * OPERATIONS_PER_THREAD );
+    }
+
+    private interface Operation
+    {
+        boolean run( int thread, int iteration );
+    }
+
+    /**
+     * A fixed-window limiter that guards a hash map with a lock, as a baseline.
+     */
+    private static final class LockingLimiter
+    {
+        private final Map<Object, long[]> entries = new HashMap<>();
+        private final int maxRequests;
+        private final long timeFrame;
+
+        private LockingLimiter( int maxRequests, int timeFrameMs )
+        {
+            this.maxRequests = maxRequests;
+            this.timeFrame = timeFrameMs * 1_000_000L;
+        }
+
+        private synchronized boolean tryAcquire( Object key )
+        {
+            long now = System.nanoTime();
+            long[] entry = this.entries.computeIfAbsent( key, k -> new long[] { now, 0 } );
+            if ( now - entry[ 0 ] > this.timeFrame )
+            {
+                entry[ 0 ] = now;
+                entry[ 1 ] = 0;
+            }
+            return ++entry[ 1 ] <= this.maxRequests;
+        }
+    }
+}
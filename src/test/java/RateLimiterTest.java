@@ -0,0 +1,200 @@
+import nl.getgood.api.middleware.IRateLimitKey;
+import nl.getgood.api.middleware.RateLimiter;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by agent.
+ */
+public class RateLimiterTest
+{
+
+    private static final int THREADS = 16;
+
+    @Test
+    public void testMadeUpKeysDoNotLockOutNewClients() throws Exception
+    {
+        // Every stripe holds a single client, and the clock stands still, so no entry becomes idle.
+        RateLimiter limiter = new RateLimiter( 2, 60_000, false, 16, () -> 0 ).keyBy( IRateLimitKey.header( "X-Api-Key" ) );
+        TestServer server = TestServer.start( s ->
+        {
+            s.use( limiter );
+            s.get( "/", ( request, response ) -> response.body( "ok" ) );
+        } );
+        try
+        {
+            String existing = server.request( "127.0.0.2", "GET", "/", "X-Api-Key: existing\r\n" );
+            assertEquals( "HTTP/1.1 200 OK", TestServer.statusLine( existing ) );
+
+            // The attacker fills every stripe with made-up keys, after which it is limited by its address.
+            int admitted = 0;
+            for ( int i = 0; i < 200; i++ )
+            {
+                if ( TestServer.statusLine( server.request( "127.0.0.3", "GET", "/", "X-Api-Key: made-up-" + i + "\r\n" ) ).endsWith( "200 OK" ) )
+                    admitted++;
+            }
+            assertTrue( admitted <= 16 + 2 );
+            assertTrue( limiter.size() <= 16 + 1 );
+
+            // A new client is limited by its own address, and the existing key keeps its own limit.
+            String newClient = server.request( "127.0.0.4", "GET", "/", "X-Api-Key: new\r\n" );
+            assertEquals( "HTTP/1.1 200 OK", TestServer.statusLine( newClient ) );
+            assertEquals( "1", TestServer.header( newClient, "RateLimit-Remaining" ) );
+            assertEquals( "HTTP/1.1 200 OK", TestServer.statusLine( server.request( "127.0.0.2", "GET", "/", "X-Api-Key: existing\r\n" ) ) );
+            assertEquals( "HTTP/1.1 429 Too Many Requests",
+                          TestServer.statusLine( server.request( "127.0.0.2", "GET", "/", "X-Api-Key: existing\r\n" ) ) );
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testConcurrentRequestsNeverExceedLimit() throws InterruptedException
+    {
+        // The clock stands still, so exactly the burst of 100 requests must be admitted.
+        RateLimiter limiter = new RateLimiter( 100, 60_000, false, 1000, () -> 0 );
+        AtomicInteger admitted = new AtomicInteger();
+
+        runConcurrently( () ->
+        {
+            for ( int i = 0; i < 10_000; i++ )
+            {
+                if ( limiter.tryAcquire( "client" ) )
+                    admitted.incrementAndGet();
+            }
+        } );
+
+        assertEquals( 100, admitted.get() );
+        limiter.close();
+    }
+
+    @Test
+    public void testClientsAreLimitedIndependently() throws InterruptedException
+    {
+        RateLimiter limiter = new RateLimiter( 10, 60_000, false, 1000, () -> 0 );
+        AtomicInteger[] admitted = new AtomicInteger[ 64 ];
+        for ( int i = 0; i < admitted.length; i++ )
+            admitted[ i ] = new AtomicInteger();
+
+        runConcurrently( () ->
+        {
+            for ( int i = 0; i < 1000; i++ )
+            {
+                int client = i % admitted.length;
+                if ( limiter.tryAcquire( "client-" + client ) )
+                    admitted[ client ].incrementAndGet();
+            }
+        } );
+
+        for ( AtomicInteger count : admitted )
+            assertEquals( 10, count.get() );
+        limiter.close();
+    }
+
+    @Test
+    public void testRequestsAreReplenishedOverTime()
+    {
+        AtomicLong time = new AtomicLong();
+        RateLimiter limiter = new RateLimiter( 10, 1000, false, 1000, time::get );
+
+        for ( int i = 0; i < 10; i++ )
+            assertTrue( limiter.tryAcquire( "client" ) );
+        assertFalse( limiter.tryAcquire( "client" ) );
+
+        // One request is replenished every 100 milliseconds.
+        time.addAndGet( TimeUnit.MILLISECONDS.toNanos( 100 ) );
+        assertTrue( limiter.tryAcquire( "client" ) );
+        assertFalse( limiter.tryAcquire( "client" ) );
+        limiter.close();
+    }
+
+    @Test
+    public void testAcquireReportsRemainingRequestsAndWaitTime()
+    {
+        AtomicLong time = new AtomicLong();
+        RateLimiter limiter = new RateLimiter( 10, 1000, false, 1000, time::get );
+        long interval = TimeUnit.MILLISECONDS.toNanos( 100 );
+
+        // Every admitted request reserves one interval of the time frame.
+        for ( int i = 1; i <= 10; i++ )
+            assertEquals( i * interval, limiter.acquire( "client" ) );
+
+        // A limited client has to wait until the first request is replenished.
+        assertEquals( - interval, limiter.acquire( "client" ) );
+        time.addAndGet( TimeUnit.MILLISECONDS.toNanos( 40 ) );
+        assertEquals( - TimeUnit.MILLISECONDS.toNanos( 60 ), limiter.acquire( "client" ) );
+        limiter.close();
+    }
+
+    @Test
+    public void testIdleEntriesAreEvictedUnderConcurrentLoad() throws InterruptedException
+    {
+        AtomicLong time = new AtomicLong();
+        RateLimiter limiter = new RateLimiter( 5, 1000, false, 1600, time::get );
+        AtomicInteger admitted = new AtomicInteger();
+
+        // Every client makes five requests, and is idle once the time frame has passed.
+        AtomicInteger nextClient = new AtomicInteger();
+        runConcurrently( () ->
+        {
+            for ( int i = 0; i < 500; i++ )
+            {
+                int client = nextClient.getAndIncrement();
+                for ( int j = 0; j < 5; j++ )
+                {
+                    if ( limiter.tryAcquire( client ) )
+                        admitted.incrementAndGet();
+                }
+                if ( client % 100 == 0 )
+                    time.addAndGet( TimeUnit.MILLISECONDS.toNanos( 1000 ) );
+            }
+        } );
+
+        assertTrue( "Entries exceed their bound: " + limiter.size(), limiter.size() <= 1600 + THREADS );
+        time.addAndGet( TimeUnit.MILLISECONDS.toNanos( 2000 ) );
+        limiter.evictIdle();
+        assertEquals( 0, limiter.size() );
+
+        // An evicted client is admitted again with a full time frame of requests.
+        for ( int i = 0; i < 5; i++ )
+            assertTrue( limiter.tryAcquire( 0 ) );
+        assertFalse( limiter.tryAcquire( 0 ) );
+        limiter.close();
+    }
+
+    private static void runConcurrently( Runnable task ) throws InterruptedException
+    {
+        ExecutorService executor = Executors.newFixedThreadPool( THREADS );
+        CountDownLatch start = new CountDownLatch( 1 );
+        for ( int i = 0; i < THREADS; i++ )
+        {
+            executor.execute( () ->
+            {
+                try
+                {
+                    start.await();
+                    task.run();
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            } );
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue( executor.awaitTermination( 30, TimeUnit.SECONDS ) );
+    }
+}
@@ -0,0 +1,87 @@
+import nl.getgood.api.http.Request;
+import nl.getgood.api.http.Response;
+import nl.getgood.api.middleware.Middleware;
+import nl.getgood.api.server.CorsPolicy;
+import nl.getgood.api.server.ResponseCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by agent.
+ */
+public class ResponseCacheTest
+{
+
+    private final AtomicInteger invocations = new AtomicInteger();
+    private TestServer server;
+
+    @Before
+    public void startServer() throws Exception
+    {
+        this.server = TestServer.start( server ->
+        {
+            server.cors( CorsPolicy.allowOrigins( "https://a.example.com", "https://b.example.com" ) );
+            server.use( new Middleware()
+            {
+                @Override
+                public boolean handleRequest( Request request, Response response )
+                {
+                    response.header( "X-Client", request.headers.getOrDefault( "x-client", "none" ) );
+                    return true;
+                }
+            } );
+            server.get( "/products", ResponseCache.cached( ( request, response ) ->
+                    response.header( "Cache-Control", "max-age=60" )
+                            .body( "products " + this.invocations.incrementAndGet() ), 60_000 ) );
+        } );
+    }
+
+    @After
+    public void stopServer()
+    {
+        this.server.stop();
+    }
+
+    @Test
+    public void testCachedResponseCarriesHeadersOfEveryRequest() throws IOException
+    {
+        String first = this.request( "https://a.example.com", "1" );
+        String second = this.request( "https://b.example.com", "2" );
+        String third = this.request( null, "3" );
+
+        // The handler ran once, and the other requests were answered from the cache.
+        assertEquals( 1, this.invocations.get() );
+        assertTrue( first.endsWith( "products 1" ) );
+        assertTrue( second.endsWith( "products 1" ) );
+        assertTrue( third.endsWith( "products 1" ) );
+
+        assertEquals( "https://a.example.com", TestServer.header( first, "Access-Control-Allow-Origin" ) );
+        assertEquals( "https://b.example.com", TestServer.header( second, "Access-Control-Allow-Origin" ) );
+        assertEquals( null, TestServer.header( third, "Access-Control-Allow-Origin" ) );
+
+        assertEquals( "1", TestServer.header( first, "X-Client" ) );
+        assertEquals( "2", TestServer.header( second, "X-Client" ) );
+        assertEquals( "3", TestServer.header( third, "X-Client" ) );
+
+        // The headers of the handler are cached, and every header appears once.
+        assertEquals( "max-age=60", TestServer.header( second, "Cache-Control" ) );
+        assertTrue( TestServer.header( second, "Vary" ).contains( "Origin" ) );
+        assertEquals( 1, TestServer.count( second, "Access-Control-Allow-Origin" ) );
+        assertEquals( 1, TestServer.count( second, "Vary" ) );
+        assertFalse( TestServer.header( third, "Vary" ) != null && TestServer.header( third, "Vary" ).contains( "Origin" ) );
+    }
+
+    private String request( String origin, String client ) throws IOException
+    {
+        return this.server.request( "GET", "/products", "X-Client: " + client + "\r\n" +
+                ( origin == null ? "" : "Origin: " + origin + "\r\n" ) );
+    }
+}
@@ -0,0 +1,73 @@
+import nl.getgood.api.http.IRequestHandler;
+import nl.getgood.api.http.Request;
+import nl.getgood.api.http.RequestMethod;
+import nl.getgood.api.http.Response;
+import nl.getgood.api.module.Module;
+import nl.getgood.api.server.RegisteredApiRoute;
+import nl.getgood.api.server.Route;
+
+import java.lang.reflect.Method;
+
+/**
+ * Compares invoking an annotated route method reflectively, as modules used to,
+ * against the handler that is generated for it, and against a hand-written lambda.
+ * This is not a unit test; run it with its main method, for example:
+ * <pre>
+ * java -cp target/classes:target/test-classes RouteHandlerInvocationBenchmark
+ * </pre>
+ * Created by agent.
+ */
+public class RouteHandlerInvocationBenchmark
+{
+
+    private static final int ITERATIONS = 50_000_000;
+
+    public static void main( String[] args ) throws Exception
+    {
+        CounterModule module = new CounterModule();
+        Method method = CounterModule.class.getDeclaredMethod( "handleCount", Request.class, Response.class );
+
+        IRequestHandler reflective = ( request, response ) ->
+        {
+            try
+            {
+                method.invoke( module, request, response );
+            }
+            catch ( Exception e )
+            {
+                throw new IllegalStateException( e );
+            }
+        };
+        IRequestHandler generated = module.getApiHandlers().get( 0 ).getRequestHandler();
+        IRequestHandler handWritten = module::handleCount;
+
+        for ( int round = 0; round < 3; round++ )
+        {
+            System.out.printf( "round %d: reflective %5.2f ns/call, generated %5.2f ns/call, hand-written %5.2f ns/call%n",
+                               round,
+                               ( double ) measure( reflective ) / ITERATIONS,
+                               ( double ) measure( generated ) / ITERATIONS,
+                               ( double ) measure( handWritten ) / ITERATIONS );
+        }
+        System.out.println( "Calls: " + module.count );
+    }
+
+    private static long measure( IRequestHandler handler )
+    {
+        long start = System.nanoTime();
+        for ( int i = 0; i < ITERATIONS; i++ )
+            handler.handleRequest( null, null );
+        return System.nanoTime() - start;
+    }
+
+    public static class CounterModule extends Module
+    {
+        private long count = 0;
+
+        @Route( route = "/count", method = RequestMethod.GET )
+        public void handleCount( Request request, Response response )
+        {
+            this.count++;
+        }
+    }
+}
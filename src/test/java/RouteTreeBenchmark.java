@@ -0,0 +1,103 @@
+import nl.getgood.api.http.IRequestHandler;
+import nl.getgood.api.http.RequestMethod;
+import nl.getgood.api.server.RouteTable;
+import nl.getgood.api.server.RouteTree;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures route lookups in the compiled route table with around 1,000 routes, a mix of static routes
+ * and routes with path parameters and wildcards, against exact lookups in a hash map,
+ * which is how routes were resolved before and which cannot match parametric routes at all.
+ * This is not a unit test; run it with its main method, for example:
+ * <pre>
+ * java -cp target/classes:target/test-classes RouteTreeBenchmark
+ * </pre>
+ * Created by agent.
+ */
+public class RouteTreeBenchmark
+{
+
+    private static final int RESOURCES = 250;
+    private static final int ITERATIONS = 5_000_000;
+
+    public static void main( String[] args )
+    {
+        IRequestHandler handler = ( request, response ) -> {};
+        RouteTree tree = new RouteTree();
+        Map<String, Map<RequestMethod, IRequestHandler>> exact = new HashMap<>();
+
+        // Four routes per resource: two static, one with a parameter and one with a wildcard.
+        for ( int i = 0; i < RESOURCES; i++ )
+        {
+            String resource = "/v1/resource" + i;
+            for ( String route : new String[] { resource, resource + "/search" } )
+            {
+                tree.insert( route, RequestMethod.GET, handler );
+                exact.computeIfAbsent( route, key -> new EnumMap<>( RequestMethod.class ) ).put( RequestMethod.GET, handler );
+            }
+            tree.insert( resource + "/:id/items/:item", RequestMethod.GET, handler );
+            tree.insert( resource + "/files/*path", RequestMethod.GET, handler );
+        }
+        RouteTable table = tree.compile();
+        System.out.println( "Routes: " + table.size() );
+
+        Random random = new Random( 42 );
+        String[] staticPaths = new String[ 1024 ];
+        String[] dynamicPaths = new String[ 1024 ];
+        for ( int i = 0; i < staticPaths.length; i++ )
+        {
+            int resource = random.nextInt( RESOURCES );
+            staticPaths[i] = "/v1/resource" + resource + "/search";
+            dynamicPaths[i] = random.nextBoolean() ?
+                    "/v1/resource" + resource + "/" + random.nextInt( 100_000 ) + "/items/" + random.nextInt( 100 ) :
+                    "/v1/resource" + resource + "/files/images/" + random.nextInt( 1000 ) + ".png";
+        }
+
+        for ( int round = 0; round < 3; round++ )
+        {
+            long hashMap = measureHashMap( exact, staticPaths );
+            long treeStatic = measureTree( table, staticPaths );
+            long treeDynamic = measureTree( table, dynamicPaths );
+            System.out.printf( "round %d: hash map (static) %6.1f ns/lookup, tree (static) %6.1f ns/lookup, " +
+                                       "tree (parameters) %6.1f ns/lookup%n", round,
+                               ( double ) hashMap / ITERATIONS, ( double ) treeStatic / ITERATIONS,
+                               ( double ) treeDynamic / ITERATIONS );
+        }
+    }
+
+    private static long measureHashMap( Map<String, Map<RequestMethod, IRequestHandler>> routes, String[] paths )
+    {
+        int found = 0;
+        long start = System.nanoTime();
+        for ( int i = 0; i < ITERATIONS; i++ )
+        {
+            if ( routes.get( paths[i & ( paths.length - 1 )] ) != null )
+                found++;
+        }
+        long elapsed = System.nanoTime() - start;
+        if ( found != ITERATIONS )
+            System.out.println( "Not all routes were found" );
+        return elapsed;
+    }
+
+    private static long measureTree( RouteTable table, String[] paths )
+    {
+        int found = 0;
+        Map<String, String> parameters = new HashMap<>();
+        long start = System.nanoTime();
+        for ( int i = 0; i < ITERATIONS; i++ )
+        {
+            parameters.clear();
+            if ( table.lookup( paths[i & ( paths.length - 1 )], parameters ) != null )
+                found++;
+        }
+        long elapsed = System.nanoTime() - start;
+        if ( found != ITERATIONS )
+            System.out.println( "Not all routes were found" );
+        return elapsed;
+    }
+}
@@ -0,0 +1,133 @@
+import nl.getgood.api.http.IRequestHandler;
+import nl.getgood.api.http.RequestMethod;
+import nl.getgood.api.server.RouteTable;
+import nl.getgood.api.server.RouteTree;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by agent.
+ */
+public class RouteTreeTest
+{
+
+    private static final IRequestHandler HANDLER = ( request, response ) -> {};
+
+    @Test
+    public void testStaticRoutesTakePriorityOverParametersAndWildcards()
+    {
+        RouteTable table = compile( "/users/me", "/users/:id", "/users/*rest" );
+
+        assertMatch( table, "/users/me", "/users/me", Map.of() );
+        assertMatch( table, "/users/42", "/users/:id", Map.of( "id", "42" ) );
+        assertMatch( table, "/users/42/posts", "/users/*rest", Map.of( "rest", "42/posts" ) );
+        assertMatch( table, "/users/meet", "/users/:id", Map.of( "id", "meet" ) );
+    }
+
+    @Test
+    public void testParametersAndWildcards()
+    {
+        RouteTable table = compile( "/users/:id/posts/:post", "/files/*path", "/" );
+
+        assertMatch( table, "/users/7/posts/13", "/users/:id/posts/:post", Map.of( "id", "7", "post", "13" ) );
+        assertMatch( table, "/files/images/logo.png", "/files/*path", Map.of( "path", "images/logo.png" ) );
+        assertMatch( table, "/", "/", Map.of() );
+
+        // Parameters match a single, non-empty segment.
+        assertNoMatch( table, "/users//posts/13" );
+        assertNoMatch( table, "/users/7/posts" );
+        assertNoMatch( table, "/users/7/posts/13/comments" );
+        assertNoMatch( table, "/unknown" );
+    }
+
+    @Test
+    public void testBacktracking()
+    {
+        // "/users/new/edit" starts in the static branch, which has no route for it,
+        // so the parameter branch has to be tried next.
+        RouteTable table = compile( "/users/new", "/users/:id/edit", "/users/new/:step/done", "/*any" );
+
+        assertMatch( table, "/users/new/edit", "/users/:id/edit", Map.of( "id", "new" ) );
+        assertMatch( table, "/users/new/1/done", "/users/new/:step/done", Map.of( "step", "1" ) );
+
+        // Parameters of abandoned branches are not left behind.
+        assertMatch( table, "/users/new/1/other", "/*any", Map.of( "any", "users/new/1/other" ) );
+        assertMatch( table, "/users/5/other", "/*any", Map.of( "any", "users/5/other" ) );
+    }
+
+    @Test
+    public void testHeadFallsBackToGet()
+    {
+        IRequestHandler get = ( request, response ) -> {};
+        IRequestHandler head = ( request, response ) -> {};
+        RouteTree tree = new RouteTree();
+        tree.insert( "/fallback", RequestMethod.GET, get );
+        tree.insert( "/explicit", RequestMethod.GET, get );
+        tree.insert( "/explicit", RequestMethod.HEAD, head );
+        tree.insert( "/post-only", RequestMethod.POST, HANDLER );
+        RouteTable table = tree.compile();
+
+        assertSame( get, table.lookup( "/fallback", new HashMap<>() ).handler( RequestMethod.HEAD ) );
+        assertSame( head, table.lookup( "/explicit", new HashMap<>() ).handler( RequestMethod.HEAD ) );
+        assertNull( table.lookup( "/post-only", new HashMap<>() ).handler( RequestMethod.HEAD ) );
+    }
+
+    @Test
+    public void testAllowListsHandledMethods()
+    {
+        RouteTree tree = new RouteTree();
+        tree.insert( "/items/:id", RequestMethod.DELETE, HANDLER );
+        tree.insert( "/items/:id", RequestMethod.GET, HANDLER );
+        tree.insert( "/items/:id", RequestMethod.PUT, HANDLER );
+        tree.insert( "/login", RequestMethod.POST, HANDLER );
+        RouteTable table = tree.compile();
+
+        RouteTable.Route item = table.lookup( "/items/1", new HashMap<>() );
+        assertNull( item.handler( RequestMethod.POST ) );
+        assertEquals( "GET, HEAD, PUT, DELETE", item.allow() );
+        assertEquals( "POST", table.lookup( "/login", new HashMap<>() ).allow() );
+        assertEquals( 2, table.size() );
+    }
+
+    @Test
+    public void testConflictingDynamicSegmentsAreRejected()
+    {
+        RouteTree tree = new RouteTree();
+        tree.insert( "/users/:id", RequestMethod.GET, HANDLER );
+
+        assertThrows( IllegalArgumentException.class, () -> tree.insert( "/users/:name/posts", RequestMethod.GET, HANDLER ) );
+        assertThrows( IllegalArgumentException.class, () -> tree.insert( "/users/:", RequestMethod.GET, HANDLER ) );
+        assertThrows( IllegalArgumentException.class, () -> tree.insert( "/files/*", RequestMethod.GET, HANDLER ) );
+    }
+
+    private static RouteTable compile( String... routes )
+    {
+        RouteTree tree = new RouteTree();
+        for ( String route : routes )
+            tree.insert( route, RequestMethod.GET, HANDLER );
+        return tree.compile();
+    }
+
+    private static void assertMatch( RouteTable table, String path, String pattern, Map<String, String> parameters )
+    {
+        Map<String, String> captured = new HashMap<>();
+        RouteTable.Route route = table.lookup( path, captured );
+        assertEquals( path, pattern, route == null ? null : route.pattern() );
+        assertEquals( path, parameters, captured );
+    }
+
+    private static void assertNoMatch( RouteTable table, String path )
+    {
+        Map<String, String> captured = new HashMap<>();
+        assertNull( path, table.lookup( path, captured ) );
+        assertTrue( path, captured.isEmpty() );
+    }
+}
@@ -0,0 +1,128 @@
+import nl.getgood.api.server.Server;
+import nl.getgood.api.server.ServerProperty;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares the throughput and garbage collection load of serving a large static file
+ * by reading it into the heap, against transferring it with `FileChannel.transferTo`.
+ * This is not a unit test; run it with its main method, for example:
+ * <pre>
+ * java -Xmx512m -cp target/classes:target/test-classes StaticFileTransferBenchmark [file size in MB] [downloads]
+ * </pre>
+ * Created by agent.
+ */
+public class StaticFileTransferBenchmark
+{
+
+    private static final int CLIENTS = 8;
+
+    public static void main( String[] args ) throws Exception
+    {
+        int fileSizeMb = args.length > 0 ? Integer.parseInt( args[0] ) : 64;
+        int downloads = args.length > 1 ? Integer.parseInt( args[1] ) : 64;
+
+        Path root = Files.createTempDirectory( "static-benchmark" );
+        Path file = root.resolve( "download.bin" );
+        byte[] data = new byte[ fileSizeMb * 1024 * 1024 ];
+        new Random( 42 ).nextBytes( data );
+        Files.write( file, data );
+        data = null;
+
+        Server heapServer = createServer( 18181, root, Integer.MAX_VALUE );
+        Server zeroCopyServer = createServer( 18182, root, 0 );
+
+        // Warm up both paths before measuring.
+        run( 18181, downloads / 4 );
+        run( 18182, downloads / 4 );
+
+        report( "readAllBytes", 18181, downloads, fileSizeMb );
+        report( "transferTo", 18182, downloads, fileSizeMb );
+
+        heapServer.stopListening();
+        zeroCopyServer.stopListening();
+        Files.delete( file );
+        Files.delete( root );
+        System.exit( 0 );
+    }
+
+    private static Server createServer( int port, Path root, int zeroCopyThreshold ) throws InterruptedException
+    {
+        Server server = Server.create( port );
+        server.setProperty( ServerProperty.CONNECTION_CONCURRENCY, CLIENTS + 1 );
+        server.setProperty( ServerProperty.STATIC_CACHE_ENABLED, false );
+        server.setProperty( ServerProperty.STATIC_ZERO_COPY_THRESHOLD, zeroCopyThreshold );
+        server.serveStatic( "/", root.toString() + File.separator );
+        server.startListening();
+        Thread.sleep( 200 );
+        return server;
+    }
+
+    private static void report( String name, int port, int downloads, int fileSizeMb ) throws Exception
+    {
+        System.gc();
+        long collections = 0, collectionTime = 0;
+        for ( GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans() )
+        {
+            collections -= gc.getCollectionCount();
+            collectionTime -= gc.getCollectionTime();
+        }
+
+        long start = System.nanoTime();
+        run( port, downloads );
+        double seconds = ( System.nanoTime() - start ) / 1e9;
+
+        for ( GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans() )
+        {
+            collections += gc.getCollectionCount();
+            collectionTime += gc.getCollectionTime();
+        }
+
+        System.out.printf( "%-14s %8.1f MB/s  %6d GC collections  %6d ms in GC%n",
+                           name, downloads * fileSizeMb / seconds, collections, collectionTime );
+    }
+
+    private static void run( int port, int downloads ) throws Exception
+    {
+        ExecutorService clients = Executors.newFixedThreadPool( CLIENTS );
+        List<Future<Long>> results = new ArrayList<>();
+        for ( int i = 0; i < downloads; i++ )
+            results.add( clients.submit( () -> download( port ) ) );
+        for ( Future<Long> result : results )
+            result.get();
+        clients.shutdown();
+    }
+
+    private static long download( int port ) throws IOException
+    {
+        try ( Socket socket = new Socket( "localhost", port ) )
+        {
+            OutputStream out = socket.getOutputStream();
+            out.write( "GET /download.bin HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes( StandardCharsets.ISO_8859_1 ) );
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[ 64 * 1024 ];
+            long total = 0;
+            int read;
+            while ( ( read = in.read( buffer ) ) != - 1 )
+                total += read;
+            return total;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import nl.getgood.api.server.StaticRouteTrie;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares resolving static mounts with a linear scan over all routes, as the server used to,
+ * against the longest-prefix lookup of the static route trie.
+ * This is not a unit test; run it with its main method, for example:
+ * <pre>
+ * java -cp target/classes:target/test-classes StaticRouteLookupBenchmark [mounts]
+ * </pre>
+ * Created by agent.
+ */
+public class StaticRouteLookupBenchmark
+{
+
+    private static final int ITERATIONS = 2_000_000;
+
+    public static void main( String[] args )
+    {
+        int mounts = args.length > 0 ? Integer.parseInt( args[0] ) : 500;
+
+        Map<String, String> routes = new HashMap<>();
+        StaticRouteTrie trie = new StaticRouteTrie();
+        for ( int i = 0; i < mounts; i++ )
+        {
+            String route = "/tenant" + i + "/assets";
+            routes.put( route, "/srv/tenant" + i );
+            trie.insert( route, "/srv/tenant" + i );
+        }
+        // The catch-all mount is only added to the trie: in the linear scan it would match
+        // every path whenever hash order happens to put it first, which is the bug the trie fixes.
+        trie.insert( "/", "/srv/public" );
+
+        Random random = new Random( 42 );
+        String[] paths = new String[ 1024 ];
+        for ( int i = 0; i < paths.length; i++ )
+            paths[i] = "/tenant" + random.nextInt( mounts ) + "/assets/js/app.bundle.js";
+
+        for ( int round = 0; round < 3; round++ )
+        {
+            long linear = measureLinear( routes, paths );
+            long trieTime = measureTrie( trie, paths );
+            System.out.printf( "round %d: linear scan %7.1f ns/lookup, trie %7.1f ns/lookup%n",
+                               round, ( double ) linear / ITERATIONS, ( double ) trieTime / ITERATIONS );
+        }
+    }
+
+    private static long measureLinear( Map<String, String> routes, String[] paths )
+    {
+        int found = 0;
+        long start = System.nanoTime();
+        for ( int i = 0; i < ITERATIONS; i++ )
+        {
+            String path = paths[i & ( paths.length - 1 )];
+            for ( String route : routes.keySet() )
+            {
+                if ( path.startsWith( route ) )
+                {
+                    found += routes.get( route ).length();
+                    break;
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if ( found == 0 )
+            System.out.println( "No routes found" );
+        return elapsed;
+    }
+
+    private static long measureTrie( StaticRouteTrie trie, String[] paths )
+    {
+        int found = 0;
+        long start = System.nanoTime();
+        for ( int i = 0; i < ITERATIONS; i++ )
+        {
+            StaticRouteTrie.Mount mount = trie.lookup( paths[i & ( paths.length - 1 )] );
+            found += mount.localPath().length();
+        }
+        long elapsed = System.nanoTime() - start;
+        if ( found == 0 )
+            System.out.println( "No routes found" );
+        return elapsed;
+    }
+}
@@ -0,0 +1,159 @@
+import nl.getgood.api.server.Server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * A server on a free port for tests that send raw requests, which lets them set headers such as `Origin`
+ * that HTTP clients restrict, and read the response exactly as it was sent.
+ * <br /> <br />
+ * Created by agent.
+ */
+final class TestServer
+{
+
+    final Server server;
+    final int port;
+
+    private TestServer( Server server, int port )
+    {
+        this.server = server;
+        this.port = port;
+    }
+
+    /**
+     * Creates a server on a free port, configures it, and waits until it accepts connections.
+     *
+     * @param configure Registers the routes, middleware and properties of the server.
+     * @return The listening server.
+     */
+    static TestServer start( Consumer<Server> configure ) throws IOException, InterruptedException
+    {
+        int port;
+        try ( ServerSocket socket = new ServerSocket( 0 ) )
+        {
+            port = socket.getLocalPort();
+        }
+
+        Server server = Server.create( port );
+        configure.accept( server );
+
+        Thread listener = new Thread( server::startListening );
+        listener.setDaemon( true );
+        listener.start();
+
+        TestServer testServer = new TestServer( server, port );
+        testServer.awaitListening();
+        return testServer;
+    }
+
+    void stop()
+    {
+        this.server.stopListening();
+    }
+
+    /**
+     * Sends a request on a new connection, and reads the response until the server closes the connection.
+     *
+     * @param method  The method of the request.
+     * @param path    The path of the request.
+     * @param headers Additional header lines, each ending in CRLF.
+     * @return The response, head and body.
+     */
+    String request( String method, String path, String headers ) throws IOException
+    {
+        return this.request( "127.0.0.1", method, path, headers );
+    }
+
+    /**
+     * Sends a request from a local address, such as "127.0.0.2", so the server sees another client.
+     *
+     * @param localAddress The loopback address to send the request from.
+     * @param method       The method of the request.
+     * @param path         The path of the request.
+     * @param headers      Additional header lines, each ending in CRLF.
+     * @return The response, head and body.
+     */
+    String request( String localAddress, String method, String path, String headers ) throws IOException
+    {
+        try ( Socket socket = new Socket( InetAddress.getByName( "127.0.0.1" ), this.port, InetAddress.getByName( localAddress ), 0 ) )
+        {
+            // A server that failed to start may still have bound its port, so the response is not awaited forever.
+            socket.setSoTimeout( 10_000 );
+            String request = method + " " + path + " HTTP/1.1\r\nHost: 127.0.0.1:" + this.port + "\r\nConnection: close\r\n" + headers + "\r\n";
+            OutputStream output = socket.getOutputStream();
+            output.write( request.getBytes( StandardCharsets.ISO_8859_1 ) );
+            output.flush();
+
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            socket.getInputStream().transferTo( response );
+            return response.toString( StandardCharsets.ISO_8859_1 );
+        }
+    }
+
+    static String statusLine( String response )
+    {
+        return response.substring( 0, response.indexOf( "\r\n" ) );
+    }
+
+    /**
+     * Returns the value of the first header of a response with a name, or null if it has none.
+     */
+    static String header( String response, String name )
+    {
+        for ( String line : head( response ) )
+        {
+            if ( line.regionMatches( true, 0, name + ":", 0, name.length() + 1 ) )
+                return line.substring( name.length() + 1 ).trim();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the amount of headers of a response with a name.
+     */
+    static int count( String response, String name )
+    {
+        int count = 0;
+        for ( String line : head( response ) )
+        {
+            if ( line.regionMatches( true, 0, name + ":", 0, name.length() + 1 ) )
+                count++;
+        }
+        return count;
+    }
+
+    private static String[] head( String response )
+    {
+        return response.substring( 0, response.indexOf( "\r\n\r\n" ) ).split( "\r\n" );
+    }
+
+    /**
+     * Waits until the server answers requests. The port is bound before the routes are compiled,
+     * so a connection alone does not mean that the server has started.
+     */
+    private void awaitListening() throws InterruptedException
+    {
+        for ( int attempt = 0; attempt < 100; attempt++ )
+        {
+            try ( Socket socket = new Socket( "127.0.0.1", this.port ) )
+            {
+                socket.setSoTimeout( 100 );
+                socket.getOutputStream().write( "HEAD /.test-server-probe HTTP/1.1\r\nConnection: close\r\n\r\n".getBytes( StandardCharsets.ISO_8859_1 ) );
+                if ( socket.getInputStream().read() != - 1 )
+                    return;
+            }
+            catch ( IOException e )
+            {
+                Thread.sleep( 50 );
+            }
+        }
+        throw new IllegalStateException( "The server did not start listening" );
+    }
+}
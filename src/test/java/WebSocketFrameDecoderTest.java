@@ -0,0 +1,167 @@
+import nl.getgood.api.http.websocket.WebSocketFrame;
+import nl.getgood.api.http.websocket.WebSocketFrameDecoder;
+import nl.getgood.api.http.websocket.WebSocketMessageType;
+import nl.getgood.api.http.websocket.WebSocketProtocolException;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Created by agent.
+ */
+public class WebSocketFrameDecoderTest
+{
+
+    private static final byte[] MASK = { 0x12, 0x34, 0x56, 0x78 };
+
+    private final List<WebSocketMessageType> types = new ArrayList<>();
+    private final List<byte[]> payloads = new ArrayList<>();
+
+    @Test
+    public void testSingleFrameFedByteByByte() throws WebSocketProtocolException
+    {
+        feedByteByByte( decoder( 1024 ), text( "Hello, World!", true ) );
+
+        assertEquals( List.of( WebSocketMessageType.TEXT ), this.types );
+        assertEquals( "Hello, World!", new String( this.payloads.get( 0 ), StandardCharsets.UTF_8 ) );
+    }
+
+    @Test
+    public void testMultipleFramesInOneRead() throws WebSocketProtocolException
+    {
+        byte[] frames = concat( text( "first", true ), text( "", true ), text( "second", true ) );
+        decoder( 1024 ).feed( frames, 0, frames.length );
+
+        assertEquals( 3, this.payloads.size() );
+        assertEquals( "first", new String( this.payloads.get( 0 ), StandardCharsets.UTF_8 ) );
+        assertEquals( 0, this.payloads.get( 1 ).length );
+        assertEquals( "second", new String( this.payloads.get( 2 ), StandardCharsets.UTF_8 ) );
+    }
+
+    @Test
+    public void testFragmentedMessageWithInterleavedPing() throws WebSocketProtocolException
+    {
+        byte[] frames = concat(
+                text( "Hel", false ),
+                WebSocketFrame.encode( WebSocketMessageType.PING, new byte[] { 1, 2 }, true, MASK ),
+                WebSocketFrame.encode( WebSocketMessageType.CONTINUING, "lo, ".getBytes( StandardCharsets.UTF_8 ), false, MASK ),
+                WebSocketFrame.encode( WebSocketMessageType.CONTINUING, "World!".getBytes( StandardCharsets.UTF_8 ), true, MASK ) );
+        feedByteByByte( decoder( 1024 ), frames );
+
+        assertEquals( List.of( WebSocketMessageType.PING, WebSocketMessageType.TEXT ), this.types );
+        assertArrayEquals( new byte[] { 1, 2 }, this.payloads.get( 0 ) );
+        assertEquals( "Hello, World!", new String( this.payloads.get( 1 ), StandardCharsets.UTF_8 ) );
+    }
+
+    @Test
+    public void testExtendedPayloadLengthsInRandomChunks() throws WebSocketProtocolException
+    {
+        Random random = new Random( 42 );
+        byte[] medium = new byte[ 300 ];
+        byte[] large = new byte[ 70_000 ];
+        random.nextBytes( medium );
+        random.nextBytes( large );
+
+        byte[] frames = concat( WebSocketFrame.encode( WebSocketMessageType.BINARY, medium, true, MASK ),
+                                WebSocketFrame.encode( WebSocketMessageType.BINARY, large, true, MASK ),
+                                text( "after", true ) );
+        WebSocketFrameDecoder decoder = decoder( 100_000 );
+        for ( int offset = 0; offset < frames.length; )
+        {
+            int length = Math.min( 1 + random.nextInt( 1000 ), frames.length - offset );
+            decoder.feed( frames, offset, length );
+            offset += length;
+        }
+
+        assertEquals( 3, this.payloads.size() );
+        assertArrayEquals( medium, this.payloads.get( 0 ) );
+        assertArrayEquals( large, this.payloads.get( 1 ) );
+        assertEquals( "after", new String( this.payloads.get( 2 ), StandardCharsets.UTF_8 ) );
+        decoder.release();
+    }
+
+    @Test
+    public void testCloseFrameEndsDecoding() throws WebSocketProtocolException
+    {
+        byte[] frames = concat( WebSocketFrame.encode( WebSocketMessageType.CLOSE, new byte[] { 0x03, ( byte ) 0xE8 }, true, MASK ),
+                                text( "ignored", true ) );
+        WebSocketFrameDecoder decoder = decoder( 1024 );
+        decoder.feed( frames, 0, frames.length );
+
+        assertTrue( decoder.isClosed() );
+        assertEquals( List.of( WebSocketMessageType.CLOSE ), this.types );
+    }
+
+    @Test
+    public void testMessageExceedingMaximumSizeAcrossFragments()
+    {
+        byte[] frames = concat( text( "12345", false ),
+                                WebSocketFrame.encode( WebSocketMessageType.CONTINUING, "67890".getBytes( StandardCharsets.UTF_8 ), true, MASK ) );
+        assertCloseCode( WebSocketProtocolException.MESSAGE_TOO_BIG, decoder( 8 ), frames );
+        assertTrue( this.payloads.isEmpty() );
+    }
+
+    @Test
+    public void testProtocolViolations()
+    {
+        assertCloseCode( WebSocketProtocolException.PROTOCOL_ERROR, decoder( 1024 ),
+                         WebSocketFrame.encode( WebSocketMessageType.TEXT, "unmasked" ) );
+        assertCloseCode( WebSocketProtocolException.PROTOCOL_ERROR, decoder( 1024 ),
+                         WebSocketFrame.encode( WebSocketMessageType.PING, new byte[ 0 ], false, MASK ) );
+        assertCloseCode( WebSocketProtocolException.PROTOCOL_ERROR, decoder( 1024 ),
+                         WebSocketFrame.encode( WebSocketMessageType.CONTINUING, new byte[ 1 ], true, MASK ) );
+        assertCloseCode( WebSocketProtocolException.PROTOCOL_ERROR, decoder( 1024 ),
+                         concat( text( "a", false ), text( "b", true ) ) );
+        assertCloseCode( WebSocketProtocolException.PROTOCOL_ERROR, decoder( 1024 ), new byte[] { ( byte ) 0x83, ( byte ) 0x80, 0, 0, 0, 0 } );
+    }
+
+    private WebSocketFrameDecoder decoder( int maxMessageSize )
+    {
+        return new WebSocketFrameDecoder( maxMessageSize, ( type, payload ) ->
+        {
+            this.types.add( type );
+            this.payloads.add( payload );
+        } );
+    }
+
+    private static void assertCloseCode( int closeCode, WebSocketFrameDecoder decoder, byte[] frames )
+    {
+        try
+        {
+            feedByteByByte( decoder, frames );
+            fail( "Expected a protocol exception" );
+        }
+        catch ( WebSocketProtocolException e )
+        {
+            assertEquals( closeCode, e.getCloseCode() );
+        }
+    }
+
+    private static void feedByteByByte( WebSocketFrameDecoder decoder, byte[] frames ) throws WebSocketProtocolException
+    {
+        for ( int i = 0; i < frames.length; i++ )
+            decoder.feed( frames, i, 1 );
+    }
+
+    private static byte[] text( String content, boolean fin )
+    {
+        return WebSocketFrame.encode( WebSocketMessageType.TEXT, content.getBytes( StandardCharsets.UTF_8 ), fin, MASK );
+    }
+
+    private static byte[] concat( byte[]... frames )
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for ( byte[] frame : frames )
+            out.writeBytes( frame );
+        return out.toByteArray();
+    }
+}